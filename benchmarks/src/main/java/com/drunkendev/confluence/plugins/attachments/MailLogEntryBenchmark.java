@@ -0,0 +1,80 @@
+/*
+ * MailLogEntryBenchmark.java    Oct 18 2026, 03:10
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Measures creating and formatting the report entry of one attachment.
+ *
+ * <p>
+ * A {@code gap} of {@code 0} deletes a contiguous run of versions which
+ * collapses to a single range, a gap of {@code 2} deletes every other version
+ * so that no versions collapse.
+ *
+ * @author  Brett Ryan
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MailLogEntryBenchmark {
+
+    @Param({"1", "10", "100", "1000", "10000"})
+    private int versions;
+
+    @Param({"0", "2"})
+    private int gap;
+
+    private int[] deletedVersions;
+    private MailLogEntry entry;
+
+    @Setup
+    public void setup() {
+        deletedVersions = SyntheticHistory.deletedVersions(versions, gap);
+        entry = SyntheticHistory.entries(1, versions, gap).get(0);
+    }
+
+    @Benchmark
+    public MailLogEntry create() {
+        return MailLogEntry.of(entry.getSpace(),
+                               entry.getDisplayTitle(),
+                               entry.getAttachmentsUrlPath(),
+                               entry.getVersion(),
+                               deletedVersions,
+                               false,
+                               true,
+                               entry.getSpaceSaved());
+    }
+
+    @Benchmark
+    public String getDeletedVersionsRanged() {
+        return entry.getDeletedVersionsRanged();
+    }
+
+    @Benchmark
+    public List<Integer> getDeletedVersions() {
+        return entry.getDeletedVersions();
+    }
+
+}
@@ -0,0 +1,75 @@
+/*
+ * MailRenderBenchmark.java    Oct 18 2026, 03:20
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Measures rendering the listing of a report mail.
+ *
+ * <p>
+ * Each invocation renders {@value #ATTACHMENTS} entries, scores are reported
+ * per attachment listed.
+ *
+ * @author  Brett Ryan
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class MailRenderBenchmark {
+
+    private static final int ATTACHMENTS = 100;
+    private static final String BASE_URL = "https://confluence.example.com";
+
+    @Param({"1", "10", "100", "1000", "10000"})
+    private int versions;
+
+    @Param({"0", "2"})
+    private int gap;
+
+    private List<MailLogEntry> entries;
+
+    @Setup
+    public void setup() {
+        entries = SyntheticHistory.entries(ATTACHMENTS, versions, gap);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ATTACHMENTS)
+    public int plain() {
+        StringBuilder sb = new StringBuilder();
+        PurgeAttachmentsJob.appendPlainEntries(sb, entries, BASE_URL);
+        return sb.length();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(ATTACHMENTS)
+    public int html() {
+        StringBuilder sb = new StringBuilder();
+        PurgeAttachmentsJob.appendHtmlEntries(sb, entries, BASE_URL);
+        return sb.length();
+    }
+
+}
@@ -0,0 +1,100 @@
+/*
+ * PurgeRulesBenchmark.java    Oct 18 2026, 03:00
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.time.LocalDateTime;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+
+/**
+ * Measures deciding which prior versions of one attachment to purge.
+ *
+ * <p>
+ * Each operation evaluates a single attachment as the job does for every
+ * attachment visited, so the score is the time per attachment. The
+ * {@code rules} parameter enables the revision count, age, total size and
+ * version size rules alone or together to measure each in isolation.
+ *
+ * @author  Brett Ryan
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PurgeRulesBenchmark {
+
+    @Param({"1", "10", "100", "1000", "10000"})
+    private int versions;
+
+    @Param({"count", "age", "size", "version", "type", "all"})
+    private String rules;
+
+    private SyntheticHistory history;
+    private PurgeAttachmentSettings settings;
+    private PurgeRuleSet ruleSet;
+    private final BitSet selected = new BitSet();
+
+    @Setup
+    public void setup() {
+        LocalDateTime now = LocalDateTime.now();
+        history = new SyntheticHistory(versions, 3 * 365, System.currentTimeMillis());
+        boolean all = "all".equals(rules);
+        settings = new PurgeAttachmentSettings(PurgeAttachmentSettings.MODE_GLOBAL,
+                                               all || "age".equals(rules),
+                                               365,
+                                               all || "count".equals(rules),
+                                               5,
+                                               all || "size".equals(rules),
+                                               100,
+                                               false,
+                                               null,
+                                               false,
+                                               0);
+        if (all || "version".equals(rules)) {
+            settings.setMaxVersionSize(3);
+        }
+        if (all || "type".equals(rules)) {
+            settings.setFileTypeRetention("psd=2, pdf=5, video/*=0");
+        }
+        ruleSet = PurgeRuleSet.compile(settings, now);
+    }
+
+    /**
+     * Evaluate an attachment against rules compiled once, as the job does for
+     * every attachment of a space.
+     */
+    @Benchmark
+    public int evaluate() {
+        return ruleSet.evaluate(history, "attachment.pdf", "application/pdf", selected);
+    }
+
+    /**
+     * Compile the rules for each attachment, the cost the job avoids by
+     * compiling once per settings.
+     */
+    @Benchmark
+    public int compileAndEvaluate() {
+        return PurgeRuleSet.compile(settings, LocalDateTime.now())
+                .evaluate(history, "attachment.pdf", "application/pdf", selected);
+    }
+
+}
@@ -0,0 +1,106 @@
+/*
+ * SyntheticHistory.java    Oct 18 2026, 02:50
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Generates attachment histories for benchmarks.
+ *
+ * <p>
+ * Histories are generated from a fixed seed so that each run of a benchmark
+ * sees the same data.
+ *
+ * @author  Brett Ryan
+ */
+final class SyntheticHistory implements PriorVersions {
+
+    private static final long SEED = 0x5eed;
+    private static final long MAX_VERSION_BYTES = 4L * 1024 * 1024;
+
+    private final long[] sizes;
+    private final long[] modified;
+
+    /**
+     * Creates a history of prior versions, oldest first, modified at random
+     * intervals over the given number of days before {@code now}.
+     */
+    SyntheticHistory(int versions, int days, long now) {
+        Random rnd = new Random(SEED);
+        this.sizes = new long[versions];
+        this.modified = new long[versions];
+        long span = TimeUnit.DAYS.toMillis(days);
+        for (int i = 0; i < versions; i++) {
+            sizes[i] = 1 + (long) (rnd.nextDouble() * MAX_VERSION_BYTES);
+            modified[i] = now - span + span * i / versions;
+        }
+    }
+
+    @Override
+    public long getSize(int index) {
+        return sizes[index];
+    }
+
+    @Override
+    public long getModified(int index) {
+        return modified[index];
+    }
+
+    @Override
+    public int size() {
+        return sizes.length;
+    }
+
+    /**
+     * @return  report entries for the given number of attachments spread over
+     *          ten spaces, each deleting the given number of versions with
+     *          every {@code gap}th version retained.
+     */
+    static List<MailLogEntry> entries(int attachments, int versions, int gap) {
+        Random rnd = new Random(SEED);
+        MailLogEntry.SpaceDetail[] spaces = new MailLogEntry.SpaceDetail[10];
+        for (int i = 0; i < spaces.length; i++) {
+            spaces[i] = new MailLogEntry.SpaceDetail("SPACE" + i, "Space " + i, "/display/SPACE" + i);
+        }
+        List<MailLogEntry> res = new ArrayList<>(attachments);
+        for (int i = 0; i < attachments; i++) {
+            res.add(MailLogEntry.of(spaces[i % spaces.length],
+                                    "attachment-" + i + ".pdf",
+                                    "/pages/viewpageattachments.action?pageId=" + i,
+                                    versions + 1,
+                                    deletedVersions(versions, gap),
+                                    rnd.nextBoolean(),
+                                    true,
+                                    versions * (MAX_VERSION_BYTES / 2)));
+        }
+        res.sort(MailLogEntry.COMP_SPACE_TITLE);
+        return res;
+    }
+
+    /**
+     * @return  versions {@code 1} to {@code versions} in ascending order
+     *          skipping every {@code gap}th, none are skipped where
+     *          {@code gap} is {@code 0}.
+     */
+    static int[] deletedVersions(int versions, int gap) {
+        int[] res = new int[versions];
+        int n = 0;
+        for (int v = 1; v <= versions; v++) {
+            if (gap == 0 || v % gap != 0) {
+                res[n++] = v;
+            }
+        }
+        return n == res.length ? res : Arrays.copyOf(res, n);
+    }
+
+}
@@ -0,0 +1,242 @@
+/*
+ * AgeExpiryIndex.java    Oct 17 2026, 17:40
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+
+
+/**
+ * Persistent index of when attachments next become eligible for the age rule.
+ *
+ * <p>
+ * Each partition has a directory, in the plugin home, holding one bucket file per due date, named
+ * {@code yyyy-MM-dd.ids}, containing the identifiers of current attachments
+ * whose oldest retained prior version crosses the age threshold on that date.
+ * Incremental runs read the buckets which have fallen due rather than visiting
+ * every attachment.
+ *
+ * <p>
+ * An attachment may appear in more than one bucket where it was re-indexed
+ * after being modified, this only costs an extra visit.
+ *
+ * @author  Brett Ryan
+ */
+public class AgeExpiryIndex {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AgeExpiryIndex.class);
+
+    private static final String BUCKET_SUFFIX = ".ids";
+    private static final String NO_SPACE_DIR = "_no-space";
+
+    private final PluginHome pluginHome;
+
+    /**
+     * Creates a new {@code AgeExpiryIndex} instance.
+     */
+    public AgeExpiryIndex(PluginHome pluginHome) {
+        this.pluginHome = pluginHome;
+    }
+
+    private Path getRoot() {
+        return pluginHome.resolve("age-expiry");
+    }
+
+    private Path getDir(ScanPartition partition) {
+        if (partition.isAll()) {
+            throw new IllegalArgumentException("Only space partitions are indexed.");
+        }
+        if (partition.isNoSpace()) {
+            return getRoot().resolve(NO_SPACE_DIR);
+        }
+        try {
+            return getRoot().resolve(URLEncoder.encode(partition.getSpaceKey(), "UTF-8"));
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    /**
+     * Read all attachments due on or before the given date.
+     *
+     * @return  distinct identifiers in ascending order.
+     */
+    public long[] readDue(ScanPartition partition, LocalDate date) {
+        LongQueue ids = new LongQueue();
+        for (Path bucket : getBuckets(partition, date)) {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(bucket)))) {
+                while (true) {
+                    ids.add(in.readLong());
+                }
+            } catch (EOFException ex) {
+                // End of bucket.
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+        long[] res = new long[(int) ids.size()];
+        for (int i = 0; i < res.length; i++) {
+            res[i] = ids.poll();
+        }
+        Arrays.sort(res);
+        int n = 0;
+        for (int i = 0; i < res.length; i++) {
+            if (n == 0 || res[n - 1] != res[i]) {
+                res[n++] = res[i];
+            }
+        }
+        return n == res.length ? res : Arrays.copyOf(res, n);
+    }
+
+    /**
+     * Start recording due dates for a partition, nothing is written until the
+     * update is committed.
+     */
+    public Update update(ScanPartition partition) {
+        return new Update(partition);
+    }
+
+    /**
+     * Remove the index of a single space, or of all partitions when no space
+     * is given, so that it is rebuilt by the next full sweep.
+     */
+    public void clear(String spaceKey) {
+        Path dir = spaceKey == null ? getRoot() : getDir(ScanPartition.ofSpace(spaceKey));
+        LOG.info("Clearing age expiry index {}", dir);
+        delete(dir);
+    }
+
+    private static void delete(Path path) {
+        try {
+            if (Files.isDirectory(path)) {
+                try (DirectoryStream<Path> ds = Files.newDirectoryStream(path)) {
+                    for (Path p : ds) {
+                        delete(p);
+                    }
+                }
+            }
+            Files.deleteIfExists(path);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * @param   to
+     *          Latest due date to return, or {@code null} for all buckets.
+     */
+    private List<Path> getBuckets(ScanPartition partition, LocalDate to) {
+        Path dir = getDir(partition);
+        List<Path> res = new ArrayList<>();
+        if (!Files.isDirectory(dir)) {
+            return res;
+        }
+        try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, "*" + BUCKET_SUFFIX)) {
+            for (Path p : ds) {
+                String name = p.getFileName().toString();
+                try {
+                    LocalDate due = LocalDate.parse(name.substring(0, name.length() - BUCKET_SUFFIX.length()));
+                    if (to == null || !due.isAfter(to)) {
+                        res.add(p);
+                    }
+                } catch (DateTimeParseException ex) {
+                    LOG.warn("Ignoring unknown file in age expiry index: {}", p);
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return res;
+    }
+
+
+    /**
+     * Due dates recorded for a partition during a single run.
+     *
+     * <p>
+     * This class is not thread safe, a partition is only processed by a single
+     * worker.
+     */
+    public final class Update {
+
+        private final ScanPartition partition;
+        private final Map<LocalDate, LongQueue> buckets = new HashMap<>();
+
+        private Update(ScanPartition partition) {
+            this.partition = partition;
+        }
+
+        /**
+         * Record the date an attachment next becomes eligible for the age rule.
+         */
+        public void add(LocalDate due, long attachmentId) {
+            buckets.computeIfAbsent(due, k -> new LongQueue()).add(attachmentId);
+        }
+
+        /**
+         * Persist recorded due dates.
+         *
+         * @param   replaceAll
+         *          {@code true} when every attachment of the partition was
+         *          visited and all existing buckets are replaced.
+         * @param   consumed
+         *          Buckets due on or before this date were read by this run
+         *          and are removed, ignored where replacing all buckets.
+         */
+        public void commit(boolean replaceAll, LocalDate consumed) {
+            for (Path p : getBuckets(partition, replaceAll ? null : consumed)) {
+                delete(p);
+            }
+            if (buckets.isEmpty()) {
+                return;
+            }
+            Path dir = getDir(partition);
+            try {
+                Files.createDirectories(dir);
+                for (Map.Entry<LocalDate, LongQueue> e : buckets.entrySet()) {
+                    Path bucket = dir.resolve(e.getKey() + BUCKET_SUFFIX);
+                    try (LongQueue ids = e.getValue();
+                         DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                                 Files.newOutputStream(bucket, CREATE, APPEND)))) {
+                        while (!ids.isEmpty()) {
+                            out.writeLong(ids.poll());
+                        }
+                    }
+                }
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            LOG.debug("Committed {} age expiry buckets for {}", buckets.size(), partition);
+            buckets.clear();
+        }
+
+    }
+
+}
@@ -0,0 +1,55 @@
+/*
+ * AgeRule.java    Oct 18 2026, 04:00
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Purges prior versions last modified before a cutoff, along with every older
+ * version. Versions whose modification date is not known are never matched.
+ *
+ * @author  Brett Ryan
+ */
+public final class AgeRule implements RetentionRule {
+
+    private final long cutoff;
+
+    /**
+     * Creates a new {@code AgeRule} instance.
+     *
+     * @param   cutoff
+     *          Epoch milliseconds before which a version is purged.
+     */
+    public AgeRule(long cutoff) {
+        this.cutoff = cutoff;
+    }
+
+    /**
+     * {@link RetentionRule.Factory} of the maximum days old.
+     */
+    public static List<RetentionRule> create(PurgeAttachmentSettings stng, LocalDateTime now) {
+        return stng.isAgeRuleEnabled()
+               ? Collections.singletonList(new AgeRule(PurgeRules.getAgeCutoff(stng, now)))
+               : Collections.emptyList();
+    }
+
+    @Override
+    public boolean purges(PriorVersions versions, int index, long retainedBytes) {
+        long modified = versions.getModified(index);
+        return modified != PurgeRules.UNKNOWN_MODIFIED && modified < cutoff;
+    }
+
+    @Override
+    public String toString() {
+        return "AgeRule{" + "cutoff=" + cutoff + '}';
+    }
+
+}
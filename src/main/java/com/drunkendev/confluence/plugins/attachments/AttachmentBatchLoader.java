@@ -0,0 +1,101 @@
+/*
+ * AttachmentBatchLoader.java    Oct 17 2026, 11:10
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import com.atlassian.confluence.core.ContentEntityObject;
+import com.atlassian.confluence.pages.Attachment;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.util.Comparator.comparingLong;
+import static java.util.stream.Collectors.toList;
+import static java.util.stream.Collectors.toSet;
+
+
+/**
+ * Loads the full history of a batch of attachments with a fixed number of
+ * queries regardless of batch size.
+ *
+ * <p>
+ * Must be called from within a transaction, returned entities are attached to
+ * the current session.
+ *
+ * @author  Brett Ryan
+ */
+public class AttachmentBatchLoader {
+
+    private final PurgeAttachmentsDao dao;
+    private final PhaseTimer loadTimer;
+    private final PhaseTimer priorLoadTimer;
+
+    /**
+     * Creates a new {@code AttachmentBatchLoader} instance.
+     */
+    public AttachmentBatchLoader(PurgeAttachmentsDao dao) {
+        this(dao, new PhaseTimer("load"), new PhaseTimer("prior_load"));
+    }
+
+    /**
+     * Creates a new {@code AttachmentBatchLoader} instance recording the time
+     * taken by each load in the given metrics.
+     */
+    public AttachmentBatchLoader(PurgeAttachmentsDao dao, PurgeMetrics metrics) {
+        this(dao, metrics.getTimer(PurgeMetrics.Phase.LOAD), metrics.getTimer(PurgeMetrics.Phase.PRIOR_LOAD));
+    }
+
+    private AttachmentBatchLoader(PurgeAttachmentsDao dao, PhaseTimer loadTimer, PhaseTimer priorLoadTimer) {
+        this.dao = dao;
+        this.loadTimer = loadTimer;
+        this.priorLoadTimer = priorLoadTimer;
+    }
+
+    /**
+     * Load histories for the given attachment identifiers.
+     *
+     * @param   ids
+     *          Attachment identifiers, identifiers of prior versions are
+     *          ignored.
+     * @return  Histories in identifier order.
+     */
+    public List<AttachmentHistory> load(Collection<Long> ids) {
+        long start = System.nanoTime();
+        List<Attachment> current = dao.findCurrentAttachments(ids);
+        if (current.isEmpty()) {
+            return Collections.emptyList();
+        }
+        current.sort(comparingLong(Attachment::getId));
+
+        Set<Long> containerIds = current.stream()
+                .map(Attachment::getContainer)
+                .filter(c -> c != null)
+                .map(ContentEntityObject::getId)
+                .collect(toSet());
+        dao.findSpacesForContainers(containerIds);
+        loadTimer.record(System.nanoTime() - start);
+
+        start = System.nanoTime();
+        List<Long> currentIds = current.stream().map(Attachment::getId).collect(toList());
+        Map<Long, List<Attachment>> prior = new HashMap<>();
+        for (Attachment p : dao.findPriorVersions(currentIds)) {
+            prior.computeIfAbsent(p.getOriginalVersion().getId(), k -> new ArrayList<>()).add(p);
+        }
+        priorLoadTimer.record(System.nanoTime() - start);
+
+        return current.stream()
+                .map(a -> new AttachmentHistory(a,
+                                                a.getSpace(),
+                                                prior.getOrDefault(a.getId(), Collections.emptyList())))
+                .collect(toList());
+    }
+
+}
@@ -0,0 +1,141 @@
+/*
+ * AttachmentDataLocator.java    Oct 18 2026, 04:40
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import com.atlassian.confluence.setup.BootstrapManager;
+import com.atlassian.confluence.setup.settings.SettingsManager;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+
+/**
+ * Locates the stored file of attachment versions without loading entities.
+ *
+ * <p>
+ * Files are only located where the global settings keep attachments in the
+ * file system, which from confluence 5.7 uses the hierarchical layout, see
+ * "Hierarchical File System Attachment Storage" in the confluence
+ * documentation. Attachments kept in the database are not located and
+ * {@link #isAvailable()} returns {@code false}. The setting is read on each
+ * call as it may be changed while the plugin runs.
+ *
+ * @author  Brett Ryan
+ */
+public class AttachmentDataLocator {
+
+    /**
+     * Value of {@code Settings.getAttachmentDataStore()} where attachments
+     * are kept in the file system.
+     */
+    static final String FILE_SYSTEM_STORE = "file.system.based.attachments.storage";
+
+    private static final String ATTACHMENTS_DIR = "attachments";
+    private static final String LAYOUT_DIR = "ver003";
+    private static final String NONSPACED_DIR = "nonspaced";
+
+    private final SettingsManager settingsManager;
+    private final PurgeAttachmentsDao purgeDao;
+    private final Path root;
+
+    /**
+     * Creates a new {@code AttachmentDataLocator} instance.
+     */
+    public AttachmentDataLocator(BootstrapManager bootstrapManager,
+                                 SettingsManager settingsManager,
+                                 PurgeAttachmentsDao purgeAttachmentsDao) {
+        this.settingsManager = settingsManager;
+        this.purgeDao = purgeAttachmentsDao;
+        this.root = findRoot(bootstrapManager);
+    }
+
+    /**
+     * Attachments are kept in the shared home of a cluster, otherwise in the
+     * local home.
+     */
+    private static Path findRoot(BootstrapManager bootstrapManager) {
+        Path shared = bootstrapManager.getSharedHome().toPath().resolve(ATTACHMENTS_DIR);
+        Path dir = Files.isDirectory(shared)
+                   ? shared
+                   : bootstrapManager.getLocalHome().toPath().resolve(ATTACHMENTS_DIR);
+        return dir.resolve(LAYOUT_DIR);
+    }
+
+    /**
+     * @return  {@code true} if files of attachment versions may be located.
+     */
+    public boolean isAvailable() {
+        return FILE_SYSTEM_STORE.equals(settingsManager.getGlobalSettings().getAttachmentDataStore());
+    }
+
+    /**
+     * Locate the files of attachment versions, must be called within a
+     * transaction.
+     *
+     * @param   ids
+     *          Identifiers of any attachment version.
+     * @return  files by version identifier in the order found, versions which
+     *          no longer exist are omitted. Empty where not
+     *          {@link #isAvailable() available}.
+     */
+    public Map<Long, Path> locate(Collection<Long> ids) {
+        Map<Long, Path> res = new LinkedHashMap<>();
+        if (ids.isEmpty() || !isAvailable()) {
+            return res;
+        }
+        List<Object[]> rows = purgeDao.findDataLocations(ids);
+        Set<Long> containerIds = new HashSet<>();
+        for (Object[] row : rows) {
+            containerIds.add((Long) row[3]);
+        }
+        Map<Long, Long> spaceIds = new HashMap<>();
+        for (Object[] row : purgeDao.findContainerSpaceIds(containerIds)) {
+            spaceIds.put((Long) row[0], (Long) row[1]);
+        }
+        for (Object[] row : rows) {
+            long containerId = (Long) row[3];
+            // Versions are kept beneath the directory of the current version.
+            long attachmentId = row[2] == null ? (Long) row[0] : (Long) row[2];
+            res.put((Long) row[0], resolve(root, spaceIds.get(containerId), containerId,
+                                           attachmentId, ((Number) row[1]).intValue()));
+        }
+        return res;
+    }
+
+    /**
+     * Space and container identifiers are each hashed to two directories of
+     * the last three digits and the next three digits modulo 250, followed by
+     * a directory named by the identifier. Data of content not belonging to a
+     * space is kept beneath {@code nonspaced}.
+     *
+     * @param   spaceId
+     *          Space of the container, {@code null} if it has none.
+     * @param   attachmentId
+     *          Current version identifier.
+     */
+    static Path resolve(Path root, Long spaceId, long containerId, long attachmentId, int version) {
+        Path dir = spaceId == null
+                   ? root.resolve(NONSPACED_DIR)
+                   : hashed(root, spaceId).resolve(Long.toString(spaceId));
+        return hashed(dir, containerId)
+                .resolve(Long.toString(containerId))
+                .resolve(Long.toString(attachmentId))
+                .resolve(Integer.toString(version));
+    }
+
+    private static Path hashed(Path dir, long id) {
+        return dir.resolve(Long.toString(id % 1000 % 250)).resolve(Long.toString(id / 1000 % 1000 % 250));
+    }
+
+}
@@ -0,0 +1,58 @@
+/*
+ * AttachmentHistory.java    Oct 17 2026, 11:02
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import com.atlassian.confluence.pages.Attachment;
+import com.atlassian.confluence.spaces.Space;
+import java.util.List;
+
+
+/**
+ * A current attachment version along with its owning space and all prior
+ * versions.
+ *
+ * @author  Brett Ryan
+ */
+public final class AttachmentHistory {
+
+    private final Attachment current;
+    private final Space space;
+    private final List<Attachment> prior;
+
+    /**
+     * Creates a new {@code AttachmentHistory} instance.
+     *
+     * @param   current
+     *          Current attachment version.
+     * @param   space
+     *          Space owning the attachment, may be {@code null}.
+     * @param   prior
+     *          Prior versions sorted by version ascending.
+     */
+    public AttachmentHistory(Attachment current, Space space, List<Attachment> prior) {
+        this.current = current;
+        this.space = space;
+        this.prior = prior;
+    }
+
+    public Attachment getCurrent() {
+        return current;
+    }
+
+    public Space getSpace() {
+        return space;
+    }
+
+    /**
+     * @return  prior versions sorted by version ascending.
+     */
+    public List<Attachment> getPrior() {
+        return prior;
+    }
+
+}
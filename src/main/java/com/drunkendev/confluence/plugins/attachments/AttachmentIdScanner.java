@@ -0,0 +1,223 @@
+/*
+ * AttachmentIdScanner.java    Oct 17 2026, 09:20
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import com.atlassian.confluence.pages.Attachment;
+import com.atlassian.confluence.pages.AttachmentManager;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Source of current attachment identifiers to be visited by the purge job.
+ *
+ * <p>
+ * Scanners are consumed by repeatedly calling {@link #fill(LongQueue)} whenever
+ * the work queue runs dry until it returns {@code false}.
+ *
+ * @author  Brett Ryan
+ * @see     PurgeAttachmentSettings#SCAN_MODE_KEYSET
+ * @see     PurgeAttachmentSettings#SCAN_MODE_FIND_ALL
+ */
+public interface AttachmentIdScanner {
+
+    /**
+     * Add the next available identifiers to the given queue.
+     *
+     * @param   ids
+     *          Queue to append identifiers to.
+     * @return  {@code true} if any identifiers were added, {@code false} once
+     *          the scan has been exhausted.
+     */
+    boolean fill(LongQueue ids);
+
+    /**
+     * @return  number of current attachments passed over without being queued
+     *          because they could not have versions to purge.
+     */
+    default long getSkipped() {
+        return 0;
+    }
+
+    /**
+     * Create a scanner for the scan mode of the given system settings.
+     *
+     * @param   settings
+     *          System settings.
+     * @param   partition
+     *          Partition to scan, ignored when loading all attachments.
+     * @param   filter
+     *          Candidate filter to apply.
+     * @param   afterId
+     *          Identifier to resume a paged scan after, or {@code 0}.
+     */
+    static AttachmentIdScanner create(PurgeAttachmentSettings settings,
+                                      ScanPartition partition,
+                                      CandidateFilter filter,
+                                      long afterId,
+                                      AttachmentManager attachmentManager,
+                                      PurgeAttachmentsDao dao) {
+        if (settings.getScanMode() == PurgeAttachmentSettings.SCAN_MODE_FIND_ALL) {
+            return new FindAll(attachmentManager);
+        }
+        return new Keyset(dao, partition, filter, settings.getScanPageSizeOrDefault(), afterId);
+    }
+
+    /**
+     * Add identifiers to those returned by an ascending scanner so that each
+     * is returned once.
+     *
+     * @param   scanner
+     *          Scanner returning identifiers in ascending order.
+     * @param   extra
+     *          Distinct identifiers in ascending order.
+     */
+    static AttachmentIdScanner merge(AttachmentIdScanner scanner, long[] extra) {
+        return extra.length == 0 ? scanner : new Merging(scanner, extra);
+    }
+
+
+    /**
+     * Loads every attachment entity in one pass and collects its identifier.
+     *
+     * <p>
+     * This is the original behaviour of the job and is retained for instances
+     * where the keyset query can not be used.
+     */
+    static final class FindAll implements AttachmentIdScanner {
+
+        private final AttachmentManager attachmentManager;
+        private boolean done;
+
+        private FindAll(AttachmentManager attachmentManager) {
+            this.attachmentManager = attachmentManager;
+        }
+
+        @Override
+        public boolean fill(LongQueue ids) {
+            if (done) {
+                return false;
+            }
+            done = true;
+            long size = ids.size();
+            attachmentManager.getAttachmentDao().findAll()
+                    .stream()
+                    .mapToLong(Attachment::getId)
+                    .forEach(ids::add);
+            return ids.size() > size;
+        }
+
+    }
+
+
+    /**
+     * Pages through candidate attachment identifiers in identifier order
+     * holding at most one page at a time.
+     *
+     * <p>
+     * Only attachments with prior versions which pass the candidate filter are
+     * returned, all other current attachments within each page's identifier
+     * range are counted as skipped.
+     */
+    static final class Keyset implements AttachmentIdScanner {
+
+        private final PurgeAttachmentsDao dao;
+        private final ScanPartition partition;
+        private final CandidateFilter filter;
+        private final int pageSize;
+        private long lastId;
+        private long skipped;
+        private boolean done;
+
+        private Keyset(PurgeAttachmentsDao dao, ScanPartition partition, CandidateFilter filter, int pageSize, long afterId) {
+            this.dao = dao;
+            this.partition = partition;
+            this.filter = filter;
+            this.pageSize = pageSize;
+            this.lastId = afterId;
+        }
+
+        @Override
+        public boolean fill(LongQueue ids) {
+            if (done) {
+                return false;
+            }
+            List<Long> page = filter.isNone()
+                              ? Collections.<Long>emptyList()
+                              : dao.findCandidateAttachmentIds(partition, lastId, pageSize, filter);
+            if (page.size() < pageSize) {
+                done = true;
+            }
+            long toId = done ? Long.MAX_VALUE : page.get(page.size() - 1);
+            skipped += dao.countCurrentAttachments(partition, lastId, toId) - page.size();
+            if (page.isEmpty()) {
+                return false;
+            }
+            lastId = page.get(page.size() - 1);
+            ids.addAll(page);
+            return true;
+        }
+
+        @Override
+        public long getSkipped() {
+            return skipped;
+        }
+
+    }
+
+
+    /**
+     * Merges sorted identifiers in to the pages of an ascending scanner.
+     */
+    static final class Merging implements AttachmentIdScanner {
+
+        private final AttachmentIdScanner scanner;
+        private final long[] extra;
+        private final LongQueue page = new LongQueue();
+        private int pos;
+        private boolean done;
+
+        private Merging(AttachmentIdScanner scanner, long[] extra) {
+            this.scanner = scanner;
+            this.extra = extra;
+        }
+
+        @Override
+        public boolean fill(LongQueue ids) {
+            if (done) {
+                return false;
+            }
+            long size = ids.size();
+            if (scanner.fill(page)) {
+                while (!page.isEmpty()) {
+                    long id = page.poll();
+                    while (pos < extra.length && extra[pos] < id) {
+                        ids.add(extra[pos++]);
+                    }
+                    if (pos < extra.length && extra[pos] == id) {
+                        pos++;
+                    }
+                    ids.add(id);
+                }
+            } else {
+                done = true;
+                while (pos < extra.length) {
+                    ids.add(extra[pos++]);
+                }
+            }
+            return ids.size() > size;
+        }
+
+        @Override
+        public long getSkipped() {
+            return scanner.getSkipped();
+        }
+
+    }
+
+}
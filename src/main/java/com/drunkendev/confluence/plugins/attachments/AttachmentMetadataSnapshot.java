@@ -0,0 +1,373 @@
+/*
+ * AttachmentMetadataSnapshot.java    Oct 17 2026, 22:25
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.READ;
+
+
+/**
+ * Point in time copy of the fields rules are evaluated on for every prior
+ * attachment version.
+ *
+ * <p>
+ * Each field is held in its own column, one row per prior version. Rows are
+ * ordered by the identifier of their current version and then by version so
+ * that the prior versions of an attachment are contiguous and oldest first.
+ * Space keys are held once in a dictionary and referenced by index.
+ *
+ * <p>
+ * Snapshots are stored in a file which is memory mapped when opened, reading
+ * a row reads straight from the mapping without copying. The file holds a
+ * header followed by each column and then the dictionary:
+ *
+ * <pre>
+ *   int magic, int format, int rows, int reserved, long taken
+ *   long[rows] id, long[rows] original id, long[rows] size, long[rows] modified
+ *   int[rows] space, int[rows] version
+ *   int count, { int length, byte[length] utf-8 key }[count]
+ * </pre>
+ *
+ * <p>
+ * Each column is mapped separately so a snapshot may hold up to
+ * {@link Integer#MAX_VALUE} rows.
+ *
+ * @author  Brett Ryan
+ */
+public final class AttachmentMetadataSnapshot {
+
+    /**
+     * Space index of versions whose attachment does not belong to a space.
+     */
+    public static final int NO_SPACE = -1;
+
+    private static final int MAGIC = 0x41544d53;
+    private static final int FORMAT = 1;
+    private static final int HEADER_BYTES = 24;
+
+    private final int rows;
+    private final Instant taken;
+    private final LongBuffer ids;
+    private final LongBuffer originalIds;
+    private final LongBuffer sizes;
+    private final LongBuffer modified;
+    private final IntBuffer spaces;
+    private final IntBuffer versions;
+    private final String[] spaceKeys;
+
+    private AttachmentMetadataSnapshot(FileChannel ch) throws IOException {
+        ByteBuffer header = ch.map(FileChannel.MapMode.READ_ONLY, 0, HEADER_BYTES);
+        if (header.getInt() != MAGIC || header.getInt() != FORMAT) {
+            throw new IOException("Not an attachment metadata snapshot of format " + FORMAT);
+        }
+        this.rows = header.getInt();
+        header.getInt();
+        this.taken = Instant.ofEpochMilli(header.getLong());
+
+        long pos = HEADER_BYTES;
+        this.ids = ch.map(FileChannel.MapMode.READ_ONLY, pos, rows * 8L).asLongBuffer();
+        pos += rows * 8L;
+        this.originalIds = ch.map(FileChannel.MapMode.READ_ONLY, pos, rows * 8L).asLongBuffer();
+        pos += rows * 8L;
+        this.sizes = ch.map(FileChannel.MapMode.READ_ONLY, pos, rows * 8L).asLongBuffer();
+        pos += rows * 8L;
+        this.modified = ch.map(FileChannel.MapMode.READ_ONLY, pos, rows * 8L).asLongBuffer();
+        pos += rows * 8L;
+        this.spaces = ch.map(FileChannel.MapMode.READ_ONLY, pos, rows * 4L).asIntBuffer();
+        pos += rows * 4L;
+        this.versions = ch.map(FileChannel.MapMode.READ_ONLY, pos, rows * 4L).asIntBuffer();
+        pos += rows * 4L;
+
+        ByteBuffer dict = ch.map(FileChannel.MapMode.READ_ONLY, pos, ch.size() - pos);
+        this.spaceKeys = new String[dict.getInt()];
+        for (int i = 0; i < spaceKeys.length; i++) {
+            byte[] b = new byte[dict.getInt()];
+            dict.get(b);
+            spaceKeys[i] = new String(b, StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Open and map a snapshot file. Where the platform allows the file may be
+     * removed once opened, it must not be replaced while mapped.
+     */
+    public static AttachmentMetadataSnapshot open(Path file) throws IOException {
+        try (FileChannel ch = FileChannel.open(file, READ)) {
+            return new AttachmentMetadataSnapshot(ch);
+        }
+    }
+
+    /**
+     * Begin writing a snapshot to a new file, the file is created only once
+     * finished.
+     *
+     * @param   taken
+     *          Time the snapshot is taken, rows must reflect every change
+     *          committed before this time.
+     */
+    public static Writer writer(Path file, Instant taken) throws IOException {
+        return new Writer(file, taken);
+    }
+
+    /**
+     * @return  number of prior versions.
+     */
+    public int size() {
+        return rows;
+    }
+
+    public long getId(int row) {
+        return ids.get(row);
+    }
+
+    /**
+     * @return  identifier of the current version of the attachment.
+     */
+    public long getOriginalId(int row) {
+        return originalIds.get(row);
+    }
+
+    /**
+     * @return  index of the space key in the dictionary, or {@link #NO_SPACE}.
+     */
+    public int getSpace(int row) {
+        return spaces.get(row);
+    }
+
+    public int getVersion(int row) {
+        return versions.get(row);
+    }
+
+    /**
+     * @return  file size in bytes.
+     */
+    public long getSize(int row) {
+        return sizes.get(row);
+    }
+
+    /**
+     * @return  modification time in epoch milliseconds, or
+     *          {@link PurgeRules#UNKNOWN_MODIFIED}.
+     */
+    public long getModified(int row) {
+        return modified.get(row);
+    }
+
+    /**
+     * @return  number of distinct space keys.
+     */
+    public int getSpaceCount() {
+        return spaceKeys.length;
+    }
+
+    public String getSpaceKey(int space) {
+        return space == NO_SPACE ? null : spaceKeys[space];
+    }
+
+    /**
+     * @return  index of a space key, or {@link #NO_SPACE} if no version
+     *          belongs to the space.
+     */
+    public int indexOfSpace(String spaceKey) {
+        for (int i = 0; i < spaceKeys.length; i++) {
+            if (spaceKeys[i].equals(spaceKey)) {
+                return i;
+            }
+        }
+        return NO_SPACE;
+    }
+
+    /**
+     * @return  time the snapshot was taken.
+     */
+    public Instant getTaken() {
+        return taken;
+    }
+
+    @Override
+    public String toString() {
+        return "AttachmentMetadataSnapshot{" + "rows=" + rows + ", spaces=" + spaceKeys.length + ", taken=" + taken + '}';
+    }
+
+    /**
+     * Receives rows of a snapshot in order.
+     */
+    @FunctionalInterface
+    public interface RowSink {
+
+        /**
+         * @param   spaceKey
+         *          Key of the space of the attachment, or {@code null}.
+         * @param   modified
+         *          Modification time in epoch milliseconds, or
+         *          {@link PurgeRules#UNKNOWN_MODIFIED}.
+         */
+        void add(long id, long originalId, String spaceKey, int version, long size, long modified);
+
+    }
+
+    /**
+     * Copy rows of this snapshot.
+     *
+     * @param   from
+     *          First row, inclusive.
+     * @param   to
+     *          Last row, exclusive.
+     */
+    public void copyTo(int from, int to, RowSink sink) {
+        for (int i = from; i < to; i++) {
+            sink.add(getId(i), getOriginalId(i), getSpaceKey(getSpace(i)), getVersion(i), getSize(i), getModified(i));
+        }
+    }
+
+    /**
+     * Writes a snapshot file.
+     *
+     * <p>
+     * Columns are streamed to temporary files as rows are added so that
+     * memory use does not grow with the number of rows. Finishing assembles
+     * them in to a temporary file which is then atomically moved to the
+     * target.
+     */
+    public static final class Writer implements RowSink, Closeable {
+
+        private static final int LONG_COLUMNS = 4;
+        private static final int INT_COLUMNS = 2;
+
+        private final Path file;
+        private final Instant taken;
+        private final Path[] columnFiles = new Path[LONG_COLUMNS + INT_COLUMNS];
+        private final DataOutputStream[] columns = new DataOutputStream[LONG_COLUMNS + INT_COLUMNS];
+        private final Map<String, Integer> spaceKeys = new HashMap<>();
+        private final List<String> spaceKeyList = new ArrayList<>();
+        private int rows;
+
+        private Writer(Path file, Instant taken) throws IOException {
+            this.file = file;
+            this.taken = taken;
+            Files.createDirectories(file.getParent());
+            try {
+                for (int i = 0; i < columns.length; i++) {
+                    columnFiles[i] = Files.createTempFile(file.getParent(), file.getFileName() + ".col" + i + "-", ".tmp");
+                    columns[i] = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(columnFiles[i])));
+                }
+            } catch (IOException ex) {
+                close();
+                throw ex;
+            }
+        }
+
+        @Override
+        public void add(long id, long originalId, String spaceKey, int version, long size, long modified) {
+            if (rows == Integer.MAX_VALUE) {
+                throw new IllegalStateException("Snapshot can not hold more than " + Integer.MAX_VALUE + " rows.");
+            }
+            int space = NO_SPACE;
+            if (spaceKey != null) {
+                Integer n = spaceKeys.get(spaceKey);
+                if (n == null) {
+                    n = spaceKeyList.size();
+                    spaceKeys.put(spaceKey, n);
+                    spaceKeyList.add(spaceKey);
+                }
+                space = n;
+            }
+            try {
+                columns[0].writeLong(id);
+                columns[1].writeLong(originalId);
+                columns[2].writeLong(size);
+                columns[3].writeLong(modified);
+                columns[4].writeInt(space);
+                columns[5].writeInt(version);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            rows++;
+        }
+
+        /**
+         * Write the snapshot file and open it.
+         */
+        public AttachmentMetadataSnapshot finish() throws IOException {
+            for (DataOutputStream c : columns) {
+                c.close();
+            }
+            Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeInt(MAGIC);
+                out.writeInt(FORMAT);
+                out.writeInt(rows);
+                out.writeInt(0);
+                out.writeLong(taken.toEpochMilli());
+            }
+            try (FileChannel out = FileChannel.open(tmp, APPEND)) {
+                for (Path c : columnFiles) {
+                    try (FileChannel in = FileChannel.open(c, READ)) {
+                        long pos = 0;
+                        long size = in.size();
+                        while (pos < size) {
+                            pos += in.transferTo(pos, size - pos, out);
+                        }
+                    }
+                }
+            }
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp, APPEND)))) {
+                out.writeInt(spaceKeyList.size());
+                for (String k : spaceKeyList) {
+                    byte[] b = k.getBytes(StandardCharsets.UTF_8);
+                    out.writeInt(b.length);
+                    out.write(b);
+                }
+            }
+            Files.move(tmp, file, ATOMIC_MOVE);
+            close();
+            return open(file);
+        }
+
+        /**
+         * Remove temporary files, the target is left untouched unless
+         * finished.
+         */
+        @Override
+        public void close() {
+            for (int i = 0; i < columns.length; i++) {
+                try {
+                    if (columns[i] != null) {
+                        columns[i].close();
+                    }
+                    if (columnFiles[i] != null) {
+                        Files.deleteIfExists(columnFiles[i]);
+                    }
+                } catch (IOException ex) {
+                    // Temporary files only, nothing to recover.
+                }
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,445 @@
+/*
+ * AttachmentMetadataStore.java    Oct 17 2026, 22:45
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import com.atlassian.sal.api.transaction.TransactionTemplate;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+
+/**
+ * Holds the attachment metadata snapshot file, taking a new snapshot when it
+ * is missing or too old.
+ *
+ * <p>
+ * Snapshots are read with scalar queries a page of attachments at a time,
+ * each page in its own transaction. After each purge run the snapshot is
+ * refreshed incrementally: only attachments modified since the snapshot was
+ * taken, or purged by the run, are read again and merged with the rows of the
+ * previous snapshot.
+ *
+ * <p>
+ * Each snapshot is written to a new file in the shared home named by the time
+ * it was taken, a node opens the most recent whenever another node has taken
+ * a newer one. Files are never replaced while they may still be mapped, older
+ * files are removed once superseded; where the platform refuses to remove a
+ * file still mapped it is removed by a later attempt.
+ *
+ * <p>
+ * Snapshots asked for by {@link #getSnapshot(Duration)} are taken in the
+ * background so a request does not wait on the scan. Only one snapshot is
+ * written at a time.
+ *
+ * @author  Brett Ryan
+ */
+public class AttachmentMetadataStore implements DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(AttachmentMetadataStore.class);
+
+    private static final int PAGE_SIZE = 2000;
+    private static final String SNAPSHOT_PREFIX = "snapshot-";
+    private static final String SNAPSHOT_SUFFIX = ".bin";
+
+    /**
+     * Modification dates are set before the change commits, a change
+     * committed just after a snapshot was taken may be dated a little before
+     * it.
+     */
+    private static final Duration MODIFIED_SLACK = Duration.ofMinutes(10);
+
+    private final PurgeAttachmentsDao purgeDao;
+    private final TransactionTemplate transactionTemplate;
+    private final PluginHome pluginHome;
+    private final ExecutorService taker;
+    /**
+     * Held while a snapshot is written.
+     */
+    private final Object writeLock = new Object();
+    private volatile AttachmentMetadataSnapshot snapshot;
+    private Path opened;
+    private Future<?> taking;
+
+    /**
+     * Creates a new {@code AttachmentMetadataStore} instance.
+     */
+    public AttachmentMetadataStore(PurgeAttachmentsDao purgeAttachmentsDao,
+                                   TransactionTemplate transactionTemplate,
+                                   PluginHome pluginHome) {
+        this.purgeDao = purgeAttachmentsDao;
+        this.transactionTemplate = transactionTemplate;
+        this.pluginHome = pluginHome;
+        this.taker = Executors.newSingleThreadExecutor(r -> {
+            Thread t = new Thread(r, "purge-attachments-snapshot");
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @Override
+    public void destroy() {
+        taker.shutdownNow();
+    }
+
+    private Path getDir() {
+        return pluginHome.resolve("metadata");
+    }
+
+    /**
+     * @return  a new snapshot file, named so that files of later snapshots
+     *          sort after those of earlier ones.
+     */
+    private Path newFile(Instant taken) {
+        return getDir().resolve(String.format("%s%013d-%s%s",
+                                              SNAPSHOT_PREFIX, taken.toEpochMilli(), UUID.randomUUID(), SNAPSHOT_SUFFIX));
+    }
+
+    /**
+     * @return  snapshot files, oldest first.
+     */
+    private List<Path> listFiles() throws IOException {
+        Path dir = getDir();
+        if (!Files.isDirectory(dir)) {
+            return Collections.emptyList();
+        }
+        List<Path> res = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, SNAPSHOT_PREFIX + "*" + SNAPSHOT_SUFFIX)) {
+            for (Path f : files) {
+                res.add(f);
+            }
+        }
+        Collections.sort(res);
+        return res;
+    }
+
+    /**
+     * Remove snapshot files other than the one held.
+     */
+    private void removeSuperseded(List<Path> files) {
+        for (Path f : files) {
+            if (!f.equals(opened)) {
+                try {
+                    Files.deleteIfExists(f);
+                } catch (IOException ex) {
+                    // Still mapped here or by another node, removed once superseded again.
+                    LOG.debug("Could not remove snapshot {}: {}", f, ex.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Snapshot no older than the given age, a new snapshot is taken in the
+     * background where there is none.
+     *
+     * @param   maxAge
+     *          Age beyond which the snapshot is taken again.
+     * @return  a snapshot no older than the given age, or {@code null} while
+     *          one is being taken.
+     */
+    public synchronized AttachmentMetadataSnapshot getSnapshot(Duration maxAge) {
+        AttachmentMetadataSnapshot res = current();
+        if (res != null && !isStale(res, maxAge)) {
+            return res;
+        }
+        if (taking == null || taking.isDone()) {
+            taking = taker.submit(() -> take(maxAge));
+        }
+        return null;
+    }
+
+    private static boolean isStale(AttachmentMetadataSnapshot snapshot, Duration maxAge) {
+        return snapshot.getTaken().plus(maxAge).isBefore(Instant.now());
+    }
+
+    private void take(Duration maxAge) {
+        try {
+            synchronized (writeLock) {
+                // A purge run may have taken one while waiting.
+                AttachmentMetadataSnapshot res = getCurrent();
+                if (res == null || isStale(res, maxAge)) {
+                    load();
+                }
+            }
+        } catch (RuntimeException ex) {
+            LOG.error("Could not take snapshot.", ex);
+        }
+    }
+
+    /**
+     * Bring the snapshot up to date after a purge run.
+     *
+     * <p>
+     * Nothing is done where no snapshot has been taken yet, one is taken when
+     * first needed.
+     *
+     * @param   touched
+     *          Identifiers of attachments whose versions were purged.
+     * @param   full
+     *          {@code true} to take the snapshot again rather than merge
+     *          changes, such as after a full sweep which would also see
+     *          attachments removed outside of the purge job.
+     */
+    public void refresh(Collection<Long> touched, boolean full) {
+        synchronized (writeLock) {
+            AttachmentMetadataSnapshot old = getCurrent();
+            if (old == null) {
+                return;
+            }
+            if (full) {
+                load();
+            } else {
+                merge(old, touched);
+            }
+        }
+    }
+
+    private synchronized AttachmentMetadataSnapshot getCurrent() {
+        return current();
+    }
+
+    private AttachmentMetadataSnapshot current() {
+        try {
+            // The most recent file may be removed by another node taking a newer snapshot.
+            for (int attempt = 0;; attempt++) {
+                List<Path> files = listFiles();
+                Path file = files.isEmpty() ? null : files.get(files.size() - 1);
+                if (file == null) {
+                    snapshot = null;
+                    opened = null;
+                    return null;
+                }
+                if (snapshot == null || !file.equals(opened)) {
+                    try {
+                        snapshot = AttachmentMetadataSnapshot.open(file);
+                        opened = file;
+                    } catch (NoSuchFileException ex) {
+                        if (attempt == 0) {
+                            continue;
+                        }
+                        throw ex;
+                    }
+                }
+                if (files.size() > 1) {
+                    removeSuperseded(files);
+                }
+                return snapshot;
+            }
+        } catch (IOException ex) {
+            LOG.warn("Discarding unreadable snapshot: {}", ex.getMessage());
+            snapshot = null;
+            opened = null;
+            return null;
+        }
+    }
+
+    private AttachmentMetadataSnapshot load() {
+        Instant start = Instant.now();
+        CandidateFilter filter = CandidateFilter.anyPrior();
+        Path file = newFile(start);
+        try (AttachmentMetadataSnapshot.Writer writer = AttachmentMetadataSnapshot.writer(file, start)) {
+            long afterId = 0;
+            List<Long> page;
+            do {
+                long from = afterId;
+                page = transactionTemplate.execute(() -> {
+                    List<Long> ids = purgeDao.findCandidateAttachmentIds(ScanPartition.ALL, from, PAGE_SIZE, filter);
+                    addPage(writer, ids);
+                    return ids;
+                });
+                if (!page.isEmpty()) {
+                    afterId = page.get(page.size() - 1);
+                }
+            } while (page.size() == PAGE_SIZE);
+            return finish(writer, file, start);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private void merge(AttachmentMetadataSnapshot old, Collection<Long> touched) {
+        Instant start = Instant.now();
+        long[] changed = findChanged(old, touched);
+        Path file = newFile(start);
+        try (AttachmentMetadataSnapshot.Writer writer = AttachmentMetadataSnapshot.writer(file, start)) {
+            // Both the old rows and the changed identifiers are in attachment
+            // order, fresh rows are read a page at a time as the old rows are
+            // passed.
+            List<Row> fresh = new ArrayList<>();
+            int f = 0;
+            int next = 0;
+            int rows = old.size();
+            int i = 0;
+            while (i < rows || f < fresh.size() || next < changed.length) {
+                long originalId = i < rows ? old.getOriginalId(i) : Long.MAX_VALUE;
+                if (f == fresh.size() && next < changed.length) {
+                    fresh = loadRows(Arrays.copyOfRange(changed, next, Math.min(changed.length, next + PAGE_SIZE)));
+                    f = 0;
+                    next += PAGE_SIZE;
+                    continue;
+                }
+                if (f < fresh.size() && fresh.get(f).originalId <= originalId) {
+                    fresh.get(f++).copyTo(writer);
+                    continue;
+                }
+                if (i == rows) {
+                    break;
+                }
+                int to = i + 1;
+                while (to < rows && old.getOriginalId(to) == originalId) {
+                    to++;
+                }
+                if (Arrays.binarySearch(changed, originalId) < 0) {
+                    old.copyTo(i, to, writer);
+                }
+                i = to;
+            }
+            finish(writer, file, start);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private long[] findChanged(AttachmentMetadataSnapshot old, Collection<Long> touched) {
+        TreeSet<Long> res = new TreeSet<>(touched);
+        CandidateFilter filter = CandidateFilter.anyPrior()
+                .withModifiedAfter(Date.from(old.getTaken().minus(MODIFIED_SLACK)));
+        long afterId = 0;
+        List<Long> page;
+        do {
+            long from = afterId;
+            page = transactionTemplate.execute(
+                    () -> purgeDao.findCandidateAttachmentIds(ScanPartition.ALL, from, PAGE_SIZE, filter));
+            res.addAll(page);
+            if (!page.isEmpty()) {
+                afterId = page.get(page.size() - 1);
+            }
+        } while (page.size() == PAGE_SIZE);
+        return res.stream().mapToLong(Long::longValue).toArray();
+    }
+
+    private List<Row> loadRows(long[] ids) {
+        List<Long> page = new ArrayList<>(ids.length);
+        for (long id : ids) {
+            page.add(id);
+        }
+        List<Row> res = new ArrayList<>();
+        transactionTemplate.execute(() -> {
+            addPage((id, originalId, spaceKey, version, size, modified)
+                    -> res.add(new Row(id, originalId, spaceKey, version, size, modified)), page);
+            return null;
+        });
+        return res;
+    }
+
+    private AttachmentMetadataSnapshot finish(AttachmentMetadataSnapshot.Writer writer,
+                                              Path file,
+                                              Instant start) throws IOException {
+        AttachmentMetadataSnapshot res = writer.finish();
+        synchronized (this) {
+            snapshot = res;
+            opened = file;
+            removeSuperseded(listFiles());
+        }
+        LOG.info("Took {} in {} ms.", res, Duration.between(start, Instant.now()).toMillis());
+        return res;
+    }
+
+    private void addPage(AttachmentMetadataSnapshot.RowSink sink, List<Long> ids) {
+        if (ids.isEmpty()) {
+            return;
+        }
+        Map<Long, String> spaceKeys = new HashMap<>();
+        for (Object[] row : purgeDao.findSpaceKeys(ids)) {
+            spaceKeys.put((Long) row[0], (String) row[1]);
+        }
+        List<Object[]> versions = purgeDao.findPriorVersionMetadata(ids);
+        Map<Long, Long> sizes = new HashMap<>();
+        if (!versions.isEmpty()) {
+            List<Long> versionIds = new ArrayList<>(versions.size());
+            for (Object[] row : versions) {
+                versionIds.add((Long) row[0]);
+            }
+            for (Object[] row : purgeDao.findFileSizes(versionIds)) {
+                if (row[1] != null) {
+                    sizes.put((Long) row[0], ((Number) row[1]).longValue());
+                }
+            }
+        }
+        for (Object[] row : versions) {
+            long id = (Long) row[0];
+            long originalId = (Long) row[1];
+            Date modified = (Date) row[3];
+            sink.add(id,
+                     originalId,
+                     spaceKeys.get(originalId),
+                     ((Number) row[2]).intValue(),
+                     sizes.getOrDefault(id, 0L),
+                     modified == null ? PurgeRules.UNKNOWN_MODIFIED : modified.getTime());
+        }
+    }
+
+    /**
+     * Remove the snapshot files, a new snapshot is taken when next needed.
+     */
+    public synchronized void clear() {
+        snapshot = null;
+        opened = null;
+        try {
+            removeSuperseded(listFiles());
+        } catch (IOException ex) {
+            LOG.warn("Could not remove snapshot: {}", ex.getMessage());
+        }
+    }
+
+    private static final class Row {
+
+        private final long id;
+        private final long originalId;
+        private final String spaceKey;
+        private final int version;
+        private final long size;
+        private final long modified;
+
+        private Row(long id, long originalId, String spaceKey, int version, long size, long modified) {
+            this.id = id;
+            this.originalId = originalId;
+            this.spaceKey = spaceKey;
+            this.version = version;
+            this.size = size;
+            this.modified = modified;
+        }
+
+        private void copyTo(AttachmentMetadataSnapshot.RowSink sink) {
+            sink.add(id, originalId, spaceKey, version, size, modified);
+        }
+
+    }
+
+}
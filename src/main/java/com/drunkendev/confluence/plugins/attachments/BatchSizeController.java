@@ -0,0 +1,100 @@
+/*
+ * BatchSizeController.java    Oct 17 2026, 15:05
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.time.Duration;
+
+
+/**
+ * Chooses the number of attachments to process per transaction so that each
+ * transaction takes roughly a target duration.
+ *
+ * <p>
+ * After each batch the time taken per attachment is measured and the next
+ * batch is sized to fill the target duration. Changes are limited to halving
+ * or doubling per batch to damp outliers such as a single slow delete.
+ *
+ * <p>
+ * This class is not thread safe, each worker should use its own controller.
+ *
+ * @author  Brett Ryan
+ */
+public final class BatchSizeController {
+
+    private static final double MAX_GROWTH = 2.0;
+    private static final double MAX_SHRINK = 0.5;
+
+    private final int min;
+    private final int max;
+    private final long targetNanos;
+    private int size;
+
+    /**
+     * Creates a new {@code BatchSizeController} instance.
+     *
+     * @param   initial
+     *          Size of the first batch.
+     * @param   min
+     *          Smallest batch size.
+     * @param   max
+     *          Largest batch size.
+     * @param   target
+     *          Target duration of each batch.
+     */
+    public BatchSizeController(int initial, int min, int max, Duration target) {
+        if (min < 1 || max < min) {
+            throw new IllegalArgumentException("Invalid batch size bounds: " + min + " - " + max);
+        }
+        this.min = min;
+        this.max = max;
+        this.targetNanos = target.toNanos();
+        this.size = clamp(initial);
+    }
+
+    /**
+     * Create a controller for the bounds given in the system settings.
+     */
+    public static BatchSizeController of(PurgeAttachmentSettings settings) {
+        int min = settings.getBatchSizeMinOrDefault();
+        int max = Math.max(min, settings.getBatchSizeMaxOrDefault());
+        return new BatchSizeController(PurgeAttachmentSettings.DEFAULT_BATCH_SIZE,
+                                       min,
+                                       max,
+                                       Duration.ofMillis(settings.getTargetTransactionMillisOrDefault()));
+    }
+
+    /**
+     * @return  number of attachments to process in the next batch.
+     */
+    public int getBatchSize() {
+        return size;
+    }
+
+    /**
+     * Record the time taken to process a batch.
+     *
+     * @param   processed
+     *          Number of attachments processed in the batch.
+     * @param   elapsed
+     *          Time taken by the batch transaction.
+     */
+    public void record(int processed, Duration elapsed) {
+        if (processed < 1) {
+            return;
+        }
+        long nanosPer = Math.max(1, elapsed.toNanos() / processed);
+        double ideal = targetNanos / (double) nanosPer;
+        double next = Math.max(size * MAX_SHRINK, Math.min(size * MAX_GROWTH, ideal));
+        size = clamp((int) Math.round(next));
+    }
+
+    private int clamp(int n) {
+        return Math.max(min, Math.min(max, n));
+    }
+
+}
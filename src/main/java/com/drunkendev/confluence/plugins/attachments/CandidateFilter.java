@@ -0,0 +1,159 @@
+/*
+ * CandidateFilter.java    Oct 17 2026, 12:20
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.Collection;
+import java.util.Date;
+
+
+/**
+ * Database side restriction of which current attachments may have versions to
+ * purge.
+ *
+ * <p>
+ * The filter is the loosest combination of all enabled rules across every
+ * applicable setting so that it never excludes an attachment that
+ * {@code findDeletions} would purge; it only avoids loading attachments that
+ * could never match.
+ *
+ * @author  Brett Ryan
+ */
+public final class CandidateFilter {
+
+    private final boolean none;
+    private final boolean anyPrior;
+    private final int maxRevisions;
+    private final Date olderThan;
+    private final Date modifiedAfter;
+
+    private CandidateFilter(boolean none, boolean anyPrior, int maxRevisions, Date olderThan, Date modifiedAfter) {
+        this.none = none;
+        this.anyPrior = anyPrior;
+        this.maxRevisions = maxRevisions;
+        this.olderThan = olderThan;
+        this.modifiedAfter = modifiedAfter;
+    }
+
+    /**
+     * Create a filter accepting any attachment matched by any of the given
+     * settings.
+     *
+     * @param   settings
+     *          All settings which may be applied during a run.
+     * @param   now
+     *          Time the age rule is evaluated from.
+     */
+    public static CandidateFilter of(Collection<PurgeAttachmentSettings> settings, LocalDateTime now) {
+        boolean any = false;
+        boolean anyPrior = false;
+        int maxRevisions = Integer.MAX_VALUE;
+        int maxDaysOld = Integer.MAX_VALUE;
+        for (PurgeAttachmentSettings s : settings) {
+            if (s.isMaxSizeRuleEnabled()) {
+                // File sizes are not queryable, any attachment with prior versions may match.
+                anyPrior = true;
+            }
+            if (s.getMaxVersionSize() > 0 || s.isDuplicateRuleEnabled()) {
+                anyPrior = true;
+            }
+            if (s.isRevisionCountRuleEnabled()) {
+                maxRevisions = Math.min(maxRevisions, s.getMaxRevisions());
+            }
+            // File types are not filtered on, the fewest versions kept by any type applies to all.
+            int fileTypeRevisions = FileTypeRule.getMinRevisions(s);
+            maxRevisions = Math.min(maxRevisions, fileTypeRevisions);
+            if (s.isAgeRuleEnabled()) {
+                maxDaysOld = Math.min(maxDaysOld, s.getMaxDaysOld());
+            }
+            any |= s.isMaxSizeRuleEnabled() || s.isRevisionCountRuleEnabled() || s.isAgeRuleEnabled()
+                   || s.getMaxVersionSize() > 0 || s.isDuplicateRuleEnabled()
+                   || fileTypeRevisions != Integer.MAX_VALUE;
+        }
+        return new CandidateFilter(
+                !any,
+                anyPrior,
+                maxRevisions == Integer.MAX_VALUE ? -1 : maxRevisions,
+                maxDaysOld == Integer.MAX_VALUE
+                ? null
+                : Date.from(now.minusDays(maxDaysOld).atZone(ZoneId.systemDefault()).toInstant()),
+                null);
+    }
+
+    /**
+     * Create a filter accepting every attachment with prior versions.
+     */
+    public static CandidateFilter anyPrior() {
+        return new CandidateFilter(false, true, -1, null, null);
+    }
+
+    /**
+     * Restrict this filter to attachments modified after the given time.
+     *
+     * @param   modifiedAfter
+     *          High-water mark of an incremental run, or {@code null} for a
+     *          full sweep.
+     */
+    public CandidateFilter withModifiedAfter(Date modifiedAfter) {
+        return new CandidateFilter(none, anyPrior, maxRevisions, olderThan, modifiedAfter);
+    }
+
+    /**
+     * Widen this filter to accept every attachment with prior versions
+     * regardless of the revision and age thresholds.
+     */
+    public CandidateFilter withAnyPrior() {
+        return new CandidateFilter(none, true, maxRevisions, olderThan, modifiedAfter);
+    }
+
+    /**
+     * @return  {@code true} if no rule is enabled and no attachment can match.
+     */
+    public boolean isNone() {
+        return none;
+    }
+
+    /**
+     * @return  {@code true} if every attachment with prior versions must be
+     *          visited.
+     */
+    public boolean isAnyPrior() {
+        return anyPrior;
+    }
+
+    /**
+     * @return  the smallest enabled revision limit, or {@code -1} where no
+     *          revision rule is enabled.
+     */
+    public int getMaxRevisions() {
+        return maxRevisions;
+    }
+
+    /**
+     * @return  prior versions modified before this date may be purged by the
+     *          age rule, or {@code null} where no age rule is enabled.
+     */
+    public Date getOlderThan() {
+        return olderThan;
+    }
+
+    /**
+     * @return  only current attachments modified after this date are
+     *          candidates, or {@code null} where all are.
+     */
+    public Date getModifiedAfter() {
+        return modifiedAfter;
+    }
+
+    @Override
+    public String toString() {
+        return "CandidateFilter{" + "none=" + none + ", anyPrior=" + anyPrior + ", maxRevisions=" + maxRevisions + ", olderThan=" + olderThan + ", modifiedAfter=" + modifiedAfter + '}';
+    }
+
+}
@@ -0,0 +1,72 @@
+/*
+ * ClusterRun.java    Oct 17 2026, 20:05
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.io.Serializable;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+
+/**
+ * A purge run shared by all nodes of a cluster.
+ *
+ * @author  Brett Ryan
+ */
+public final class ClusterRun implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final String id;
+    private final LocalDateTime start;
+    private final Date modifiedAfter;
+    private final List<ScanPartition> shards;
+
+    /**
+     * Creates a new {@code ClusterRun} instance.
+     *
+     * @param   id
+     *          Unique identifier of the run.
+     * @param   start
+     *          Start time of the run.
+     * @param   modifiedAfter
+     *          High-water mark of an incremental run, or {@code null}.
+     * @param   shards
+     *          Partitions to be claimed by nodes.
+     */
+    public ClusterRun(String id, LocalDateTime start, Date modifiedAfter, List<ScanPartition> shards) {
+        this.id = id;
+        this.start = start;
+        this.modifiedAfter = modifiedAfter;
+        this.shards = new ArrayList<>(shards);
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public LocalDateTime getStart() {
+        return start;
+    }
+
+    public Date getModifiedAfter() {
+        return modifiedAfter;
+    }
+
+    public List<ScanPartition> getShards() {
+        return Collections.unmodifiableList(shards);
+    }
+
+    @Override
+    public String toString() {
+        return "ClusterRun{" + "id=" + id + ", start=" + start + ", modifiedAfter=" + modifiedAfter + ", shards=" + shards.size() + '}';
+    }
+
+}
@@ -7,9 +7,20 @@
 
 package com.drunkendev.confluence.plugins.attachments;
 
+import com.atlassian.confluence.core.Beanable;
 import com.atlassian.confluence.security.Permission;
 import com.atlassian.confluence.spaces.actions.AbstractSpaceAction;
 import com.atlassian.confluence.spaces.actions.SpaceAware;
+import com.atlassian.core.util.FileSize;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
 
 
 /**
@@ -17,9 +28,28 @@ import com.atlassian.confluence.spaces.actions.SpaceAware;
  *
  * @author  Brett Ryan
  */
-public class ConfigurePurgeAttachmentsAction extends AbstractSpaceAction implements SpaceAware {
+public class ConfigurePurgeAttachmentsAction extends AbstractSpaceAction implements SpaceAware, Beanable {
+
+    /**
+     * Age of the metadata snapshot beyond which simulating takes a new one.
+     * Purge runs refresh the snapshot, this only applies when they have not
+     * run for some time.
+     */
+    private static final Duration SNAPSHOT_MAX_AGE = Duration.ofDays(2);
+
+    private static final int HISTORY_PAGE_SIZE = 20;
+
+    /**
+     * Number of most recent runs plotted by the trend charts.
+     */
+    private static final int HISTORY_TREND_RUNS = 60;
 
     private PurgeAttachmentsSettingsService settingSvc;
+    private AgeExpiryIndex ageExpiryIndex;
+    private PurgeCheckpointStore purgeCheckpointStore;
+    private AttachmentMetadataStore attachmentMetadataStore;
+    private RunHistoryStore runHistoryStore;
+    private Map<String, Object> bean;
     private int mode;
     private boolean ageRuleEnabled;
     private int maxDaysOld;
@@ -32,6 +62,29 @@ public class ConfigurePurgeAttachmentsAction extends AbstractSpaceAction impleme
     private boolean sendPlainTextMail;
 
     private int deleteLimit;
+    private int scanMode;
+    private int scanPageSize;
+    private int workerThreads;
+    private int batchSizeMin;
+    private int batchSizeMax;
+    private int targetTransactionMillis;
+    private int fullSweepDays;
+    private int checkpointExpiryHours;
+    private boolean restartPurge;
+    private int clusterLeaseSeconds;
+    private int throttleOpsPerSecond;
+    private long throttleBytesPerSecond;
+    private int throttleLatencyMillis;
+    private String windowStart;
+    private String windowEnd;
+    private int runBudgetMinutes;
+    private int reportMaxEntries;
+    private int reportMemoryMiB;
+    private int historyMaxRuns;
+    private int historyPage;
+    private long maxVersionSize;
+    private String fileTypeRetention;
+    private boolean duplicateRuleEnabled;
 
     /**
      * Creates a new {@code ConfigurePurgeAttachmentsAction} instance.
@@ -43,6 +96,22 @@ public class ConfigurePurgeAttachmentsAction extends AbstractSpaceAction impleme
         this.settingSvc = purgeAttachmentsSettingsService;
     }
 
+    public void setAgeExpiryIndex(AgeExpiryIndex ageExpiryIndex) {
+        this.ageExpiryIndex = ageExpiryIndex;
+    }
+
+    public void setPurgeCheckpointStore(PurgeCheckpointStore purgeCheckpointStore) {
+        this.purgeCheckpointStore = purgeCheckpointStore;
+    }
+
+    public void setAttachmentMetadataStore(AttachmentMetadataStore attachmentMetadataStore) {
+        this.attachmentMetadataStore = attachmentMetadataStore;
+    }
+
+    public void setRunHistoryStore(RunHistoryStore runHistoryStore) {
+        this.runHistoryStore = runHistoryStore;
+    }
+
     @Override
     public boolean isSpaceRequired() {
         return false;
@@ -83,27 +152,195 @@ public class ConfigurePurgeAttachmentsAction extends AbstractSpaceAction impleme
         this.reportEmailAddress = s.getReportEmailAddress();
         this.sendPlainTextMail = s.isSendPlainTextMail();
         this.deleteLimit = s.getDeleteLimit();
+        this.scanMode = s.getScanMode();
+        this.scanPageSize = s.getScanPageSizeOrDefault();
+        this.workerThreads = s.getWorkerThreadsOrDefault();
+        this.batchSizeMin = s.getBatchSizeMinOrDefault();
+        this.batchSizeMax = s.getBatchSizeMaxOrDefault();
+        this.targetTransactionMillis = s.getTargetTransactionMillisOrDefault();
+        this.fullSweepDays = s.getFullSweepDays();
+        this.checkpointExpiryHours = s.getCheckpointExpiryHoursOrDefault();
+        this.clusterLeaseSeconds = s.getClusterLeaseSecondsOrDefault();
+        this.throttleOpsPerSecond = s.getThrottleOpsPerSecond();
+        this.throttleBytesPerSecond = s.getThrottleBytesPerSecond();
+        this.throttleLatencyMillis = s.getThrottleLatencyMillis();
+        this.windowStart = s.getWindowStart();
+        this.windowEnd = s.getWindowEnd();
+        this.runBudgetMinutes = s.getRunBudgetMinutes();
+        this.reportMaxEntries = s.getReportMaxEntriesOrDefault();
+        this.reportMemoryMiB = s.getReportMemoryMiBOrDefault();
+        this.historyMaxRuns = s.getHistoryMaxRunsOrDefault();
+        this.maxVersionSize = s.getMaxVersionSize();
+        this.fileTypeRetention = s.getFileTypeRetention();
+        this.duplicateRuleEnabled = s.isDuplicateRuleEnabled();
         return INPUT;
     }
 
     @Override
     public String execute() throws Exception {
         System.out.println("Saving settings: " + ageRuleEnabled);
-        settingSvc.setSettings(getSpaceKey(),
-                               new PurgeAttachmentSettings(mode,
-                                                           ageRuleEnabled,
-                                                           maxDaysOld,
-                                                           revisionCountRuleEnabled,
-                                                           maxRevisions,
-                                                           maxSizeRuleEnabled,
-                                                           maxTotalSize,
-                                                           reportOnly,
-                                                           reportEmailAddress,
-                                                           sendPlainTextMail,
-                                                           deleteLimit));
+        if (!MaintenanceWindow.isValid(windowStart) || !MaintenanceWindow.isValid(windowEnd)) {
+            addActionError("Maintenance window times must be given as HH:mm.");
+            return INPUT;
+        }
+        PurgeAttachmentSettings prev = settingSvc.getSettings(getSpaceKey());
+        PurgeAttachmentSettings s = createSettings();
+        if (!FileTypeRule.isValid(s)) {
+            addActionError("File type retention must be given as pattern=versions, such as psd=2, video/*=0.");
+            return INPUT;
+        }
+        settingSvc.setSettings(getSpaceKey(), s);
+        if (prev == null ||
+            prev.getMode() != mode ||
+            prev.isAgeRuleEnabled() != ageRuleEnabled ||
+            prev.getMaxDaysOld() != maxDaysOld) {
+            // Due dates depend on the age rule, the next full sweep rebuilds the index.
+            ageExpiryIndex.clear(isBlank(getSpaceKey()) ? null : getSpaceKey());
+        }
+        settingSvc.requireFullSweep();
+        if (restartPurge && getSpace() == null) {
+            purgeCheckpointStore.clear();
+        }
         return super.execute();
     }
 
+    /**
+     * Estimate what the submitted settings would purge compared with the
+     * settings in effect, rendered as JSON.
+     *
+     * <p>
+     * Settings submitted for a space are only evaluated against that space,
+     * global settings are evaluated against every space using them.
+     *
+     * <p>
+     * Where no recent snapshot is held one is taken in the background and
+     * only {@code pending} is rendered until it is ready.
+     */
+    public String doSimulate() {
+        PurgeAttachmentSettings proposed = createSettings();
+        PurgeAttachmentSettings system = settingSvc.getSystemSettings();
+        Function<String, PurgeAttachmentSettings> current;
+        Function<String, PurgeAttachmentSettings> next;
+        if (getSpace() == null) {
+            current = k -> k == null ? system : settingSvc.getResolvedSettings(k);
+            next = k -> k == null ? proposed : settingSvc.getResolvedSettings(k, proposed);
+        } else {
+            String key = getSpaceKey();
+            PurgeAttachmentSettings effective = mode == PurgeAttachmentSettings.MODE_DISABLED
+                                                ? null
+                                                : mode == PurgeAttachmentSettings.MODE_SPACE ? proposed : system;
+            current = k -> key.equals(k) ? settingSvc.getResolvedSettings(k) : null;
+            next = k -> key.equals(k) ? effective : null;
+        }
+
+        AttachmentMetadataSnapshot snapshot = attachmentMetadataStore.getSnapshot(SNAPSHOT_MAX_AGE);
+        bean = new LinkedHashMap<>();
+        if (snapshot == null) {
+            bean.put("pending", true);
+            return SUCCESS;
+        }
+        LocalDateTime now = LocalDateTime.now();
+        bean.put("snapshotTaken", snapshot.getTaken().toString());
+        bean.put("current", toBean(PurgeSimulator.simulate(snapshot, current, now)));
+        bean.put("proposed", toBean(PurgeSimulator.simulate(snapshot, next, now)));
+        return SUCCESS;
+    }
+
+    /**
+     * Render a page of the run history as JSON, most recent first, along with
+     * the most recent runs oldest first for plotting trends.
+     */
+    public String doHistory() {
+        List<RunHistoryEntry> all = runHistoryStore.getRuns();
+        int total = all.size();
+        int pages = Math.max(1, (total + HISTORY_PAGE_SIZE - 1) / HISTORY_PAGE_SIZE);
+        int page = Math.min(Math.max(0, historyPage), pages - 1);
+        List<Map<String, Object>> runs = new ArrayList<>();
+        for (RunHistoryEntry e : all.subList(Math.min(total, page * HISTORY_PAGE_SIZE),
+                                             Math.min(total, (page + 1) * HISTORY_PAGE_SIZE))) {
+            runs.add(toBean(e));
+        }
+        List<Map<String, Object>> trend = new ArrayList<>();
+        for (RunHistoryEntry e : all.subList(0, Math.min(total, HISTORY_TREND_RUNS))) {
+            trend.add(0, toBean(e));
+        }
+        bean = new LinkedHashMap<>();
+        bean.put("total", total);
+        bean.put("page", page);
+        bean.put("pages", pages);
+        bean.put("runs", runs);
+        bean.put("trend", trend);
+        return SUCCESS;
+    }
+
+    private static Map<String, Object> toBean(RunHistoryEntry e) {
+        Map<String, Object> res = new LinkedHashMap<>();
+        res.put("start", e.getStart().toString());
+        res.put("end", e.getEnd().toString());
+        res.put("durationMillis", e.getDurationMillis());
+        res.put("visited", e.getVisited());
+        res.put("deleted", e.getDeleted());
+        res.put("bytes", e.getReclaimedBytes());
+        res.put("bytesPretty", e.getReclaimedBytesPretty());
+        res.put("millisPerVisit", Math.round(e.getMillisPerVisit() * 10) / 10d);
+        res.put("millisPerDeletion", Math.round(e.getMillisPerDeletion() * 10) / 10d);
+        res.put("status", e.getStatus());
+        res.put("node", e.getNode());
+        return res;
+    }
+
+    private static Map<String, Object> toBean(PurgeSimulator.Result r) {
+        Map<String, Object> res = new LinkedHashMap<>();
+        res.put("attachments", r.getAttachments());
+        res.put("priorVersions", r.getPriorVersions());
+        res.put("matchedAttachments", r.getMatchedAttachments());
+        res.put("versions", r.getVersions());
+        res.put("bytes", r.getBytes());
+        res.put("bytesPretty", FileSize.format(r.getBytes()));
+        return res;
+    }
+
+    @Override
+    public Object getBean() {
+        return bean;
+    }
+
+    private PurgeAttachmentSettings createSettings() {
+        PurgeAttachmentSettings s = new PurgeAttachmentSettings(mode,
+                                                                ageRuleEnabled,
+                                                                maxDaysOld,
+                                                                revisionCountRuleEnabled,
+                                                                maxRevisions,
+                                                                maxSizeRuleEnabled,
+                                                                maxTotalSize,
+                                                                reportOnly,
+                                                                reportEmailAddress,
+                                                                sendPlainTextMail,
+                                                                deleteLimit);
+        s.setScanMode(scanMode);
+        s.setScanPageSize(scanPageSize);
+        s.setWorkerThreads(workerThreads);
+        s.setBatchSizeMin(batchSizeMin);
+        s.setBatchSizeMax(batchSizeMax);
+        s.setTargetTransactionMillis(targetTransactionMillis);
+        s.setFullSweepDays(fullSweepDays);
+        s.setCheckpointExpiryHours(checkpointExpiryHours);
+        s.setClusterLeaseSeconds(clusterLeaseSeconds);
+        s.setThrottleOpsPerSecond(throttleOpsPerSecond);
+        s.setThrottleBytesPerSecond(throttleBytesPerSecond);
+        s.setThrottleLatencyMillis(throttleLatencyMillis);
+        s.setWindowStart(windowStart);
+        s.setWindowEnd(windowEnd);
+        s.setRunBudgetMinutes(runBudgetMinutes);
+        s.setReportMaxEntries(reportMaxEntries);
+        s.setReportMemoryMiB(reportMemoryMiB);
+        s.setHistoryMaxRuns(historyMaxRuns);
+        s.setMaxVersionSize(maxVersionSize);
+        s.setFileTypeRetention(fileTypeRetention);
+        s.setDuplicateRuleEnabled(duplicateRuleEnabled);
+        return s;
+    }
+
     //
     // Settings properties follow
     //
@@ -249,4 +486,192 @@ public class ConfigurePurgeAttachmentsAction extends AbstractSpaceAction impleme
         this.deleteLimit = deleteLimit;
     }
 
+    public int getScanMode() {
+        return scanMode;
+    }
+
+    public void setScanMode(int scanMode) {
+        this.scanMode = scanMode;
+    }
+
+    public int getScanPageSize() {
+        return scanPageSize;
+    }
+
+    public void setScanPageSize(int scanPageSize) {
+        this.scanPageSize = scanPageSize;
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public void setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    public int getBatchSizeMin() {
+        return batchSizeMin;
+    }
+
+    public void setBatchSizeMin(int batchSizeMin) {
+        this.batchSizeMin = batchSizeMin;
+    }
+
+    public int getBatchSizeMax() {
+        return batchSizeMax;
+    }
+
+    public void setBatchSizeMax(int batchSizeMax) {
+        this.batchSizeMax = batchSizeMax;
+    }
+
+    public int getTargetTransactionMillis() {
+        return targetTransactionMillis;
+    }
+
+    public void setTargetTransactionMillis(int targetTransactionMillis) {
+        this.targetTransactionMillis = targetTransactionMillis;
+    }
+
+    public int getFullSweepDays() {
+        return fullSweepDays;
+    }
+
+    public void setFullSweepDays(int fullSweepDays) {
+        this.fullSweepDays = fullSweepDays;
+    }
+
+    public int getCheckpointExpiryHours() {
+        return checkpointExpiryHours;
+    }
+
+    public void setCheckpointExpiryHours(int checkpointExpiryHours) {
+        this.checkpointExpiryHours = checkpointExpiryHours;
+    }
+
+    /**
+     * @return  always {@code false}, discarding a checkpoint is not a stored
+     *          setting.
+     */
+    public boolean isRestartPurge() {
+        return false;
+    }
+
+    public void setRestartPurge(boolean restartPurge) {
+        this.restartPurge = restartPurge;
+    }
+
+    public int getClusterLeaseSeconds() {
+        return clusterLeaseSeconds;
+    }
+
+    public void setClusterLeaseSeconds(int clusterLeaseSeconds) {
+        this.clusterLeaseSeconds = clusterLeaseSeconds;
+    }
+
+    public int getThrottleOpsPerSecond() {
+        return throttleOpsPerSecond;
+    }
+
+    public void setThrottleOpsPerSecond(int throttleOpsPerSecond) {
+        this.throttleOpsPerSecond = throttleOpsPerSecond;
+    }
+
+    public long getThrottleBytesPerSecond() {
+        return throttleBytesPerSecond;
+    }
+
+    public void setThrottleBytesPerSecond(long throttleBytesPerSecond) {
+        this.throttleBytesPerSecond = throttleBytesPerSecond;
+    }
+
+    public int getThrottleLatencyMillis() {
+        return throttleLatencyMillis;
+    }
+
+    public void setThrottleLatencyMillis(int throttleLatencyMillis) {
+        this.throttleLatencyMillis = throttleLatencyMillis;
+    }
+
+    public String getWindowStart() {
+        return windowStart;
+    }
+
+    public void setWindowStart(String windowStart) {
+        this.windowStart = windowStart;
+    }
+
+    public String getWindowEnd() {
+        return windowEnd;
+    }
+
+    public void setWindowEnd(String windowEnd) {
+        this.windowEnd = windowEnd;
+    }
+
+    public int getRunBudgetMinutes() {
+        return runBudgetMinutes;
+    }
+
+    public void setRunBudgetMinutes(int runBudgetMinutes) {
+        this.runBudgetMinutes = runBudgetMinutes;
+    }
+
+    public int getReportMaxEntries() {
+        return reportMaxEntries;
+    }
+
+    public void setReportMaxEntries(int reportMaxEntries) {
+        this.reportMaxEntries = reportMaxEntries;
+    }
+
+    public int getReportMemoryMiB() {
+        return reportMemoryMiB;
+    }
+
+    public void setReportMemoryMiB(int reportMemoryMiB) {
+        this.reportMemoryMiB = reportMemoryMiB;
+    }
+
+    public int getHistoryMaxRuns() {
+        return historyMaxRuns;
+    }
+
+    public void setHistoryMaxRuns(int historyMaxRuns) {
+        this.historyMaxRuns = historyMaxRuns;
+    }
+
+    public int getHistoryPage() {
+        return historyPage;
+    }
+
+    public void setHistoryPage(int historyPage) {
+        this.historyPage = historyPage;
+    }
+
+    public long getMaxVersionSize() {
+        return maxVersionSize;
+    }
+
+    public void setMaxVersionSize(long maxVersionSize) {
+        this.maxVersionSize = maxVersionSize;
+    }
+
+    public String getFileTypeRetention() {
+        return fileTypeRetention;
+    }
+
+    public void setFileTypeRetention(String fileTypeRetention) {
+        this.fileTypeRetention = fileTypeRetention;
+    }
+
+    public boolean isDuplicateRuleEnabled() {
+        return duplicateRuleEnabled;
+    }
+
+    public void setDuplicateRuleEnabled(boolean duplicateRuleEnabled) {
+        this.duplicateRuleEnabled = duplicateRuleEnabled;
+    }
+
 }
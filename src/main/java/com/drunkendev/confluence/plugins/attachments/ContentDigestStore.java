@@ -0,0 +1,423 @@
+/*
+ * ContentDigestStore.java    Oct 18 2026, 04:50
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+
+
+/**
+ * Digests of the stored content of attachment versions, used to find
+ * versions identical to one another.
+ *
+ * <p>
+ * The content of a version never changes so its digest is kept by version
+ * identifier for as long as the version exists. Digests not kept are hashed
+ * by a pool of workers reading each file through a {@link FileChannel}, and
+ * appended to files in the shared home so that a version is hashed once
+ * across runs.
+ *
+ * <p>
+ * Digests are spread over bucket files by version identifier and only the
+ * buckets of the versions asked for are read, keeping only their digests,
+ * so memory does not grow with the number of versions kept. Each record is
+ * framed by its length and checksum and a bucket is read up to its first
+ * incomplete or corrupt record. Removed versions are appended as removal
+ * records, a bucket is written again without them once they make up half of
+ * it. The files are a cache: digests lost to a concurrent rewrite by another
+ * node are only hashed again.
+ *
+ * @author  Brett Ryan
+ */
+public class ContentDigestStore implements DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContentDigestStore.class);
+
+    private static final String DIGEST_DIR = "digests";
+    private static final String ALGORITHM = "SHA-256";
+    private static final int DIGEST_LENGTH = 32;
+    private static final int BUCKETS = 1024;
+    private static final int HASH_THREADS = 4;
+    private static final int READ_BUFFER_SIZE = 256 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final int MAX_RECORD_LENGTH = 1 + 8 + DIGEST_LENGTH;
+
+    /**
+     * Removal records held in a bucket beyond those live before it is
+     * written again.
+     */
+    private static final int COMPACT_SLACK = 64;
+
+    private static final ThreadLocal<ByteBuffer> READ_BUFFER
+            = ThreadLocal.withInitial(() -> ByteBuffer.allocateDirect(READ_BUFFER_SIZE));
+
+    private final PluginHome pluginHome;
+    private final AttachmentDataLocator locator;
+    private final ExecutorService hashers;
+
+    /**
+     * Suffix of files being compacted, unique to this node so that nodes
+     * compacting the same bucket do not write to the same file.
+     */
+    private final String tmpSuffix = "." + UUID.randomUUID() + ".tmp";
+
+    /**
+     * Creates a new {@code ContentDigestStore} instance.
+     */
+    public ContentDigestStore(PluginHome pluginHome, AttachmentDataLocator attachmentDataLocator) {
+        this.pluginHome = pluginHome;
+        this.locator = attachmentDataLocator;
+        AtomicInteger threads = new AtomicInteger();
+        this.hashers = Executors.newFixedThreadPool(HASH_THREADS, r -> {
+            Thread t = new Thread(r, "purge-attachments-digest-" + threads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    private Path getFile(int bucket) {
+        return pluginHome.resolve(DIGEST_DIR).resolve(String.format("%03x.bin", bucket));
+    }
+
+    private static int bucket(long id) {
+        return (int) Math.floorMod(id, (long) BUCKETS);
+    }
+
+    /**
+     * @return  identifiers grouped by bucket.
+     */
+    private static Map<Integer, Set<Long>> byBucket(Collection<Long> ids) {
+        Map<Integer, Set<Long>> res = new TreeMap<>();
+        for (Long id : ids) {
+            res.computeIfAbsent(bucket(id), k -> new HashSet<>()).add(id);
+        }
+        return res;
+    }
+
+    /**
+     * @return  {@code true} if content of attachment versions may be hashed.
+     */
+    public boolean isAvailable() {
+        return locator.isAvailable();
+    }
+
+    /**
+     * Locate the files of versions to be passed to
+     * {@link #getDigests(Map)}, must be called within a transaction.
+     *
+     * @param   ids
+     *          Identifiers of attachment versions.
+     * @return  files by version identifier, versions which no longer exist
+     *          are omitted.
+     */
+    public Map<Long, Path> locate(Collection<Long> ids) {
+        return locator.locate(ids);
+    }
+
+    /**
+     * Get the digests of versions, hashing those not yet kept in parallel.
+     *
+     * <p>
+     * Is not called within a transaction as hashing may take some time.
+     *
+     * @param   files
+     *          Files of attachment versions by identifier.
+     * @return  digests by version identifier, versions whose file could not
+     *          be read are omitted.
+     */
+    public Map<Long, byte[]> getDigests(Map<Long, Path> files) {
+        Map<Long, byte[]> res = new HashMap<>(files.size() * 2);
+        for (Map.Entry<Integer, Set<Long>> b : byBucket(files.keySet()).entrySet()) {
+            read(b.getKey(), b.getValue(), res);
+        }
+        List<Long> hashed = new ArrayList<>();
+        List<Callable<byte[]>> tasks = new ArrayList<>();
+        for (Map.Entry<Long, Path> f : files.entrySet()) {
+            if (!res.containsKey(f.getKey())) {
+                hashed.add(f.getKey());
+                tasks.add(() -> hash(f.getKey(), f.getValue()));
+            }
+        }
+        if (tasks.isEmpty()) {
+            return res;
+        }
+
+        Map<Long, byte[]> fresh = new HashMap<>(tasks.size() * 2);
+        try {
+            List<Future<byte[]>> results = hashers.invokeAll(tasks);
+            for (int i = 0; i < results.size(); i++) {
+                byte[] d = results.get(i).get();
+                if (d != null) {
+                    fresh.put(hashed.get(i), d);
+                }
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while hashing attachment versions.", ex);
+        } catch (ExecutionException ex) {
+            throw new IllegalStateException("Could not hash attachment versions.", ex.getCause());
+        }
+        LOG.debug("Hashed {} of {} attachment versions not kept.", fresh.size(), tasks.size());
+        for (Map.Entry<Integer, Set<Long>> b : byBucket(fresh.keySet()).entrySet()) {
+            List<byte[]> records = new ArrayList<>(b.getValue().size());
+            for (Long id : b.getValue()) {
+                records.add(record(PUT, id, fresh.get(id)));
+            }
+            append(b.getKey(), records);
+        }
+        res.putAll(fresh);
+        return res;
+    }
+
+    /**
+     * @return  digest of a file, {@code null} if it could not be read.
+     */
+    private static byte[] hash(long id, Path file) {
+        MessageDigest md;
+        try {
+            md = MessageDigest.getInstance(ALGORITHM);
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException(ex);
+        }
+        ByteBuffer buf = READ_BUFFER.get();
+        try (FileChannel ch = FileChannel.open(file, READ)) {
+            buf.clear();
+            while (ch.read(buf) >= 0) {
+                buf.flip();
+                md.update(buf);
+                buf.clear();
+            }
+            return md.digest();
+        } catch (NoSuchFileException ex) {
+            LOG.debug("Data of attachment version {} was not found at {}.", id, file);
+        } catch (IOException ex) {
+            LOG.warn("Could not hash attachment version {} at {}: {}", id, file, ex.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Discard digests of deleted versions.
+     */
+    public void remove(Collection<Long> ids) {
+        for (Map.Entry<Integer, Set<Long>> b : byBucket(ids).entrySet()) {
+            if (!Files.exists(getFile(b.getKey()))) {
+                continue;
+            }
+            List<byte[]> records = new ArrayList<>(b.getValue().size());
+            for (Long id : b.getValue()) {
+                records.add(record(REMOVE, id, null));
+            }
+            append(b.getKey(), records);
+        }
+    }
+
+    /**
+     * Read the digests of versions kept in a bucket, writing the bucket
+     * again where it holds many removals or a corrupt record.
+     *
+     * @param   ids
+     *          Versions to read.
+     * @param   res
+     *          Receives digests found.
+     */
+    private synchronized void read(int bucket, Set<Long> ids, Map<Long, byte[]> res) {
+        Path file = getFile(bucket);
+        if (!Files.exists(file)) {
+            return;
+        }
+        Map<Long, byte[]> found = new HashMap<>();
+        RecordReader r = new RecordReader();
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE))) {
+            while (r.next(in)) {
+                if (r.kind == REMOVE) {
+                    found.remove(r.id);
+                } else if (ids.contains(r.id)) {
+                    found.put(r.id, r.digest.clone());
+                }
+            }
+        } catch (IOException ex) {
+            LOG.warn("Could not read content digests {}: {}", file, ex.getMessage());
+            return;
+        }
+        res.putAll(found);
+        if (!r.intact || r.removals * 2 > r.records + COMPACT_SLACK) {
+            compact(bucket);
+        }
+    }
+
+    private synchronized void append(int bucket, List<byte[]> records) {
+        Path file = getFile(bucket);
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(records.size() * (MAX_RECORD_LENGTH + 8));
+        for (byte[] r : records) {
+            buf.write(r, 0, r.length);
+        }
+        try {
+            Files.createDirectories(file.getParent());
+            // Records of a bucket are appended in a single write.
+            try (OutputStream out = Files.newOutputStream(file, CREATE, APPEND)) {
+                buf.writeTo(out);
+            }
+        } catch (IOException ex) {
+            LOG.warn("Could not save content digests {}: {}", file, ex.getMessage());
+        }
+    }
+
+    /**
+     * Write a bucket again holding only digests of versions not removed, up
+     * to its first corrupt record.
+     */
+    private void compact(int bucket) {
+        Path file = getFile(bucket);
+        Path tmp = file.resolveSibling(file.getFileName() + tmpSuffix);
+        Map<Long, byte[]> live = new LinkedHashMap<>();
+        RecordReader r = new RecordReader();
+        try {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE))) {
+                while (r.next(in)) {
+                    if (r.kind == REMOVE) {
+                        live.remove(r.id);
+                    } else {
+                        live.put(r.id, r.digest.clone());
+                    }
+                }
+            }
+            try (OutputStream out = new BufferedOutputStream(Files.newOutputStream(tmp), BUFFER_SIZE)) {
+                for (Map.Entry<Long, byte[]> e : live.entrySet()) {
+                    out.write(record(PUT, e.getKey(), e.getValue()));
+                }
+            }
+            Files.move(tmp, file, ATOMIC_MOVE, REPLACE_EXISTING);
+            LOG.debug("Compacted content digests {} from {} to {} records.", file, r.records, live.size());
+        } catch (IOException ex) {
+            LOG.warn("Could not compact content digests {}: {}", file, ex.getMessage());
+            try {
+                Files.deleteIfExists(tmp);
+            } catch (IOException dex) {
+                LOG.debug("Could not remove {}: {}", tmp, dex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * @param   digest
+     *          Digest of a {@link #PUT} record, {@code null} otherwise.
+     * @return  record framed by its length and checksum.
+     */
+    private static byte[] record(byte kind, long id, byte[] digest) {
+        ByteBuffer payload = ByteBuffer.allocate(digest == null ? 9 : 9 + DIGEST_LENGTH).put(kind).putLong(id);
+        if (digest != null) {
+            payload.put(digest);
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload.array());
+        return ByteBuffer.allocate(8 + payload.capacity())
+                .putInt(payload.capacity())
+                .putInt((int) crc.getValue())
+                .put(payload.array())
+                .array();
+    }
+
+    @Override
+    public void destroy() {
+        hashers.shutdownNow();
+    }
+
+    /**
+     * Reads records of a bucket one at a time.
+     */
+    private static final class RecordReader {
+
+        private final byte[] payload = new byte[MAX_RECORD_LENGTH];
+        private final byte[] digest = new byte[DIGEST_LENGTH];
+        private byte kind;
+        private long id;
+        private long records;
+        private long removals;
+        private boolean intact = true;
+
+        /**
+         * @return  {@code false} at the end of the bucket or its first
+         *          incomplete or corrupt record.
+         */
+        private boolean next(DataInputStream in) throws IOException {
+            try {
+                int length = in.readInt();
+                if (length < 9 || length > MAX_RECORD_LENGTH) {
+                    intact = false;
+                    return false;
+                }
+                int checksum = in.readInt();
+                in.readFully(payload, 0, length);
+                CRC32 crc = new CRC32();
+                crc.update(payload, 0, length);
+                ByteBuffer b = ByteBuffer.wrap(payload, 0, length);
+                kind = b.get();
+                id = b.getLong();
+                if ((int) crc.getValue() != checksum
+                        || (kind == PUT && length != MAX_RECORD_LENGTH)
+                        || (kind != PUT && kind != REMOVE)) {
+                    intact = false;
+                    return false;
+                }
+                if (kind == PUT) {
+                    b.get(digest);
+                } else {
+                    removals++;
+                }
+                records++;
+                return true;
+            } catch (EOFException ex) {
+                // A record being appended by another node may be incomplete.
+                return false;
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,614 @@
+/*
+ * DataRemovalJournal.java    Oct 18 2026, 04:10
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import com.atlassian.confluence.setup.BootstrapManager;
+import com.atlassian.sal.api.transaction.TransactionTemplate;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+
+/**
+ * Removes stored data of deleted attachment versions in the background.
+ *
+ * <p>
+ * Within the transaction deleting the rows of a batch the file of each
+ * version is appended to a journal and forced to disk, then set aside by
+ * renaming it within its directory so that confluence finds no data to
+ * remove with the rows. Each record is framed by its length and checksum, a
+ * write which fails is truncated and replay stops at the first record found
+ * incomplete or corrupt. Once the transaction commits the files set aside are
+ * removed by a pool of workers, retrying with backoff where removal fails.
+ * Only files found where located and set aside are journaled, data of other
+ * versions is left to be removed through confluence with the rows. A
+ * journaled file missing once its rows are deleted is logged and counted by
+ * {@link PurgeMetrics}. Entries are only acted on once their rows are known
+ * to be deleted, files of a transaction which did not commit are restored.
+ *
+ * <p>
+ * Each node keeps its own journal in the shared home, held locked while the
+ * plugin runs and named by an identifier kept in the local home so that a
+ * node reopens its journal when it restarts. Entries left by a node which
+ * stopped before they were removed are replayed when it next starts, or by
+ * any other node able to take the lock of its journal. Such a node moves the
+ * entries into its own journal before emptying the other.
+ *
+ * <p>
+ * Removal is only available while the global settings keep attachments in
+ * the file system, otherwise {@link #isEnabled()} returns {@code false} and
+ * data is removed with the rows. Entries left in a journal are replayed
+ * either way.
+ *
+ * @author  Brett Ryan
+ */
+public class DataRemovalJournal implements DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DataRemovalJournal.class);
+
+    private static final String JOURNAL_DIR = "data-removal";
+    private static final String JOURNAL_SUFFIX = ".journal";
+    private static final String NODE_ID_FILE = "node-id";
+    private static final long ADOPT_PERIOD_MINUTES = 15;
+    private static final int WORKERS = 4;
+    private static final int MAX_ATTEMPTS = 6;
+    private static final long RETRY_DELAY_MILLIS = 500;
+    private static final long COMPACT_SIZE = 1024 * 1024;
+    private static final byte PENDING = 1;
+    private static final byte DONE = 2;
+    private static final String ASIDE_SUFFIX = ".purged";
+
+    /**
+     * Longest record, a path may be at most 65535 bytes once encoded.
+     */
+    private static final int MAX_RECORD_LENGTH = 1 + 8 + 8 + 2 + 65535;
+
+    private final AttachmentDataLocator locator;
+    private final PurgeAttachmentsDao purgeDao;
+    private final TransactionTemplate transactionTemplate;
+    private final PurgeMetrics metrics;
+    private final Map<Long, Entry> outstanding = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService workers;
+    private final Path file;
+    private volatile FileChannel journal;
+    private FileLock lock;
+    private long nextSeq;
+
+    /**
+     * Creates a new {@code DataRemovalJournal} instance, replaying entries
+     * left by a previous instance.
+     */
+    public DataRemovalJournal(BootstrapManager bootstrapManager,
+                              PluginHome pluginHome,
+                              AttachmentDataLocator attachmentDataLocator,
+                              PurgeAttachmentsDao purgeAttachmentsDao,
+                              TransactionTemplate transactionTemplate,
+                              PurgeMetrics purgeMetrics) {
+        this.locator = attachmentDataLocator;
+        this.purgeDao = purgeAttachmentsDao;
+        this.transactionTemplate = transactionTemplate;
+        this.metrics = purgeMetrics;
+        AtomicInteger threads = new AtomicInteger();
+        this.workers = Executors.newScheduledThreadPool(WORKERS, r -> {
+            Thread t = new Thread(r, "purge-attachments-data-removal-" + threads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+        this.file = pluginHome.resolve(JOURNAL_DIR).resolve(getNodeId(bootstrapManager) + JOURNAL_SUFFIX);
+        try {
+            Files.createDirectories(file.getParent());
+            journal = FileChannel.open(file, CREATE, READ, WRITE);
+            lock = tryLock(journal);
+            if (lock == null) {
+                LOG.warn("Data removal journal {} is held by another instance, data is removed with each version.", file);
+                journal.close();
+                journal = null;
+                return;
+            }
+            List<Entry> left = read();
+            if (!left.isEmpty()) {
+                LOG.info("Replaying {} data removals left in {}.", left.size(), file);
+                workers.execute(() -> reconcile(left));
+            }
+            workers.scheduleWithFixedDelay(this::adopt, 0, ADOPT_PERIOD_MINUTES, TimeUnit.MINUTES);
+        } catch (IOException ex) {
+            LOG.warn("Could not open data removal journal {}, data is removed with each version: {}",
+                     file, ex.getMessage());
+            close();
+        }
+    }
+
+    /**
+     * @return  identifier of this node, created the first time the plugin
+     *          starts on it. Where it cannot be kept a new identifier is used,
+     *          the journal of the previous one is then taken over as that of
+     *          any other node.
+     */
+    private static String getNodeId(BootstrapManager bootstrapManager) {
+        Path f = bootstrapManager.getLocalHome().toPath().resolve("attachment-tools").resolve(NODE_ID_FILE);
+        String res = UUID.randomUUID().toString();
+        try {
+            if (Files.exists(f)) {
+                String id = new String(Files.readAllBytes(f), UTF_8).trim();
+                if (!id.isEmpty()) {
+                    return id;
+                }
+            }
+            Files.createDirectories(f.getParent());
+            Files.write(f, res.getBytes(UTF_8));
+        } catch (IOException ex) {
+            LOG.warn("Could not keep node identifier {}: {}", f, ex.getMessage());
+        }
+        return res;
+    }
+
+    private static FileLock tryLock(FileChannel channel) throws IOException {
+        try {
+            return channel.tryLock();
+        } catch (OverlappingFileLockException ex) {
+            return null;
+        }
+    }
+
+    /**
+     * Read entries of this journal not marked done, leaving the sequence to
+     * continue after the last entry written.
+     */
+    private synchronized List<Entry> read() throws IOException {
+        List<Entry> res = read(journal);
+        for (Entry e : res) {
+            nextSeq = Math.max(nextSeq, e.seq + 1);
+            outstanding.put(e.seq, e);
+        }
+        compact();
+        return res;
+    }
+
+    /**
+     * Read entries of a journal not marked done.
+     */
+    private static List<Entry> read(FileChannel channel) throws IOException {
+        Map<Long, Entry> pending = new LinkedHashMap<>();
+        // Read through the locked channel, the stream is not closed as that
+        // would close the channel.
+        channel.position(0);
+        DataInputStream in = new DataInputStream(new BufferedInputStream(Channels.newInputStream(channel)));
+        long n = 0;
+        try {
+            while (true) {
+                int length = in.readInt();
+                if (length <= 0 || length > MAX_RECORD_LENGTH) {
+                    LOG.warn("Data removal journal record {} has invalid length {}, records after it are ignored.",
+                             n, length);
+                    break;
+                }
+                int checksum = in.readInt();
+                byte[] record = new byte[length];
+                in.readFully(record);
+                CRC32 crc = new CRC32();
+                crc.update(record);
+                if ((int) crc.getValue() != checksum) {
+                    LOG.warn("Data removal journal record {} is corrupt, records after it are ignored.", n);
+                    break;
+                }
+                DataInputStream r = new DataInputStream(new ByteArrayInputStream(record));
+                byte kind = r.readByte();
+                long seq = r.readLong();
+                if (kind == PENDING) {
+                    pending.put(seq, new Entry(seq, r.readLong(), Paths.get(r.readUTF()), true));
+                } else {
+                    pending.remove(seq);
+                }
+                n++;
+            }
+        } catch (EOFException ex) {
+            // An entry being written when the node stopped is incomplete, its
+            // transaction could not have committed.
+        }
+        return new ArrayList<>(pending.values());
+    }
+
+    /**
+     * Take over the entries of journals left by nodes no longer running.
+     *
+     * <p>
+     * A journal is emptied rather than removed as its node may be opening it
+     * again, removing it would leave that node writing to a file no longer
+     * linked.
+     */
+    private void adopt() {
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(file.getParent(), "*" + JOURNAL_SUFFIX)) {
+            for (Path f : files) {
+                if (!f.equals(file)) {
+                    adopt(f);
+                }
+            }
+        } catch (IOException | RuntimeException ex) {
+            LOG.warn("Could not look for data removal journals left by other nodes: {}", ex.getMessage());
+        }
+    }
+
+    private void adopt(Path f) throws IOException {
+        try (FileChannel ch = FileChannel.open(f, READ, WRITE)) {
+            FileLock l = tryLock(ch);
+            if (l == null) {
+                return;
+            }
+            try {
+                List<Entry> left = read(ch);
+                if (left.isEmpty()) {
+                    return;
+                }
+                List<Entry> adopted = append(left);
+                ch.truncate(0);
+                ch.force(true);
+                LOG.info("Replaying {} data removals left in {}.", adopted.size(), f);
+                reconcile(adopted);
+            } finally {
+                l.release();
+            }
+        }
+    }
+
+    /**
+     * @return  {@code true} if data of deleted versions is removed by this
+     *          journal.
+     */
+    public boolean isEnabled() {
+        return journal != null && locator.isAvailable();
+    }
+
+    /**
+     * Journal the data of versions about to be deleted.
+     *
+     * <p>
+     * Must be called within the transaction deleting the versions and
+     * before their rows are deleted. Entries returned are passed to
+     * {@link #submit(Collection)} once the transaction commits, or to
+     * {@link #reconcile(Collection)} if it fails.
+     *
+     * <p>
+     * Files of versions journaled are set aside. Versions whose file is not
+     * found where located, or can not be set aside, are not journaled and
+     * their data is left to be removed through confluence.
+     *
+     * @param   ids
+     *          Identifiers of prior versions.
+     * @return  entries journaled.
+     * @throws  UncheckedIOException
+     *          If the journal could not be written, the transaction should
+     *          not commit.
+     */
+    public List<Entry> journal(Collection<Long> ids) {
+        if (!isEnabled() || ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Entry> located = new ArrayList<>(ids.size());
+        for (Map.Entry<Long, Path> f : locator.locate(ids).entrySet()) {
+            if (Files.isRegularFile(f.getValue())) {
+                located.add(new Entry(0, f.getKey(), f.getValue(), false));
+            } else {
+                LOG.warn("Data of attachment version {} not found at {}, it is removed through confluence.",
+                         f.getKey(), f.getValue());
+            }
+        }
+        List<Entry> journaled;
+        try {
+            journaled = append(located);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        // Only set aside once journaled so that a file is never left aside
+        // without an entry to remove or restore it.
+        List<Entry> res = new ArrayList<>(journaled.size());
+        for (Entry e : journaled) {
+            try {
+                Files.move(e.path, e.getAside(), ATOMIC_MOVE);
+                res.add(e);
+            } catch (IOException ex) {
+                LOG.warn("Could not set aside data of attachment version {} at {}, it is removed through confluence: {}",
+                         e.versionId, e.path, ex.getMessage());
+                completed(e);
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Append entries to this journal and force them to disk.
+     *
+     * @return  entries as numbered by this journal.
+     */
+    private synchronized List<Entry> append(List<Entry> entries) throws IOException {
+        if (journal == null) {
+            throw new IOException("Data removal journal is closed.");
+        }
+        List<Entry> res = new ArrayList<>(entries.size());
+        ByteArrayOutputStream buf = new ByteArrayOutputStream(entries.size() * 128);
+        for (Entry f : entries) {
+            Entry e = new Entry(nextSeq++, f.versionId, f.path, f.replayed);
+            writePending(buf, e);
+            res.add(e);
+        }
+        write(buf.toByteArray(), true);
+        for (Entry e : res) {
+            outstanding.put(e.seq, e);
+        }
+        return res;
+    }
+
+    /**
+     * Remove the data of entries whose rows have been committed as deleted.
+     */
+    public void submit(Collection<Entry> entries) {
+        for (Entry e : entries) {
+            schedule(e, 0);
+        }
+    }
+
+    /**
+     * Remove the data of entries whose rows are found to be deleted, data of
+     * entries whose rows still exist is restored. Used where it is not known
+     * whether the transaction deleting them committed.
+     */
+    public void reconcile(Collection<Entry> entries) {
+        if (entries.isEmpty()) {
+            return;
+        }
+        List<Long> ids = new ArrayList<>(entries.size());
+        for (Entry e : entries) {
+            ids.add(e.versionId);
+        }
+        Set<Long> existing;
+        try {
+            existing = new HashSet<>(transactionTemplate.execute(() -> purgeDao.findExistingIds(ids)));
+        } catch (RuntimeException ex) {
+            LOG.warn("Could not check {} journaled data removals, they are replayed when the plugin next starts: {}",
+                     entries.size(), ex.getMessage());
+            return;
+        }
+        for (Entry e : entries) {
+            if (existing.contains(e.versionId)) {
+                restore(e);
+            } else {
+                schedule(e, 0);
+            }
+        }
+    }
+
+    /**
+     * Move data set aside back in place, its version was not deleted.
+     */
+    private void restore(Entry e) {
+        try {
+            if (Files.exists(e.getAside())) {
+                Files.move(e.getAside(), e.path, ATOMIC_MOVE);
+            }
+            completed(e);
+        } catch (IOException ex) {
+            LOG.warn("Could not restore data of attachment version {} to {}, it is restored when the plugin next starts: {}",
+                     e.versionId, e.path, ex.getMessage());
+        }
+    }
+
+    private void schedule(Entry e, int attempt) {
+        try {
+            if (attempt == 0) {
+                workers.execute(() -> remove(e, attempt));
+            } else {
+                workers.schedule(() -> remove(e, attempt), RETRY_DELAY_MILLIS << (attempt - 1), TimeUnit.MILLISECONDS);
+            }
+        } catch (RejectedExecutionException ex) {
+            LOG.debug("Data removal of {} left for replay as the plugin is stopping.", e.path);
+        }
+    }
+
+    private void remove(Entry e, int attempt) {
+        try {
+            if (!Files.deleteIfExists(e.getAside())) {
+                if (e.replayed) {
+                    // Done markers are not forced, it may have been removed before stopping.
+                    LOG.debug("Data of attachment version {} was not found at {}.", e.versionId, e.getAside());
+                } else {
+                    LOG.warn("Data of attachment version {} was not found at {} once its rows were deleted.",
+                             e.versionId, e.getAside());
+                    metrics.dataMissing();
+                }
+            }
+            completed(e);
+        } catch (IOException ex) {
+            if (attempt + 1 < MAX_ATTEMPTS) {
+                LOG.debug("Could not remove {}, retrying: {}", e.getAside(), ex.getMessage());
+                schedule(e, attempt + 1);
+            } else {
+                LOG.warn("Could not remove {} after {} attempts, it is retried when the plugin next starts: {}",
+                         e.getAside(), MAX_ATTEMPTS, ex.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Mark an entry done, done markers are not forced as replaying an entry
+     * already removed is harmless.
+     */
+    private synchronized void completed(Entry e) {
+        outstanding.remove(e.seq);
+        if (journal == null) {
+            return;
+        }
+        try {
+            ByteArrayOutputStream buf = new ByteArrayOutputStream(17);
+            writeRecord(buf, ByteBuffer.allocate(9).put(DONE).putLong(e.seq).array());
+            write(buf.toByteArray(), false);
+            if (journal.size() > COMPACT_SIZE) {
+                compact();
+            }
+        } catch (IOException ex) {
+            LOG.warn("Could not mark data removal of {} done: {}", e.path, ex.getMessage());
+        }
+    }
+
+    /**
+     * Write the journal again holding only outstanding entries.
+     */
+    private synchronized void compact() throws IOException {
+        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+        for (Entry e : outstanding.values()) {
+            writePending(buf, e);
+        }
+        journal.truncate(0);
+        write(buf.toByteArray(), true);
+    }
+
+    private static void writePending(ByteArrayOutputStream buf, Entry e) throws IOException {
+        ByteArrayOutputStream record = new ByteArrayOutputStream(64);
+        DataOutputStream out = new DataOutputStream(record);
+        out.writeByte(PENDING);
+        out.writeLong(e.seq);
+        out.writeLong(e.versionId);
+        out.writeUTF(e.path.toString());
+        writeRecord(buf, record.toByteArray());
+    }
+
+    /**
+     * Frame a record by its length and checksum.
+     */
+    private static void writeRecord(ByteArrayOutputStream buf, byte[] record) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(record);
+        DataOutputStream out = new DataOutputStream(buf);
+        out.writeInt(record.length);
+        out.writeInt((int) crc.getValue());
+        out.write(record);
+    }
+
+    /**
+     * Append to the end of the journal, truncating it to its length before
+     * the write where it fails so that no partial record is left for records
+     * written after it to follow.
+     */
+    private void write(byte[] bytes, boolean force) throws IOException {
+        long length = journal.size();
+        try {
+            journal.position(length);
+            ByteBuffer b = ByteBuffer.wrap(bytes);
+            while (b.hasRemaining()) {
+                journal.write(b);
+            }
+            if (force) {
+                journal.force(false);
+            }
+        } catch (IOException ex) {
+            try {
+                journal.truncate(length);
+            } catch (IOException tex) {
+                ex.addSuppressed(tex);
+            }
+            throw ex;
+        }
+    }
+
+    /**
+     * Stops the workers, entries not yet removed are replayed when the
+     * plugin next starts.
+     */
+    @Override
+    public void destroy() {
+        workers.shutdownNow();
+        try {
+            workers.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        if (!outstanding.isEmpty()) {
+            LOG.info("{} data removals left for replay.", outstanding.size());
+        }
+        close();
+    }
+
+    private synchronized void close() {
+        try {
+            if (lock != null) {
+                lock.release();
+            }
+            if (journal != null) {
+                journal.close();
+            }
+        } catch (IOException ex) {
+            LOG.debug("Could not close data removal journal: {}", ex.getMessage());
+        }
+        lock = null;
+        journal = null;
+    }
+
+    /**
+     * Stored data of a single version awaiting removal.
+     */
+    public static final class Entry {
+
+        private final long seq;
+        private final long versionId;
+        private final Path path;
+        private final boolean replayed;
+
+        private Entry(long seq, long versionId, Path path, boolean replayed) {
+            this.seq = seq;
+            this.versionId = versionId;
+            this.path = path;
+            this.replayed = replayed;
+        }
+
+        /**
+         * @return  file the data is set aside to.
+         */
+        private Path getAside() {
+            return path.resolveSibling(path.getFileName() + ASIDE_SUFFIX);
+        }
+
+    }
+
+}
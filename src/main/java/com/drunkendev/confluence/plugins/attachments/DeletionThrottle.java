@@ -0,0 +1,177 @@
+/*
+ * DeletionThrottle.java    Oct 17 2026, 21:05
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.time.Duration;
+import java.util.concurrent.TimeUnit;
+
+
+/**
+ * Limits the rate deletions are issued at so that a purge does not saturate
+ * the disk or database while users are working.
+ *
+ * <p>
+ * Two token buckets limit versions per second and bytes per second, each
+ * holding at most one second of tokens. A request taking more tokens than
+ * are held takes the bucket in to debt and waits until the debt is repaid,
+ * requests that follow wait behind it.
+ *
+ * <p>
+ * Independently of the buckets the throttle backs off when the measured
+ * latency of deletions exceeds a threshold. Backing off halves the share of
+ * time spent deleting by pausing after each batch, the share recovers
+ * gradually once latency drops below half the threshold.
+ *
+ * <p>
+ * A limit of {@code 0} disables that limit. This class is thread safe.
+ *
+ * @author  Brett Ryan
+ */
+public final class DeletionThrottle {
+
+    private static final double MIN_DUTY = 1 / 16d;
+    private static final double RECOVERY = 1.25;
+    private static final double LATENCY_WEIGHT = 0.2;
+
+    private final Bucket ops;
+    private final Bucket bytes;
+    private final long latencyThresholdNanos;
+
+    private double latencyNanos;
+    private double duty = 1;
+    private long backoffs;
+
+    /**
+     * Creates a new {@code DeletionThrottle} instance.
+     *
+     * @param   opsPerSecond
+     *          Versions deleted per second.
+     * @param   bytesPerSecond
+     *          Bytes of versions deleted per second.
+     * @param   latencyThreshold
+     *          Latency of a deletion above which the throttle backs off, or
+     *          {@link Duration#ZERO} to never back off.
+     */
+    public DeletionThrottle(long opsPerSecond, long bytesPerSecond, Duration latencyThreshold) {
+        this.ops = opsPerSecond > 0 ? new Bucket(opsPerSecond) : null;
+        this.bytes = bytesPerSecond > 0 ? new Bucket(bytesPerSecond) : null;
+        this.latencyThresholdNanos = latencyThreshold.toNanos();
+    }
+
+    /**
+     * Create a throttle for the limits given in the system settings.
+     */
+    public static DeletionThrottle of(PurgeAttachmentSettings settings) {
+        return new DeletionThrottle(settings.getThrottleOpsPerSecond(),
+                                    settings.getThrottleBytesPerSecond(),
+                                    Duration.ofMillis(settings.getThrottleLatencyMillis()));
+    }
+
+    /**
+     * Wait until a batch of deletions may proceed.
+     *
+     * @param   count
+     *          Number of versions to delete.
+     * @param   size
+     *          Total size of the versions in bytes.
+     * @return  time spent waiting.
+     */
+    public Duration acquire(long count, long size) throws InterruptedException {
+        long nanos = 0;
+        if (ops != null) {
+            nanos = Math.max(nanos, ops.take(count));
+        }
+        if (bytes != null) {
+            nanos = Math.max(nanos, bytes.take(size));
+        }
+        if (nanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(nanos);
+        }
+        return Duration.ofNanos(nanos);
+    }
+
+    /**
+     * Record the latency of a single deletion.
+     */
+    public synchronized void record(Duration latency) {
+        if (latencyThresholdNanos <= 0) {
+            return;
+        }
+        long n = latency.toNanos();
+        latencyNanos = latencyNanos == 0 ? n : latencyNanos + LATENCY_WEIGHT * (n - latencyNanos);
+        if (latencyNanos > latencyThresholdNanos) {
+            if (duty > MIN_DUTY) {
+                duty = Math.max(MIN_DUTY, duty / 2);
+                backoffs++;
+            }
+            // Start measuring afresh at the reduced rate.
+            latencyNanos = latencyThresholdNanos / 2d;
+        } else if (latencyNanos < latencyThresholdNanos / 2d) {
+            duty = Math.min(1, duty * RECOVERY);
+        }
+    }
+
+    /**
+     * Pause after a batch of deletions as required by backing off.
+     *
+     * @param   elapsed
+     *          Time the batch took.
+     * @return  time spent waiting.
+     */
+    public Duration pause(Duration elapsed) throws InterruptedException {
+        double d;
+        synchronized (this) {
+            d = duty;
+        }
+        if (d >= 1) {
+            return Duration.ZERO;
+        }
+        long nanos = Math.round(elapsed.toNanos() * (1 / d - 1));
+        TimeUnit.NANOSECONDS.sleep(nanos);
+        return Duration.ofNanos(nanos);
+    }
+
+    /**
+     * @return  number of times the throttle has backed off.
+     */
+    public synchronized long getBackoffs() {
+        return backoffs;
+    }
+
+    /**
+     * Token bucket refilled continuously at a fixed rate.
+     */
+    private static final class Bucket {
+
+        private final double perNano;
+        private final double capacity;
+        private double tokens;
+        private long refilled = System.nanoTime();
+
+        private Bucket(long perSecond) {
+            this.perNano = perSecond / (double) TimeUnit.SECONDS.toNanos(1);
+            this.capacity = perSecond;
+            this.tokens = perSecond;
+        }
+
+        /**
+         * Take tokens, possibly going in to debt.
+         *
+         * @return  nanoseconds to wait before the tokens are available.
+         */
+        private synchronized long take(long n) {
+            long now = System.nanoTime();
+            tokens = Math.min(capacity, tokens + (now - refilled) * perNano);
+            refilled = now;
+            tokens -= n;
+            return tokens >= 0 ? 0 : (long) Math.ceil(-tokens / perNano);
+        }
+
+    }
+
+}
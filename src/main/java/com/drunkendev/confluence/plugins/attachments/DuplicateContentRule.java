@@ -0,0 +1,52 @@
+/*
+ * DuplicateContentRule.java    Oct 18 2026, 04:50
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Purges any prior version whose content is identical to a newer version,
+ * such as a file uploaded again unchanged.
+ *
+ * <p>
+ * Content is compared by the digests a {@link PriorVersions} view holds, see
+ * {@link PriorVersions#isDuplicate(int)}. A version identical to a newer one
+ * is identical to the newest of them, which is always kept by this rule.
+ *
+ * @author  Brett Ryan
+ */
+public final class DuplicateContentRule implements RetentionRule {
+
+    /**
+     * {@link RetentionRule.Factory} of the duplicate content rule.
+     */
+    public static List<RetentionRule> create(PurgeAttachmentSettings stng, LocalDateTime now) {
+        return stng.isDuplicateRuleEnabled()
+               ? Collections.singletonList(new DuplicateContentRule())
+               : Collections.emptyList();
+    }
+
+    @Override
+    public boolean isCascading() {
+        return false;
+    }
+
+    @Override
+    public boolean purges(PriorVersions versions, int index, long retainedBytes) {
+        return versions.isDuplicate(index);
+    }
+
+    @Override
+    public String toString() {
+        return "DuplicateContentRule{}";
+    }
+
+}
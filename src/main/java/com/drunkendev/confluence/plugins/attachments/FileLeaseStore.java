@@ -0,0 +1,261 @@
+/*
+ * FileLeaseStore.java    Oct 17 2026, 19:45
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Clock;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.Map;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+
+/**
+ * Lease store kept in a directory shared by all cluster nodes.
+ *
+ * <p>
+ * Every operation holds an exclusive file lock on the directory so that
+ * reading and replacing a lease is atomic across nodes. Lease expiry is
+ * compared against each node's own clock, node clocks are expected to be kept
+ * in sync to well within the lease duration.
+ *
+ * @author  Brett Ryan
+ */
+public final class FileLeaseStore implements LeaseStore {
+
+    private static final String LOCK_FILE = "store.lock";
+    private static final String LEASE_PREFIX = "lease-";
+    private static final String VALUE_PREFIX = "value-";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final Path dir;
+    private final Clock clock;
+
+    /**
+     * Creates a new {@code FileLeaseStore} instance.
+     *
+     * @param   dir
+     *          Shared directory, created if it does not exist.
+     */
+    public FileLeaseStore(Path dir) {
+        this(dir, Clock.systemUTC());
+    }
+
+    public FileLeaseStore(Path dir, Clock clock) {
+        this.dir = dir;
+        this.clock = clock;
+    }
+
+    @Override
+    public boolean tryAcquire(String name, String owner, Duration ttl) {
+        return locked(() -> {
+            Path p = file(LEASE_PREFIX, name);
+            long now = clock.millis();
+            if (Files.exists(p) && readExpiry(p) > now) {
+                return false;
+            }
+            writeLease(p, owner, now + ttl.toMillis());
+            return true;
+        });
+    }
+
+    @Override
+    public boolean renew(String name, String owner, Duration ttl) {
+        return locked(() -> {
+            Path p = file(LEASE_PREFIX, name);
+            long now = clock.millis();
+            if (!Files.exists(p) || !owner.equals(readOwner(p)) || readExpiry(p) <= now) {
+                return false;
+            }
+            writeLease(p, owner, now + ttl.toMillis());
+            return true;
+        });
+    }
+
+    @Override
+    public void release(String name, String owner) {
+        locked(() -> {
+            Path p = file(LEASE_PREFIX, name);
+            if (Files.exists(p) && owner.equals(readOwner(p))) {
+                Files.delete(p);
+            }
+            return null;
+        });
+    }
+
+    @Override
+    public Serializable get(String key) {
+        return locked(() -> readValue(file(VALUE_PREFIX, key)));
+    }
+
+    @Override
+    public Map<String, Serializable> getAll(String prefix) {
+        return locked(() -> {
+            Map<String, Serializable> res = new HashMap<>();
+            try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, VALUE_PREFIX + encode(prefix) + "*")) {
+                for (Path p : ds) {
+                    if (p.getFileName().toString().endsWith(TMP_SUFFIX)) {
+                        continue;
+                    }
+                    res.put(decode(p.getFileName().toString().substring(VALUE_PREFIX.length())), readValue(p));
+                }
+            }
+            return res;
+        });
+    }
+
+    @Override
+    public boolean putIfAbsent(String key, Serializable value) {
+        return locked(() -> {
+            Path p = file(VALUE_PREFIX, key);
+            if (Files.exists(p)) {
+                return false;
+            }
+            writeValue(p, value);
+            return true;
+        });
+    }
+
+    @Override
+    public void put(String key, Serializable value) {
+        locked(() -> {
+            writeValue(file(VALUE_PREFIX, key), value);
+            return null;
+        });
+    }
+
+    @Override
+    public void removeAll(String prefix) {
+        locked(() -> {
+            for (String type : new String[]{LEASE_PREFIX, VALUE_PREFIX}) {
+                try (DirectoryStream<Path> ds = Files.newDirectoryStream(dir, type + encode(prefix) + "*")) {
+                    for (Path p : ds) {
+                        Files.delete(p);
+                    }
+                }
+            }
+            return null;
+        });
+    }
+
+    private synchronized <T> T locked(IOSupplier<T> action) {
+        try {
+            Files.createDirectories(dir);
+            try (FileChannel ch = FileChannel.open(dir.resolve(LOCK_FILE), CREATE, WRITE);
+                 FileLock lock = ch.lock()) {
+                return action.get();
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private Path file(String type, String name) {
+        return dir.resolve(type + encode(name));
+    }
+
+    private static String encode(String name) {
+        try {
+            return URLEncoder.encode(name, "UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static String decode(String name) {
+        try {
+            return URLDecoder.decode(name, "UTF-8");
+        } catch (UnsupportedEncodingException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private String readOwner(Path p) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(p))) {
+            return in.readUTF();
+        }
+    }
+
+    private long readExpiry(Path p) throws IOException {
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(p))) {
+            in.readUTF();
+            return in.readLong();
+        }
+    }
+
+    private void writeLease(Path p, String owner, long expires) throws IOException {
+        replace(p, tmp -> {
+            try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(tmp))) {
+                out.writeUTF(owner);
+                out.writeLong(expires);
+            }
+        });
+    }
+
+    private Serializable readValue(Path p) throws IOException {
+        if (!Files.exists(p)) {
+            return null;
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(p)))) {
+            return (Serializable) in.readObject();
+        } catch (ClassNotFoundException ex) {
+            throw new IOException("Could not read " + p, ex);
+        }
+    }
+
+    private void writeValue(Path p, Serializable value) throws IOException {
+        replace(p, tmp -> {
+            try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeObject(value);
+            }
+        });
+    }
+
+    private static void replace(Path p, IOConsumer<Path> writer) throws IOException {
+        Path tmp = p.resolveSibling(p.getFileName() + TMP_SUFFIX);
+        writer.accept(tmp);
+        Files.move(tmp, p, ATOMIC_MOVE, REPLACE_EXISTING);
+    }
+
+
+    @FunctionalInterface
+    private interface IOSupplier<T> {
+
+        T get() throws IOException;
+
+    }
+
+
+    @FunctionalInterface
+    private interface IOConsumer<T> {
+
+        void accept(T value) throws IOException;
+
+    }
+
+}
@@ -0,0 +1,159 @@
+/*
+ * FileTypeRule.java    Oct 18 2026, 04:10
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+
+/**
+ * Applies a rule only to attachments of a file extension or MIME type.
+ *
+ * <p>
+ * Retention by file type is configured as a list of {@code pattern=versions}
+ * entries separated by commas or line breaks, such as
+ * {@code psd=2, zip=1, video/*=0}. A pattern containing {@code /} is matched
+ * against the MIME type, a trailing {@code /*} matching any subtype, other
+ * patterns are matched against the file extension. Matching attachments keep
+ * at most the given number of prior versions.
+ *
+ * @author  Brett Ryan
+ */
+public final class FileTypeRule implements RetentionRule {
+
+    private final String pattern;
+    private final boolean mime;
+    private final boolean wildcard;
+    private final RetentionRule rule;
+
+    /**
+     * Creates a new {@code FileTypeRule} instance.
+     *
+     * @param   pattern
+     *          File extension, MIME type, or MIME type ending {@code /*}.
+     * @param   rule
+     *          Rule applied to matching attachments.
+     */
+    public FileTypeRule(String pattern, RetentionRule rule) {
+        String p = pattern.trim().toLowerCase(Locale.ENGLISH);
+        this.mime = p.indexOf('/') >= 0;
+        this.wildcard = mime && p.endsWith("/*");
+        if (wildcard) {
+            p = p.substring(0, p.length() - 1);
+        } else if (!mime) {
+            p = p.startsWith("*.") ? p.substring(1) : p.startsWith(".") ? p : "." + p;
+        }
+        this.pattern = p;
+        this.rule = rule;
+    }
+
+    /**
+     * {@link RetentionRule.Factory} of retention by file type.
+     *
+     * @throws  IllegalArgumentException
+     *          If the retention configured is not valid.
+     */
+    public static List<RetentionRule> create(PurgeAttachmentSettings stng, LocalDateTime now) {
+        List<RetentionRule> res = new ArrayList<>();
+        String spec = stng.getFileTypeRetention();
+        if (isBlank(spec)) {
+            return res;
+        }
+        for (String entry : spec.split("[,;\\r\\n]+")) {
+            if (isBlank(entry)) {
+                continue;
+            }
+            int eq = entry.indexOf('=');
+            if (eq <= 0 || isBlank(entry.substring(0, eq))) {
+                throw new IllegalArgumentException("Expected pattern=versions: " + entry.trim());
+            }
+            int versions;
+            try {
+                versions = Integer.parseInt(entry.substring(eq + 1).trim());
+            } catch (NumberFormatException ex) {
+                throw new IllegalArgumentException("Expected a number of versions: " + entry.trim(), ex);
+            }
+            if (versions < 0) {
+                throw new IllegalArgumentException("Versions may not be negative: " + entry.trim());
+            }
+            res.add(new FileTypeRule(entry.substring(0, eq), new RevisionCountRule(versions)));
+        }
+        return res;
+    }
+
+    /**
+     * @return  {@code true} if the retention by file type of the given
+     *          settings may be compiled.
+     */
+    public static boolean isValid(PurgeAttachmentSettings stng) {
+        try {
+            create(stng, LocalDateTime.now());
+            return true;
+        } catch (IllegalArgumentException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * @return  fewest prior versions kept by any file type, or
+     *          {@code Integer.MAX_VALUE} where none are configured.
+     */
+    public static int getMinRevisions(PurgeAttachmentSettings stng) {
+        int res = Integer.MAX_VALUE;
+        String spec = stng.getFileTypeRetention();
+        if (!isBlank(spec)) {
+            for (String entry : spec.split("[,;\\r\\n]+")) {
+                int eq = entry.indexOf('=');
+                if (eq > 0) {
+                    try {
+                        res = Math.min(res, Integer.parseInt(entry.substring(eq + 1).trim()));
+                    } catch (NumberFormatException ex) {
+                        // Invalid entries are rejected when saved.
+                    }
+                }
+            }
+        }
+        return res;
+    }
+
+    @Override
+    public boolean appliesTo(String fileName, String contentType) {
+        if (mime) {
+            if (contentType == null) {
+                return false;
+            }
+            if (wildcard) {
+                return contentType.regionMatches(true, 0, pattern, 0, pattern.length());
+            }
+            return contentType.regionMatches(true, 0, pattern, 0, pattern.length())
+                   && (contentType.length() == pattern.length() || contentType.charAt(pattern.length()) == ';');
+        }
+        return fileName != null
+               && fileName.regionMatches(true, fileName.length() - pattern.length(), pattern, 0, pattern.length());
+    }
+
+    @Override
+    public boolean isCascading() {
+        return rule.isCascading();
+    }
+
+    @Override
+    public boolean purges(PriorVersions versions, int index, long retainedBytes) {
+        return rule.purges(versions, index, retainedBytes);
+    }
+
+    @Override
+    public String toString() {
+        return "FileTypeRule{" + "pattern=" + pattern + ", rule=" + rule + '}';
+    }
+
+}
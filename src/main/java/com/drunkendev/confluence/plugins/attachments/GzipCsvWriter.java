@@ -0,0 +1,114 @@
+/*
+ * GzipCsvWriter.java    Oct 17 2026, 23:40
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
+
+
+/**
+ * Writes rows of comma separated values to a gzip compressed file as they are
+ * given.
+ *
+ * <p>
+ * Values are quoted only where they contain a comma, quote or line break as
+ * described by RFC 4180. Lines end with CRLF.
+ *
+ * <p>
+ * Text values starting with {@code =}, {@code +}, {@code -}, {@code @}, tab or
+ * carriage return are quoted with a leading {@code '} so spreadsheets opening
+ * the file show them as text rather than evaluating them as formulas.
+ *
+ * @author  Brett Ryan
+ */
+public final class GzipCsvWriter implements Closeable {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Writer out;
+    private long rows;
+
+    /**
+     * Creates a new {@code GzipCsvWriter} instance replacing the given file.
+     */
+    public GzipCsvWriter(Path file) throws IOException {
+        this.out = new BufferedWriter(new OutputStreamWriter(
+                new GZIPOutputStream(Files.newOutputStream(file), BUFFER_SIZE),
+                StandardCharsets.UTF_8), BUFFER_SIZE);
+    }
+
+    /**
+     * Write a row, {@code null} values are written empty.
+     */
+    public void writeRow(Object... values) throws IOException {
+        for (int i = 0; i < values.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            if (values[i] instanceof CharSequence) {
+                write(values[i].toString(), isFormula((CharSequence) values[i]));
+            } else if (values[i] != null) {
+                write(values[i].toString(), false);
+            }
+        }
+        out.write("\r\n");
+        rows++;
+    }
+
+    private static boolean isFormula(CharSequence value) {
+        if (value.length() == 0) {
+            return false;
+        }
+        char c = value.charAt(0);
+        return c == '=' || c == '+' || c == '-' || c == '@' || c == '\t' || c == '\r';
+    }
+
+    private void write(String value, boolean formula) throws IOException {
+        boolean quote = formula;
+        for (int i = 0; i < value.length() && !quote; i++) {
+            char c = value.charAt(i);
+            quote = c == ',' || c == '"' || c == '\r' || c == '\n';
+        }
+        if (!quote) {
+            out.write(value);
+            return;
+        }
+        out.write('"');
+        if (formula) {
+            out.write('\'');
+        }
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"') {
+                out.write('"');
+            }
+            out.write(c);
+        }
+        out.write('"');
+    }
+
+    /**
+     * @return  number of rows written.
+     */
+    public long getRows() {
+        return rows;
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * InFlightAttachments.java    Oct 18 2026, 06:10
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+
+
+/**
+ * Attachments evaluated by a run whose deletions have not yet committed.
+ *
+ * <p>
+ * A checkpoint records these as attachments to evaluate again on resume
+ * rather than holding back the cursor of their partition, so that
+ * attachments after them whose report entries are already journaled are not
+ * evaluated twice. What was counted when evaluating them is subtracted from
+ * the counters saved, as they are counted again when evaluated on resume.
+ *
+ * @author  Brett Ryan
+ */
+public final class InFlightAttachments {
+
+    private final Map<ScanPartition, Map<Long, Held>> held = new ConcurrentHashMap<>();
+
+    /**
+     * Hold an attachment queued for deletion.
+     *
+     * @param   priorVersions
+     *          Prior versions counted when the attachment was evaluated.
+     */
+    public void add(ScanPartition partition, long attachmentId, int priorVersions) {
+        held.computeIfAbsent(partition, k -> new ConcurrentHashMap<>()).put(attachmentId, new Held(priorVersions));
+    }
+
+    /**
+     * Record versions of a held attachment counted as available for deletion
+     * as its deletion was discarded, the attachment remains held.
+     */
+    public void discarded(ScanPartition partition, long attachmentId, int versions) {
+        Held h = held.getOrDefault(partition, Collections.emptyMap()).get(attachmentId);
+        if (h != null) {
+            h.discardedVersions += versions;
+        }
+    }
+
+    /**
+     * Release an attachment whose deletions have committed.
+     */
+    public void remove(ScanPartition partition, long attachmentId) {
+        Map<Long, Held> ids = held.get(partition);
+        if (ids != null) {
+            ids.remove(attachmentId);
+        }
+    }
+
+    /**
+     * @return  {@code true} if no attachment of the partition is held.
+     */
+    public boolean isEmpty(ScanPartition partition) {
+        Map<Long, Held> ids = held.get(partition);
+        return ids == null || ids.isEmpty();
+    }
+
+    /**
+     * @return  identifiers of held attachments by partition, partitions
+     *          holding none are omitted.
+     */
+    public Map<ScanPartition, Set<Long>> getIds() {
+        Map<ScanPartition, Set<Long>> res = new HashMap<>();
+        held.forEach((p, ids) -> {
+            if (!ids.isEmpty()) {
+                res.put(p, new TreeSet<>(ids.keySet()));
+            }
+        });
+        return res;
+    }
+
+    /**
+     * @return  number of attachments held.
+     */
+    public int size() {
+        return held.values().stream().mapToInt(Map::size).sum();
+    }
+
+    /**
+     * @return  prior versions counted for attachments held.
+     */
+    public long getPriorVersions() {
+        return held.values().stream()
+                .flatMap(ids -> ids.values().stream())
+                .mapToLong(h -> h.priorVersions)
+                .sum();
+    }
+
+    /**
+     * @return  versions counted as available for deletion by discarded
+     *          deletions of attachments held.
+     */
+    public long getDiscardedVersions() {
+        return held.values().stream()
+                .flatMap(ids -> ids.values().stream())
+                .mapToLong(h -> h.discardedVersions)
+                .sum();
+    }
+
+    private static final class Held {
+
+        private final int priorVersions;
+        private volatile int discardedVersions;
+
+        private Held(int priorVersions) {
+            this.priorVersions = priorVersions;
+        }
+
+    }
+
+}
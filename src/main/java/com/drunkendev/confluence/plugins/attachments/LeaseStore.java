@@ -0,0 +1,80 @@
+/*
+ * LeaseStore.java    Oct 17 2026, 19:20
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.Map;
+
+
+/**
+ * Storage shared by every node taking part in a purge run, holding expiring
+ * leases and the values nodes exchange.
+ *
+ * <p>
+ * Each method is atomic with respect to every other node using the same
+ * store. A lease which is not renewed before it expires may be acquired by
+ * any other owner.
+ *
+ * @author  Brett Ryan
+ * @see     ShardCoordinator
+ */
+public interface LeaseStore {
+
+    /**
+     * Acquire a lease which is free or has expired.
+     *
+     * @param   name
+     *          Name of the lease.
+     * @param   owner
+     *          Owner acquiring the lease.
+     * @param   ttl
+     *          Time until the lease expires unless renewed.
+     * @return  {@code true} if acquired, {@code false} if held by any owner,
+     *          including the given one.
+     */
+    boolean tryAcquire(String name, String owner, Duration ttl);
+
+    /**
+     * Extend a lease held by the given owner which has not expired.
+     *
+     * @return  {@code false} if the lease has expired, even if no other owner
+     *          has acquired it since, or has been lost to another owner.
+     */
+    boolean renew(String name, String owner, Duration ttl);
+
+    /**
+     * Release a lease if held by the given owner.
+     */
+    void release(String name, String owner);
+
+    /**
+     * @return  the stored value, or {@code null} if there is none.
+     */
+    Serializable get(String key);
+
+    /**
+     * @return  all values whose key starts with the given prefix.
+     */
+    Map<String, Serializable> getAll(String prefix);
+
+    /**
+     * Store a value unless one is already stored.
+     *
+     * @return  {@code true} if the value was stored.
+     */
+    boolean putIfAbsent(String key, Serializable value);
+
+    void put(String key, Serializable value);
+
+    /**
+     * Remove all values and leases whose name starts with the given prefix.
+     */
+    void removeAll(String prefix);
+
+}
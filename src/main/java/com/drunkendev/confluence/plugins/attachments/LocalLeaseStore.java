@@ -0,0 +1,119 @@
+/*
+ * LocalLeaseStore.java    Oct 17 2026, 19:30
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.io.Serializable;
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+
+
+/**
+ * Lease store held in memory, shared by nodes running within a single JVM.
+ *
+ * <p>
+ * Allows several in-process coordinators to act as separate nodes, with a
+ * clock which may be controlled to expire leases.
+ *
+ * @author  Brett Ryan
+ */
+public final class LocalLeaseStore implements LeaseStore {
+
+    private final Clock clock;
+    private final Map<String, Lease> leases = new HashMap<>();
+    private final Map<String, Serializable> values = new HashMap<>();
+
+    /**
+     * Creates a new {@code LocalLeaseStore} instance using the system clock.
+     */
+    public LocalLeaseStore() {
+        this(Clock.systemUTC());
+    }
+
+    public LocalLeaseStore(Clock clock) {
+        this.clock = clock;
+    }
+
+    @Override
+    public synchronized boolean tryAcquire(String name, String owner, Duration ttl) {
+        Instant now = clock.instant();
+        Lease cur = leases.get(name);
+        if (cur != null && cur.expires.isAfter(now)) {
+            return false;
+        }
+        leases.put(name, new Lease(owner, now.plus(ttl)));
+        return true;
+    }
+
+    @Override
+    public synchronized boolean renew(String name, String owner, Duration ttl) {
+        Instant now = clock.instant();
+        Lease cur = leases.get(name);
+        if (cur == null || !cur.owner.equals(owner) || !cur.expires.isAfter(now)) {
+            return false;
+        }
+        leases.put(name, new Lease(owner, now.plus(ttl)));
+        return true;
+    }
+
+    @Override
+    public synchronized void release(String name, String owner) {
+        Lease cur = leases.get(name);
+        if (cur != null && cur.owner.equals(owner)) {
+            leases.remove(name);
+        }
+    }
+
+    @Override
+    public synchronized Serializable get(String key) {
+        return values.get(key);
+    }
+
+    @Override
+    public synchronized Map<String, Serializable> getAll(String prefix) {
+        Map<String, Serializable> res = new HashMap<>();
+        values.forEach((k, v) -> {
+            if (k.startsWith(prefix)) {
+                res.put(k, v);
+            }
+        });
+        return res;
+    }
+
+    @Override
+    public synchronized boolean putIfAbsent(String key, Serializable value) {
+        return values.putIfAbsent(key, value) == null;
+    }
+
+    @Override
+    public synchronized void put(String key, Serializable value) {
+        values.put(key, value);
+    }
+
+    @Override
+    public synchronized void removeAll(String prefix) {
+        leases.keySet().removeIf(k -> k.startsWith(prefix));
+        values.keySet().removeIf(k -> k.startsWith(prefix));
+    }
+
+
+    private static final class Lease {
+
+        private final String owner;
+        private final Instant expires;
+
+        private Lease(String owner, Instant expires) {
+            this.owner = owner;
+            this.expires = expires;
+        }
+
+    }
+
+}
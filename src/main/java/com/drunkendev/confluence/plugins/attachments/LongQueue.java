@@ -0,0 +1,254 @@
+/*
+ * LongQueue.java    Oct 17 2026, 10:05
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.NoSuchElementException;
+
+import static java.nio.file.StandardOpenOption.DELETE_ON_CLOSE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+
+/**
+ * FIFO queue of primitive {@code long} values stored in fixed size chunks.
+ *
+ * <p>
+ * Each queued value costs 8 bytes plus a small per-chunk overhead. Where a
+ * spill directory is given and more than {@code maxMemoryChunks} full chunks
+ * are queued, further full chunks are written to a temporary file and read
+ * back in order as the queue drains.
+ *
+ * <p>
+ * This class is not thread safe.
+ *
+ * @author  Brett Ryan
+ */
+public final class LongQueue implements Closeable {
+
+    public static final int DEFAULT_CHUNK_SIZE = 8192;
+
+    private static final int ARRAY_HEADER_BYTES = 16;
+
+    private final int chunkSize;
+    private final int maxMemoryChunks;
+    private final Path spillDir;
+
+    private final ArrayDeque<long[]> chunks = new ArrayDeque<>();
+    private long[] head;
+    private int headPos;
+    private int headLimit;
+    private long[] tail;
+    private int tailPos;
+    private long[] free;
+
+    private FileChannel spill;
+    private ByteBuffer spillBuffer;
+    private long spillReadPos;
+    private long spillWritePos;
+    private long spilledChunks;
+
+    private long size;
+
+    /**
+     * Creates a new in-memory {@code LongQueue} instance.
+     */
+    public LongQueue() {
+        this(DEFAULT_CHUNK_SIZE, Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * Creates a new {@code LongQueue} instance.
+     *
+     * @param   chunkSize
+     *          Number of values held by each chunk.
+     * @param   maxMemoryChunks
+     *          Number of full chunks to hold in memory before spilling.
+     * @param   spillDir
+     *          Directory to create the spill file in, or {@code null} to never
+     *          spill.
+     */
+    public LongQueue(int chunkSize, int maxMemoryChunks, Path spillDir) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("chunkSize must be positive.");
+        }
+        this.chunkSize = chunkSize;
+        this.maxMemoryChunks = Math.max(1, maxMemoryChunks);
+        this.spillDir = spillDir;
+    }
+
+    public long size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public void add(long value) {
+        if (tail == null) {
+            tail = newChunk();
+            tailPos = 0;
+        }
+        tail[tailPos++] = value;
+        size++;
+        if (tailPos == chunkSize) {
+            pushFull(tail);
+            tail = null;
+        }
+    }
+
+    public void addAll(Iterable<Long> values) {
+        for (Long v : values) {
+            add(v);
+        }
+    }
+
+    /**
+     * Retrieve and remove the head of this queue.
+     *
+     * @throws  NoSuchElementException
+     *          If the queue is empty.
+     */
+    public long poll() {
+        if (size == 0) {
+            throw new NoSuchElementException();
+        }
+        if (head == null || headPos == headLimit) {
+            nextHead();
+        }
+        size--;
+        return head[headPos++];
+    }
+
+    public void clear() {
+        chunks.clear();
+        head = tail = null;
+        headPos = headLimit = tailPos = 0;
+        spillReadPos = spillWritePos = spilledChunks = 0;
+        size = 0;
+    }
+
+    /**
+     * Approximate heap used by values currently held in memory.
+     */
+    public long memoryUsage() {
+        long arrays = chunks.size() + (head == null ? 0 : 1) + (tail == null ? 0 : 1) + (free == null ? 0 : 1);
+        return arrays * (ARRAY_HEADER_BYTES + 8L * chunkSize);
+    }
+
+    /**
+     * Number of values currently held in the spill file.
+     */
+    public long spilledSize() {
+        return spilledChunks * chunkSize;
+    }
+
+    @Override
+    public void close() {
+        clear();
+        free = null;
+        if (spill != null) {
+            try {
+                spill.close();
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            } finally {
+                spill = null;
+                spillBuffer = null;
+            }
+        }
+    }
+
+    private long[] newChunk() {
+        if (free != null) {
+            long[] res = free;
+            free = null;
+            return res;
+        }
+        return new long[chunkSize];
+    }
+
+    private void pushFull(long[] chunk) {
+        if (spillDir != null && (spilledChunks > 0 || chunks.size() >= maxMemoryChunks)) {
+            writeSpill(chunk);
+            free = chunk;
+        } else {
+            chunks.add(chunk);
+        }
+    }
+
+    private void nextHead() {
+        if (head != null) {
+            free = head;
+        }
+        if (!chunks.isEmpty()) {
+            head = chunks.poll();
+            headLimit = chunkSize;
+        } else if (spilledChunks > 0) {
+            head = readSpill(newChunk());
+            headLimit = chunkSize;
+        } else {
+            head = tail;
+            headLimit = tailPos;
+            tail = null;
+        }
+        headPos = 0;
+    }
+
+    private void writeSpill(long[] chunk) {
+        try {
+            if (spill == null) {
+                Path file = Files.createTempFile(spillDir, "purge-attachments-", ".ids");
+                spill = FileChannel.open(file, READ, WRITE, DELETE_ON_CLOSE);
+                spillBuffer = ByteBuffer.allocateDirect(chunkSize * 8);
+            }
+            spillBuffer.clear();
+            spillBuffer.asLongBuffer().put(chunk);
+            spillBuffer.limit(chunkSize * 8);
+            while (spillBuffer.hasRemaining()) {
+                spillWritePos += spill.write(spillBuffer, spillWritePos);
+            }
+            spilledChunks++;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private long[] readSpill(long[] chunk) {
+        try {
+            spillBuffer.clear();
+            while (spillBuffer.hasRemaining()) {
+                int n = spill.read(spillBuffer, spillReadPos);
+                if (n < 0) {
+                    throw new IOException("Unexpected end of spill file.");
+                }
+                spillReadPos += n;
+            }
+            spillBuffer.flip();
+            LongBuffer lb = spillBuffer.asLongBuffer();
+            lb.get(chunk);
+            if (--spilledChunks == 0) {
+                spillReadPos = spillWritePos = 0;
+                spill.truncate(0);
+            }
+            return chunk;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+}
@@ -0,0 +1,291 @@
+/*
+ * MailLogAggregator.java    Oct 18 2026, 00:30
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+
+/**
+ * Collects report entries per recipient from any number of workers within a
+ * fixed memory budget.
+ *
+ * <p>
+ * Entries are held in memory until their estimated size exceeds the budget,
+ * they are then sorted and written to disk as a run per recipient. Reading
+ * the entries of a recipient merges its runs with those still in memory in
+ * {@link MailLogEntry#COMP_SPACE_TITLE} order. Details of each space are held
+ * once however many entries refer to them.
+ *
+ * <p>
+ * Runs are removed when the aggregator is closed.
+ *
+ * @author  Brett Ryan
+ */
+public final class MailLogAggregator implements Closeable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MailLogAggregator.class);
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Path spillRoot;
+    private final long memoryBudget;
+    private final Map<MailLogEntry.SpaceDetail, MailLogEntry.SpaceDetail> spaces = new HashMap<>();
+    private final Map<String, List<MailLogEntry>> entries = new HashMap<>();
+    private final Map<String, List<Path>> runs = new HashMap<>();
+    private long memoryUsed;
+    private Path spillDir;
+    private int spills;
+
+    /**
+     * Creates a new {@code MailLogAggregator} instance.
+     *
+     * @param   spillRoot
+     *          Directory in which a directory for runs is created when first
+     *          needed.
+     * @param   memoryBudget
+     *          Estimated bytes of entries held in memory before they are
+     *          written to disk.
+     */
+    public MailLogAggregator(Path spillRoot, long memoryBudget) {
+        this.spillRoot = spillRoot;
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * @return  the shared instance of the given space details.
+     */
+    public synchronized MailLogEntry.SpaceDetail intern(MailLogEntry.SpaceDetail space) {
+        MailLogEntry.SpaceDetail res = spaces.putIfAbsent(space, space);
+        return res == null ? space : res;
+    }
+
+    /**
+     * @return  the shared details of a space.
+     */
+    public MailLogEntry.SpaceDetail intern(String key, String name, String urlPath) {
+        return intern(new MailLogEntry.SpaceDetail(key, name, urlPath));
+    }
+
+    /**
+     * Add an entry for a recipient, writing entries held to disk if the
+     * memory budget is exceeded.
+     */
+    public synchronized void add(String emailAddress, MailLogEntry entry) {
+        entries.computeIfAbsent(emailAddress, k -> new ArrayList<>()).add(entry.withSpace(intern(entry.getSpace())));
+        memoryUsed += entry.estimateSize();
+        if (memoryUsed > memoryBudget) {
+            spill();
+        }
+    }
+
+    /**
+     * @return  recipients with at least one entry.
+     */
+    public synchronized Set<String> getRecipients() {
+        Set<String> res = new TreeSet<>(entries.keySet());
+        res.addAll(runs.keySet());
+        return res;
+    }
+
+    /**
+     * Pass every entry of a recipient in {@link MailLogEntry#COMP_SPACE_TITLE}
+     * order.
+     *
+     * @throws  UncheckedIOException
+     *          If a run could not be read.
+     */
+    public synchronized void forEach(String emailAddress, Consumer<MailLogEntry> action) {
+        List<MailLogEntry> held = entries.getOrDefault(emailAddress, Collections.emptyList());
+        Collections.sort(held, MailLogEntry.COMP_SPACE_TITLE);
+        List<Path> files = runs.getOrDefault(emailAddress, Collections.emptyList());
+
+        List<RunReader> readers = new ArrayList<>(files.size());
+        try {
+            PriorityQueue<RunReader> queue = new PriorityQueue<>(
+                    files.size() + 1, (a, b) -> MailLogEntry.COMP_SPACE_TITLE.compare(a.head, b.head));
+            for (Path f : files) {
+                RunReader r = new RunReader(f);
+                readers.add(r);
+                if (r.next()) {
+                    queue.add(r);
+                }
+            }
+            int i = 0;
+            while (!queue.isEmpty() || i < held.size()) {
+                if (queue.isEmpty() || i < held.size()
+                                       && MailLogEntry.COMP_SPACE_TITLE.compare(held.get(i), queue.peek().head) <= 0) {
+                    action.accept(held.get(i++));
+                } else {
+                    RunReader r = queue.poll();
+                    action.accept(r.head);
+                    if (r.next()) {
+                        queue.add(r);
+                    }
+                }
+            }
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        } finally {
+            for (RunReader r : readers) {
+                r.close();
+            }
+        }
+    }
+
+    /**
+     * Write every entry to a single file which may be read by
+     * {@link #addAll(Path)} of another aggregator.
+     */
+    public synchronized void writeTo(Path file) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), BUFFER_SIZE))) {
+            for (String r : getRecipients()) {
+                try {
+                    forEach(r, e -> {
+                        try {
+                            out.writeUTF(r);
+                            e.write(out);
+                        } catch (IOException ex) {
+                            throw new UncheckedIOException(ex);
+                        }
+                    });
+                } catch (UncheckedIOException ex) {
+                    throw ex.getCause();
+                }
+            }
+        }
+        Files.move(tmp, file, ATOMIC_MOVE, REPLACE_EXISTING);
+    }
+
+    /**
+     * Add every entry of a file written by {@link #writeTo(Path)}.
+     */
+    public void addAll(Path file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE))) {
+            while (true) {
+                String r;
+                try {
+                    r = in.readUTF();
+                } catch (EOFException ex) {
+                    break;
+                }
+                add(r, MailLogEntry.read(in, this::intern));
+            }
+        }
+    }
+
+    /**
+     * Sort entries held in memory and write them as a run per recipient.
+     */
+    private void spill() {
+        try {
+            if (spillDir == null) {
+                Files.createDirectories(spillRoot);
+                spillDir = Files.createTempDirectory(spillRoot, "entries-");
+            }
+            for (Map.Entry<String, List<MailLogEntry>> e : entries.entrySet()) {
+                List<MailLogEntry> list = e.getValue();
+                Collections.sort(list, MailLogEntry.COMP_SPACE_TITLE);
+                Path file = spillDir.resolve("run-" + spills++ + ".bin");
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file), BUFFER_SIZE))) {
+                    for (MailLogEntry me : list) {
+                        me.write(out);
+                    }
+                }
+                runs.computeIfAbsent(e.getKey(), k -> new ArrayList<>()).add(file);
+            }
+            LOG.debug("Wrote {} bytes of report entries to {}.", memoryUsed, spillDir);
+            entries.clear();
+            memoryUsed = 0;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Remove all runs written to disk, entries are no longer available.
+     */
+    @Override
+    public synchronized void close() {
+        entries.clear();
+        runs.clear();
+        memoryUsed = 0;
+        if (spillDir != null) {
+            try (Stream<Path> files = Files.list(spillDir)) {
+                files.forEach(f -> {
+                    try {
+                        Files.deleteIfExists(f);
+                    } catch (IOException ex) {
+                        LOG.debug("Could not remove {}: {}", f, ex.getMessage());
+                    }
+                });
+                Files.deleteIfExists(spillDir);
+            } catch (IOException ex) {
+                LOG.warn("Could not remove report entries {}: {}", spillDir, ex.getMessage());
+            }
+            spillDir = null;
+        }
+    }
+
+    /**
+     * Reads a run one entry at a time.
+     */
+    private final class RunReader {
+
+        private final DataInputStream in;
+        private MailLogEntry head;
+
+        private RunReader(Path file) throws IOException {
+            this.in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE));
+        }
+
+        private boolean next() throws IOException {
+            try {
+                head = MailLogEntry.read(in, MailLogAggregator.this::intern);
+                return true;
+            } catch (EOFException ex) {
+                head = null;
+                return false;
+            }
+        }
+
+        private void close() {
+            try {
+                in.close();
+            } catch (IOException ex) {
+                LOG.debug("Could not close run: {}", ex.getMessage());
+            }
+        }
+
+    }
+
+}
@@ -0,0 +1,319 @@
+/*
+ * MailLogEntry.java    Oct 18 2026, 00:10
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import com.atlassian.core.util.FileSize;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.UnaryOperator;
+
+import static java.util.Comparator.comparing;
+import static java.util.Comparator.naturalOrder;
+import static java.util.Comparator.nullsFirst;
+
+
+/**
+ * Reports the versions of one attachment purged, or which would be purged in
+ * report-only mode.
+ *
+ * <p>
+ * Details of the space are held by a shared {@link SpaceDetail} and deleted
+ * versions as inclusive ranges so that entries of large runs stay small.
+ *
+ * @author  Brett Ryan
+ */
+public final class MailLogEntry implements Serializable {
+
+    /**
+     * Order entries are listed in reports, by space name and then title.
+     */
+    public static final Comparator<MailLogEntry> COMP_SPACE_TITLE
+            = comparing((MailLogEntry n) -> n.getSpaceName(), nullsFirst(naturalOrder()))
+                    .thenComparing((MailLogEntry n) -> n.getDisplayTitle(), nullsFirst(naturalOrder()));
+
+    private static final long serialVersionUID = 2L;
+
+    private final SpaceDetail space;
+    private final String displayTitle;
+    private final String attachmentsUrlPath;
+    private final int version;
+    private final int[] deletedRanges;
+    private final boolean reportOnly;
+    private final boolean globalSettings;
+    private final long spaceSaved;
+
+    private MailLogEntry(SpaceDetail space,
+                         String displayTitle,
+                         String attachmentsUrlPath,
+                         int version,
+                         int[] deletedRanges,
+                         boolean reportOnly,
+                         boolean globalSettings,
+                         long spaceSaved) {
+        this.space = space;
+        this.displayTitle = displayTitle;
+        this.attachmentsUrlPath = attachmentsUrlPath;
+        this.version = version;
+        this.deletedRanges = deletedRanges;
+        this.reportOnly = reportOnly;
+        this.globalSettings = globalSettings;
+        this.spaceSaved = spaceSaved;
+    }
+
+    /**
+     * Create an entry.
+     *
+     * @param   deletedVersions
+     *          Versions deleted in ascending order.
+     */
+    public static MailLogEntry of(SpaceDetail space,
+                                  String displayTitle,
+                                  String attachmentsUrlPath,
+                                  int version,
+                                  int[] deletedVersions,
+                                  boolean reportOnly,
+                                  boolean globalSettings,
+                                  long spaceSaved) {
+        return new MailLogEntry(space, displayTitle, attachmentsUrlPath, version, toRanges(deletedVersions),
+                                reportOnly, globalSettings, spaceSaved);
+    }
+
+    private static int[] toRanges(int[] versions) {
+        int[] res = new int[versions.length * 2];
+        int n = 0;
+        for (int v : versions) {
+            if (n > 0 && res[n - 1] + 1 == v) {
+                res[n - 1] = v;
+            } else {
+                res[n++] = v;
+                res[n++] = v;
+            }
+        }
+        return Arrays.copyOf(res, n);
+    }
+
+    /**
+     * @return  this entry with its versions reported as still to delete.
+     */
+    public MailLogEntry asReportOnly() {
+        return new MailLogEntry(space, displayTitle, attachmentsUrlPath, version, deletedRanges,
+                                true, globalSettings, spaceSaved);
+    }
+
+    /**
+     * @return  this entry with its space replaced by the given instance.
+     */
+    MailLogEntry withSpace(SpaceDetail space) {
+        return space == this.space ? this
+               : new MailLogEntry(space, displayTitle, attachmentsUrlPath, version, deletedRanges,
+                                  reportOnly, globalSettings, spaceSaved);
+    }
+
+    public SpaceDetail getSpace() {
+        return space;
+    }
+
+    public String getSpaceKey() {
+        return space.getKey();
+    }
+
+    public String getSpaceName() {
+        return space.getName();
+    }
+
+    public String getSpaceUrlPath() {
+        return space.getUrlPath();
+    }
+
+    public String getDisplayTitle() {
+        return displayTitle;
+    }
+
+    public String getAttachmentsUrlPath() {
+        return attachmentsUrlPath;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @return  versions deleted in ascending order.
+     */
+    public List<Integer> getDeletedVersions() {
+        List<Integer> res = new ArrayList<>();
+        for (int i = 0; i < deletedRanges.length; i += 2) {
+            for (int v = deletedRanges[i]; v <= deletedRanges[i + 1]; v++) {
+                res.add(v);
+            }
+        }
+        return res;
+    }
+
+    public boolean isReportOnly() {
+        return reportOnly;
+    }
+
+    public boolean isGlobalSettings() {
+        return globalSettings;
+    }
+
+    public long getSpaceSaved() {
+        return spaceSaved;
+    }
+
+    public String getSpaceSavedPretty() {
+        return FileSize.format(spaceSaved);
+    }
+
+    /**
+     * @return  deleted versions with consecutive versions collapsed, such as
+     *          {@code 1, [3-7]}.
+     */
+    public String getDeletedVersionsRanged() {
+        StringBuilder res = new StringBuilder();
+        for (int i = 0; i < deletedRanges.length; i += 2) {
+            if (res.length() > 0) {
+                res.append(", ");
+            }
+            if (deletedRanges[i] == deletedRanges[i + 1]) {
+                res.append(deletedRanges[i]);
+            } else {
+                res.append("[").append(deletedRanges[i]).append("-").append(deletedRanges[i + 1]).append("]");
+            }
+        }
+        return res.toString();
+    }
+
+    /**
+     * @return  approximate heap bytes held by this entry, not counting its
+     *          shared space.
+     */
+    long estimateSize() {
+        return 96 + 2L * (length(displayTitle) + length(attachmentsUrlPath)) + 4L * deletedRanges.length;
+    }
+
+    private static int length(String s) {
+        return s == null ? 0 : s.length();
+    }
+
+    /**
+     * Write this entry for {@link #read(DataInput, UnaryOperator)}.
+     */
+    void write(DataOutput out) throws IOException {
+        writeString(out, space.getKey());
+        writeString(out, space.getName());
+        writeString(out, space.getUrlPath());
+        writeString(out, displayTitle);
+        writeString(out, attachmentsUrlPath);
+        out.writeInt(version);
+        out.writeInt(deletedRanges.length);
+        for (int v : deletedRanges) {
+            out.writeInt(v);
+        }
+        out.writeBoolean(reportOnly);
+        out.writeBoolean(globalSettings);
+        out.writeLong(spaceSaved);
+    }
+
+    /**
+     * Read an entry written by {@link #write(DataOutput)}.
+     *
+     * @param   intern
+     *          Returns the shared instance of a space read.
+     */
+    static MailLogEntry read(DataInput in, UnaryOperator<SpaceDetail> intern) throws IOException {
+        SpaceDetail space = intern.apply(new SpaceDetail(readString(in), readString(in), readString(in)));
+        String displayTitle = readString(in);
+        String attachmentsUrlPath = readString(in);
+        int version = in.readInt();
+        int[] ranges = new int[in.readInt()];
+        for (int i = 0; i < ranges.length; i++) {
+            ranges[i] = in.readInt();
+        }
+        return new MailLogEntry(space, displayTitle, attachmentsUrlPath, version, ranges,
+                                in.readBoolean(), in.readBoolean(), in.readLong());
+    }
+
+    private static void writeString(DataOutput out, String value) throws IOException {
+        out.writeBoolean(value != null);
+        if (value != null) {
+            out.writeUTF(value);
+        }
+    }
+
+    private static String readString(DataInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+
+    /**
+     * Details of the space an entry belongs to, held once per space.
+     */
+    public static final class SpaceDetail implements Serializable {
+
+        private static final long serialVersionUID = 1L;
+
+        private final String key;
+        private final String name;
+        private final String urlPath;
+
+        /**
+         * Creates a new {@code SpaceDetail} instance.
+         */
+        public SpaceDetail(String key, String name, String urlPath) {
+            this.key = key;
+            this.name = name;
+            this.urlPath = urlPath;
+        }
+
+        public String getKey() {
+            return key;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getUrlPath() {
+            return urlPath;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(key, name, urlPath);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj) {
+                return true;
+            }
+            if (!(obj instanceof SpaceDetail)) {
+                return false;
+            }
+            SpaceDetail other = (SpaceDetail) obj;
+            return Objects.equals(key, other.key)
+                   && Objects.equals(name, other.name)
+                   && Objects.equals(urlPath, other.urlPath);
+        }
+
+        @Override
+        public String toString() {
+            return "SpaceDetail{" + "key=" + key + ", name=" + name + ", urlPath=" + urlPath + '}';
+        }
+
+    }
+
+}
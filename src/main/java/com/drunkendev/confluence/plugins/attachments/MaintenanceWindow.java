@@ -0,0 +1,110 @@
+/*
+ * MaintenanceWindow.java    Oct 17 2026, 21:40
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+
+import static org.apache.commons.lang3.StringUtils.isBlank;
+
+
+/**
+ * Daily period of local time during which purging may run.
+ *
+ * <p>
+ * A window whose end is before its start spans midnight, such as
+ * {@code 22:00 - 05:00}. A window whose start and end are equal is open all
+ * day.
+ *
+ * @author  Brett Ryan
+ */
+public final class MaintenanceWindow {
+
+    private static final DateTimeFormatter FORMAT = DateTimeFormatter.ofPattern("H:mm");
+
+    private final LocalTime start;
+    private final LocalTime end;
+
+    /**
+     * Creates a new {@code MaintenanceWindow} instance.
+     *
+     * @param   start
+     *          Time of day the window opens.
+     * @param   end
+     *          Time of day the window closes.
+     */
+    public MaintenanceWindow(LocalTime start, LocalTime end) {
+        this.start = start;
+        this.end = end;
+    }
+
+    /**
+     * Create the window given in the system settings.
+     *
+     * @return  the window, or {@code null} where none is configured.
+     * @throws  DateTimeParseException
+     *          If a time is not of the form {@code HH:mm}.
+     */
+    public static MaintenanceWindow of(PurgeAttachmentSettings settings) {
+        if (isBlank(settings.getWindowStart()) || isBlank(settings.getWindowEnd())) {
+            return null;
+        }
+        return new MaintenanceWindow(LocalTime.parse(settings.getWindowStart().trim(), FORMAT),
+                                     LocalTime.parse(settings.getWindowEnd().trim(), FORMAT));
+    }
+
+    /**
+     * @return  {@code true} if the value is blank or a time of the form
+     *          {@code HH:mm}.
+     */
+    public static boolean isValid(String time) {
+        if (isBlank(time)) {
+            return true;
+        }
+        try {
+            LocalTime.parse(time.trim(), FORMAT);
+            return true;
+        } catch (DateTimeParseException ex) {
+            return false;
+        }
+    }
+
+    /**
+     * @return  {@code true} if the window is open at the given time.
+     */
+    public boolean isOpen(LocalDateTime when) {
+        LocalTime t = when.toLocalTime();
+        if (start.equals(end)) {
+            return true;
+        }
+        if (start.isBefore(end)) {
+            return !t.isBefore(start) && t.isBefore(end);
+        }
+        return !t.isBefore(start) || t.isBefore(end);
+    }
+
+    /**
+     * @return  the time the window open at the given time closes, or
+     *          {@code null} if it is open all day.
+     */
+    public LocalDateTime getClose(LocalDateTime when) {
+        if (start.equals(end)) {
+            return null;
+        }
+        LocalDateTime res = when.toLocalDate().atTime(end);
+        return res.isAfter(when) ? res : res.plusDays(1);
+    }
+
+    @Override
+    public String toString() {
+        return start + " - " + end;
+    }
+
+}
@@ -0,0 +1,104 @@
+/*
+ * PhaseTimer.java    Oct 18 2026, 01:20
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.time.Duration;
+import java.util.function.Supplier;
+
+
+/**
+ * Times each execution of one phase of the purge job.
+ *
+ * @author  Brett Ryan
+ */
+public final class PhaseTimer implements PhaseTimerMBean {
+
+    private static final double NANOS_PER_MILLI = 1_000_000d;
+
+    private final String name;
+    private final LatencyHistogram histogram = new LatencyHistogram();
+
+    /**
+     * Creates a new {@code PhaseTimer} instance.
+     */
+    public PhaseTimer(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void record(long nanos) {
+        histogram.record(nanos);
+    }
+
+    public void record(Duration duration) {
+        histogram.record(duration.toNanos());
+    }
+
+    /**
+     * Run and time an execution of the phase.
+     */
+    public <T> T time(Supplier<T> r) {
+        long start = System.nanoTime();
+        try {
+            return r.get();
+        } finally {
+            histogram.record(System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    public long getCount() {
+        return histogram.getCount();
+    }
+
+    @Override
+    public long getTotalMillis() {
+        return Math.round(histogram.getTotalNanos() / NANOS_PER_MILLI);
+    }
+
+    @Override
+    public double getMeanMillis() {
+        return histogram.getMeanNanos() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getMaxMillis() {
+        return histogram.getMaxNanos() / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getPercentile50Millis() {
+        return histogram.getPercentileNanos(50) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getPercentile95Millis() {
+        return histogram.getPercentileNanos(95) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public double getPercentile99Millis() {
+        return histogram.getPercentileNanos(99) / NANOS_PER_MILLI;
+    }
+
+    @Override
+    public void reset() {
+        histogram.reset();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s: %d in %d ms, mean %.2f ms, p95 %.2f ms, max %.2f ms",
+                             name, getCount(), getTotalMillis(), getMeanMillis(),
+                             getPercentile95Millis(), getMaxMillis());
+    }
+
+}
@@ -0,0 +1,40 @@
+/*
+ * PhaseTimerMBean.java    Oct 18 2026, 01:20
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+
+/**
+ * Management interface of a {@link PhaseTimer}.
+ *
+ * @author  Brett Ryan
+ */
+public interface PhaseTimerMBean {
+
+    /**
+     * @return  times the phase has been timed.
+     */
+    long getCount();
+
+    long getTotalMillis();
+
+    double getMeanMillis();
+
+    double getMaxMillis();
+
+    double getPercentile50Millis();
+
+    double getPercentile95Millis();
+
+    double getPercentile99Millis();
+
+    /**
+     * Discard every recorded time.
+     */
+    void reset();
+
+}
@@ -0,0 +1,170 @@
+/*
+ * PipelineStage.java    Oct 17 2026, 16:10
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+import java.util.function.Consumer;
+import java.util.function.IntSupplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Consumer stage running on its own thread which is fed through a bounded
+ * queue.
+ *
+ * <p>
+ * Producers calling {@link #submit(Object)} block while the queue is full so
+ * that a slow consumer applies back-pressure to them. The consumer takes as
+ * many queued items as the batch size allows on each pass.
+ *
+ * <p>
+ * Once cancellation is requested the consumer completes the batch it is
+ * processing and hands all remaining items to the discard callback so that
+ * no item is silently lost.
+ *
+ * @param   <T>
+ *          Type of work item.
+ * @author  Brett Ryan
+ */
+public final class PipelineStage<T> {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PipelineStage.class);
+
+    private static final long POLL_MILLIS = 100;
+
+    private final BlockingQueue<T> queue;
+    private final IntSupplier batchSize;
+    private final Consumer<List<T>> consumer;
+    private final Consumer<List<T>> discarder;
+    private final BooleanSupplier cancelled;
+    private final Thread thread;
+
+    private volatile boolean closed;
+    private volatile Throwable failure;
+
+    /**
+     * Creates and starts a new {@code PipelineStage} instance.
+     *
+     * @param   name
+     *          Name of the consumer thread.
+     * @param   capacity
+     *          Maximum number of items queued before producers block.
+     * @param   batchSize
+     *          Supplies the maximum number of items to pass to each call of
+     *          the consumer.
+     * @param   consumer
+     *          Processes batches of items.
+     * @param   discarder
+     *          Receives items which are not processed due to cancellation.
+     * @param   cancelled
+     *          Whether cancellation has been requested.
+     */
+    public PipelineStage(String name,
+                         int capacity,
+                         IntSupplier batchSize,
+                         Consumer<List<T>> consumer,
+                         Consumer<List<T>> discarder,
+                         BooleanSupplier cancelled) {
+        this.queue = new ArrayBlockingQueue<>(capacity);
+        this.batchSize = batchSize;
+        this.consumer = consumer;
+        this.discarder = discarder;
+        this.cancelled = cancelled;
+        this.thread = new Thread(this::run, name);
+        this.thread.setDaemon(true);
+        this.thread.start();
+    }
+
+    /**
+     * Queue an item, blocking while the queue is full.
+     *
+     * @throws  IllegalStateException
+     *          If the stage has been finished or the consumer has failed.
+     */
+    public void submit(T item) throws InterruptedException {
+        while (!queue.offer(item, POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+            checkState();
+        }
+        checkState();
+    }
+
+    /**
+     * @return  number of items waiting to be consumed.
+     */
+    public int size() {
+        return queue.size();
+    }
+
+    /**
+     * Signal that no more items will be submitted and wait for the consumer
+     * to drain the queue.
+     *
+     * @throws  ExecutionException
+     *          If the consumer failed.
+     */
+    public void finish() throws InterruptedException, ExecutionException {
+        closed = true;
+        thread.join();
+        if (failure != null) {
+            throw new ExecutionException(failure);
+        }
+    }
+
+    private void checkState() {
+        if (failure != null) {
+            throw new IllegalStateException("Pipeline stage " + thread.getName() + " has failed.", failure);
+        }
+        if (closed) {
+            throw new IllegalStateException("Pipeline stage " + thread.getName() + " has been finished.");
+        }
+    }
+
+    private void run() {
+        List<T> batch = new ArrayList<>();
+        try {
+            while (true) {
+                T item = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (item == null) {
+                    if (closed && queue.isEmpty()) {
+                        return;
+                    }
+                    continue;
+                }
+                batch.add(item);
+                if (cancelled.getAsBoolean()) {
+                    queue.drainTo(batch);
+                    discarder.accept(batch);
+                } else {
+                    queue.drainTo(batch, Math.max(0, batchSize.getAsInt() - 1));
+                    consumer.accept(batch);
+                }
+                batch.clear();
+            }
+        } catch (Throwable ex) {
+            LOG.error("Pipeline stage {} failed: {}", thread.getName(), ex.getMessage(), ex);
+            failure = ex;
+            batch.clear();
+            queue.drainTo(batch);
+            if (!batch.isEmpty()) {
+                try {
+                    discarder.accept(batch);
+                } catch (RuntimeException dex) {
+                    LOG.error("Could not discard {} items: {}", batch.size(), dex.getMessage(), dex);
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,45 @@
+/*
+ * PluginHome.java    Oct 17 2026, 19:10
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import com.atlassian.confluence.setup.BootstrapManager;
+import java.nio.file.Path;
+
+
+/**
+ * Locates files kept by this plugin.
+ *
+ * <p>
+ * Files are kept under the shared home so that every node of a cluster sees
+ * the same indexes, checkpoints and leases. On a single node instance the
+ * shared home lies within the local home.
+ *
+ * @author  Brett Ryan
+ */
+public class PluginHome {
+
+    private static final String PLUGIN_DIR = "attachment-tools";
+
+    private final BootstrapManager bootstrapManager;
+
+    /**
+     * Creates a new {@code PluginHome} instance.
+     */
+    public PluginHome(BootstrapManager bootstrapManager) {
+        this.bootstrapManager = bootstrapManager;
+    }
+
+    /**
+     * @return  path of the given name within the plugin directory, which may
+     *          not exist.
+     */
+    public Path resolve(String name) {
+        return bootstrapManager.getSharedHome().toPath().resolve(PLUGIN_DIR).resolve(name);
+    }
+
+}
@@ -0,0 +1,44 @@
+/*
+ * PriorVersions.java    Oct 18 2026, 03:40
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+
+/**
+ * Primitive view of the prior versions of one attachment evaluated by a
+ * {@link PurgeRuleSet}, oldest version at index {@code 0}.
+ *
+ * @author  Brett Ryan
+ */
+public interface PriorVersions {
+
+    /**
+     * @return  number of prior versions.
+     */
+    int size();
+
+    /**
+     * @return  file size in bytes of the version at an index.
+     */
+    long getSize(int index);
+
+    /**
+     * @return  modification time in epoch milliseconds of the version at an
+     *          index, or {@link PurgeRules#UNKNOWN_MODIFIED}.
+     */
+    long getModified(int index);
+
+    /**
+     * @return  {@code true} if the content of the version at an index is
+     *          known to be identical to the current or a newer prior version,
+     *          {@code false} where it differs or is not known.
+     */
+    default boolean isDuplicate(int index) {
+        return false;
+    }
+
+}
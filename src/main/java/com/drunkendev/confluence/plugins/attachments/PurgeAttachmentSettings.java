@@ -21,6 +21,32 @@ public class PurgeAttachmentSettings implements Serializable {
     public static final int MODE_GLOBAL = 2;
     public static final int MODE_SPACE = 3;
 
+    /**
+     * Scan mode that pages through current attachment identifiers in
+     * identifier order, holding a single bounded page in memory at a time.
+     * This is the default.
+     */
+    public static final int SCAN_MODE_KEYSET = 0;
+    /**
+     * Scan mode that loads every attachment in a single query before
+     * processing. Memory use grows with the number of attachments.
+     */
+    public static final int SCAN_MODE_FIND_ALL = 1;
+
+    public static final int DEFAULT_SCAN_PAGE_SIZE = 1000;
+    public static final int DEFAULT_WORKER_THREADS = 1;
+
+    public static final int DEFAULT_BATCH_SIZE = 50;
+    public static final int DEFAULT_BATCH_SIZE_MIN = 10;
+    public static final int DEFAULT_BATCH_SIZE_MAX = 500;
+    public static final int DEFAULT_TARGET_TRANSACTION_MILLIS = 2000;
+
+    public static final int DEFAULT_CHECKPOINT_EXPIRY_HOURS = 24;
+    public static final int DEFAULT_CLUSTER_LEASE_SECONDS = 300;
+    public static final int DEFAULT_REPORT_MAX_ENTRIES = 500;
+    public static final int DEFAULT_REPORT_MEMORY_MIB = 16;
+    public static final int DEFAULT_HISTORY_MAX_RUNS = 1000;
+
     private static final long serialVersionUID = 1L;
 
     private int mode;
@@ -36,6 +62,28 @@ public class PurgeAttachmentSettings implements Serializable {
 
     private int deleteLimit;
 
+    private int scanMode;
+    private int scanPageSize;
+    private int workerThreads;
+    private int batchSizeMin;
+    private int batchSizeMax;
+    private int targetTransactionMillis;
+    private int fullSweepDays;
+    private int checkpointExpiryHours;
+    private int clusterLeaseSeconds;
+    private int throttleOpsPerSecond;
+    private long throttleBytesPerSecond;
+    private int throttleLatencyMillis;
+    private String windowStart;
+    private String windowEnd;
+    private int runBudgetMinutes;
+    private int reportMaxEntries;
+    private int reportMemoryMiB;
+    private int historyMaxRuns;
+    private long maxVersionSize;
+    private String fileTypeRetention;
+    private boolean duplicateRuleEnabled;
+
     /**
      * Creates a new {@code PurgeAttachmentSettings} instance.
      */
@@ -208,9 +256,305 @@ public class PurgeAttachmentSettings implements Serializable {
         this.deleteLimit = deleteLimit;
     }
 
+    /**
+     * @return  the scan mode, one of {@link #SCAN_MODE_KEYSET} or
+     *          {@link #SCAN_MODE_FIND_ALL}.
+     */
+    public int getScanMode() {
+        return scanMode;
+    }
+
+    public void setScanMode(int scanMode) {
+        this.scanMode = scanMode;
+    }
+
+    public int getScanPageSize() {
+        return scanPageSize;
+    }
+
+    public void setScanPageSize(int scanPageSize) {
+        this.scanPageSize = scanPageSize;
+    }
+
+    /**
+     * @return  the scan page size or {@link #DEFAULT_SCAN_PAGE_SIZE} where one
+     *          has not been configured.
+     */
+    public int getScanPageSizeOrDefault() {
+        return scanPageSize > 0 ? scanPageSize : DEFAULT_SCAN_PAGE_SIZE;
+    }
+
+    public int getWorkerThreads() {
+        return workerThreads;
+    }
+
+    public void setWorkerThreads(int workerThreads) {
+        this.workerThreads = workerThreads;
+    }
+
+    /**
+     * @return  the number of purge workers or {@link #DEFAULT_WORKER_THREADS}
+     *          where one has not been configured.
+     */
+    public int getWorkerThreadsOrDefault() {
+        return workerThreads > 0 ? workerThreads : DEFAULT_WORKER_THREADS;
+    }
+
+    public int getBatchSizeMin() {
+        return batchSizeMin;
+    }
+
+    public void setBatchSizeMin(int batchSizeMin) {
+        this.batchSizeMin = batchSizeMin;
+    }
+
+    /**
+     * @return  the smallest batch size or {@link #DEFAULT_BATCH_SIZE_MIN} where one has not been
+     *          configured.
+     */
+    public int getBatchSizeMinOrDefault() {
+        return batchSizeMin > 0 ? batchSizeMin : DEFAULT_BATCH_SIZE_MIN;
+    }
+
+    public int getBatchSizeMax() {
+        return batchSizeMax;
+    }
+
+    public void setBatchSizeMax(int batchSizeMax) {
+        this.batchSizeMax = batchSizeMax;
+    }
+
+    /**
+     * @return  the largest batch size or {@link #DEFAULT_BATCH_SIZE_MAX} where one has not been
+     *          configured.
+     */
+    public int getBatchSizeMaxOrDefault() {
+        return batchSizeMax > 0 ? batchSizeMax : DEFAULT_BATCH_SIZE_MAX;
+    }
+
+    public int getTargetTransactionMillis() {
+        return targetTransactionMillis;
+    }
+
+    public void setTargetTransactionMillis(int targetTransactionMillis) {
+        this.targetTransactionMillis = targetTransactionMillis;
+    }
+
+    /**
+     * @return  the target duration of each batch transaction or {@link #DEFAULT_TARGET_TRANSACTION_MILLIS} where one has not been
+     *          configured.
+     */
+    public int getTargetTransactionMillisOrDefault() {
+        return targetTransactionMillis > 0 ? targetTransactionMillis : DEFAULT_TARGET_TRANSACTION_MILLIS;
+    }
+
+    /**
+     * @return  days between full sweeps, runs in between only visit
+     *          attachments modified since the previous run. {@code 0} makes
+     *          every run a full sweep.
+     */
+    public int getFullSweepDays() {
+        return fullSweepDays;
+    }
+
+    public void setFullSweepDays(int fullSweepDays) {
+        this.fullSweepDays = fullSweepDays;
+    }
+
+    public int getCheckpointExpiryHours() {
+        return checkpointExpiryHours;
+    }
+
+    public void setCheckpointExpiryHours(int checkpointExpiryHours) {
+        this.checkpointExpiryHours = checkpointExpiryHours;
+    }
+
+    /**
+     * @return  hours after which an unfinished run's checkpoint is discarded
+     *          or {@link #DEFAULT_CHECKPOINT_EXPIRY_HOURS} where one has not
+     *          been configured.
+     */
+    public int getCheckpointExpiryHoursOrDefault() {
+        return checkpointExpiryHours > 0 ? checkpointExpiryHours : DEFAULT_CHECKPOINT_EXPIRY_HOURS;
+    }
+
+    public int getClusterLeaseSeconds() {
+        return clusterLeaseSeconds;
+    }
+
+    public void setClusterLeaseSeconds(int clusterLeaseSeconds) {
+        this.clusterLeaseSeconds = clusterLeaseSeconds;
+    }
+
+    /**
+     * @return  seconds a cluster node holds a shard without renewing it or
+     *          {@link #DEFAULT_CLUSTER_LEASE_SECONDS} where one has not been
+     *          configured.
+     */
+    public int getClusterLeaseSecondsOrDefault() {
+        return clusterLeaseSeconds > 0 ? clusterLeaseSeconds : DEFAULT_CLUSTER_LEASE_SECONDS;
+    }
+
+    /**
+     * @return  maximum prior versions deleted per second, {@code 0} for no
+     *          limit.
+     */
+    public int getThrottleOpsPerSecond() {
+        return throttleOpsPerSecond;
+    }
+
+    public void setThrottleOpsPerSecond(int throttleOpsPerSecond) {
+        this.throttleOpsPerSecond = throttleOpsPerSecond;
+    }
+
+    /**
+     * @return  maximum bytes of prior versions deleted per second, {@code 0}
+     *          for no limit.
+     */
+    public long getThrottleBytesPerSecond() {
+        return throttleBytesPerSecond;
+    }
+
+    public void setThrottleBytesPerSecond(long throttleBytesPerSecond) {
+        this.throttleBytesPerSecond = throttleBytesPerSecond;
+    }
+
+    /**
+     * @return  deletion latency above which deleting backs off, {@code 0} to
+     *          never back off.
+     */
+    public int getThrottleLatencyMillis() {
+        return throttleLatencyMillis;
+    }
+
+    public void setThrottleLatencyMillis(int throttleLatencyMillis) {
+        this.throttleLatencyMillis = throttleLatencyMillis;
+    }
+
+    /**
+     * @return  time of day the maintenance window opens as {@code HH:mm}, or
+     *          blank where purging may run at any time.
+     */
+    public String getWindowStart() {
+        return windowStart;
+    }
+
+    public void setWindowStart(String windowStart) {
+        this.windowStart = windowStart;
+    }
+
+    /**
+     * @return  time of day the maintenance window closes as {@code HH:mm}.
+     */
+    public String getWindowEnd() {
+        return windowEnd;
+    }
+
+    public void setWindowEnd(String windowEnd) {
+        this.windowEnd = windowEnd;
+    }
+
+    /**
+     * @return  minutes a single run may take before pausing, {@code 0} for no
+     *          limit.
+     */
+    public int getRunBudgetMinutes() {
+        return runBudgetMinutes;
+    }
+
+    public void setRunBudgetMinutes(int runBudgetMinutes) {
+        this.runBudgetMinutes = runBudgetMinutes;
+    }
+
+    public int getReportMaxEntries() {
+        return reportMaxEntries;
+    }
+
+    public void setReportMaxEntries(int reportMaxEntries) {
+        this.reportMaxEntries = reportMaxEntries;
+    }
+
+    /**
+     * @return  entries listed in the body of a report mail or
+     *          {@link #DEFAULT_REPORT_MAX_ENTRIES} where one has not been
+     *          configured. Reports with more entries attach the full detail.
+     */
+    public int getReportMaxEntriesOrDefault() {
+        return reportMaxEntries > 0 ? reportMaxEntries : DEFAULT_REPORT_MAX_ENTRIES;
+    }
+
+    public int getReportMemoryMiB() {
+        return reportMemoryMiB;
+    }
+
+    public void setReportMemoryMiB(int reportMemoryMiB) {
+        this.reportMemoryMiB = reportMemoryMiB;
+    }
+
+    /**
+     * @return  MiB of report entries held in memory before they are written
+     *          to disk or {@link #DEFAULT_REPORT_MEMORY_MIB} where one has not
+     *          been configured.
+     */
+    public int getReportMemoryMiBOrDefault() {
+        return reportMemoryMiB > 0 ? reportMemoryMiB : DEFAULT_REPORT_MEMORY_MIB;
+    }
+
+    public int getHistoryMaxRuns() {
+        return historyMaxRuns;
+    }
+
+    public void setHistoryMaxRuns(int historyMaxRuns) {
+        this.historyMaxRuns = historyMaxRuns;
+    }
+
+    /**
+     * @return  number of runs kept in the run history or
+     *          {@link #DEFAULT_HISTORY_MAX_RUNS} where one has not been
+     *          configured.
+     */
+    public int getHistoryMaxRunsOrDefault() {
+        return historyMaxRuns > 0 ? historyMaxRuns : DEFAULT_HISTORY_MAX_RUNS;
+    }
+
+    /**
+     * @return  size in MiB above which any prior version is purged, {@code 0}
+     *          where the rule is disabled.
+     */
+    public long getMaxVersionSize() {
+        return maxVersionSize;
+    }
+
+    public void setMaxVersionSize(long maxVersionSize) {
+        this.maxVersionSize = maxVersionSize;
+    }
+
+    /**
+     * @return  versions kept by file type, see {@link FileTypeRule}.
+     */
+    public String getFileTypeRetention() {
+        return fileTypeRetention;
+    }
+
+    public void setFileTypeRetention(String fileTypeRetention) {
+        this.fileTypeRetention = fileTypeRetention;
+    }
+
+    /**
+     * @return  {@code true} to purge prior versions whose content is identical
+     *          to a newer version, see {@link DuplicateContentRule}.
+     */
+    public boolean isDuplicateRuleEnabled() {
+        return duplicateRuleEnabled;
+    }
+
+    public void setDuplicateRuleEnabled(boolean duplicateRuleEnabled) {
+        this.duplicateRuleEnabled = duplicateRuleEnabled;
+    }
+
     @Override
     public String toString() {
-        return "PurgeAttachmentSettings{" + "mode=" + mode + ", ageRuleEnabled=" + ageRuleEnabled + ", maxDaysOld=" + maxDaysOld + ", revisionCountRuleEnabled=" + revisionCountRuleEnabled + ", maxRevisions=" + maxRevisions + ", maxSizeRuleEnabled=" + maxSizeRuleEnabled + ", maxTotalSize=" + maxTotalSize + ", reportOnly=" + reportOnly + ", reportEmailAddress=" + reportEmailAddress + '}';
+        return "PurgeAttachmentSettings{" + "mode=" + mode + ", ageRuleEnabled=" + ageRuleEnabled + ", maxDaysOld=" + maxDaysOld + ", revisionCountRuleEnabled=" + revisionCountRuleEnabled + ", maxRevisions=" + maxRevisions + ", maxSizeRuleEnabled=" + maxSizeRuleEnabled + ", maxTotalSize=" + maxTotalSize + ", reportOnly=" + reportOnly + ", reportEmailAddress=" + reportEmailAddress + ", deleteLimit=" + deleteLimit + ", scanMode=" + scanMode + ", scanPageSize=" + scanPageSize + ", workerThreads=" + workerThreads + ", batchSizeMin=" + batchSizeMin + ", batchSizeMax=" + batchSizeMax + ", targetTransactionMillis=" + targetTransactionMillis + ", fullSweepDays=" + fullSweepDays + ", checkpointExpiryHours=" + checkpointExpiryHours + ", clusterLeaseSeconds=" + clusterLeaseSeconds + ", throttleOpsPerSecond=" + throttleOpsPerSecond + ", throttleBytesPerSecond=" + throttleBytesPerSecond + ", throttleLatencyMillis=" + throttleLatencyMillis + ", windowStart=" + windowStart + ", windowEnd=" + windowEnd + ", runBudgetMinutes=" + runBudgetMinutes + ", reportMaxEntries=" + reportMaxEntries + ", reportMemoryMiB=" + reportMemoryMiB + ", historyMaxRuns=" + historyMaxRuns + ", maxVersionSize=" + maxVersionSize + ", fileTypeRetention=" + fileTypeRetention + ", duplicateRuleEnabled=" + duplicateRuleEnabled + '}';
     }
 
 }
@@ -0,0 +1,428 @@
+/*
+ * PurgeAttachmentsDao.java    Oct 17 2026, 09:12
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import com.atlassian.confluence.pages.Attachment;
+import com.atlassian.confluence.spaces.Space;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import net.sf.hibernate.HibernateException;
+import net.sf.hibernate.Query;
+import net.sf.hibernate.Session;
+import net.sf.hibernate.SessionFactory;
+import org.springframework.orm.hibernate.HibernateCallback;
+import org.springframework.orm.hibernate.HibernateTemplate;
+
+
+/**
+ * Hibernate queries used by the purge job which are not provided by the
+ * confluence attachment manager.
+ *
+ * <p>
+ * Scans only ever return identifiers or scalar values so that callers never
+ * hold more than a bounded page of data in memory, entities are only loaded
+ * for a single batch at a time.
+ *
+ * @author  Brett Ryan
+ */
+public class PurgeAttachmentsDao {
+
+    /**
+     * Largest number of parameters bound to a single {@code in} clause, some
+     * databases reject more than 1000.
+     */
+    private static final int MAX_IN_PARAMETERS = 500;
+
+    private static final String HQL_COUNT_CURRENT_BETWEEN
+            = "select count(a.id) from Attachment a"
+              + " where a.originalVersion is null"
+              + " and a.id > :afterId"
+              + " and a.id <= :toId";
+    private static final String HQL_CANDIDATE_IDS_AFTER
+            = "select a.id from Attachment a"
+              + " where a.originalVersion is null"
+              + " and a.id > :afterId"
+              + " and exists (select p.id from Attachment p where p.originalVersion = a)";
+    private static final String HQL_CANDIDATE_REVISIONS
+            = "(select count(p.id) from Attachment p where p.originalVersion = a) > :maxRevisions";
+    private static final String HQL_CANDIDATE_AGE
+            = "exists (select p.id from Attachment p"
+              + " where p.originalVersion = a"
+              + " and p.lastModificationDate < :olderThan)";
+    private static final String HQL_OLDEST_PRIOR_AFTER
+            = "select a.id, min(p.lastModificationDate) from Attachment a, Attachment p"
+              + " where p.originalVersion = a"
+              + " and a.originalVersion is null"
+              + " and a.id > :afterId";
+    private static final String HQL_CANDIDATE_SPACE_KEYS
+            = "select distinct c.space.key from Attachment a, SpaceContentEntityObject c"
+              + " where c = a.containerContent"
+              + " and c.space.spaceStatus = 'CURRENT'"
+              + " and a.originalVersion is null"
+              + " and exists (select p.id from Attachment p where p.originalVersion = a)";
+    private static final String HQL_GROUP_BY_ID
+            = " group by a.id";
+    private static final String HQL_MODIFIED_AFTER
+            = " and a.lastModificationDate > :modifiedAfter";
+    private static final String HQL_IN_SPACE
+            = " and exists (select c.id from SpaceContentEntityObject c"
+              + " where c = a.containerContent"
+              + " and c.space.key = :spaceKey)";
+    private static final String HQL_NOT_IN_SPACE
+            = " and not exists (select c.id from SpaceContentEntityObject c"
+              + " where c = a.containerContent)";
+    private static final String HQL_ORDER_BY_ID
+            = " order by a.id asc";
+    private static final String HQL_BY_IDS
+            = "select a from Attachment a"
+              + " where a.id in (:ids)";
+    private static final String HQL_CURRENT_BY_IDS
+            = "select a from Attachment a"
+              + " left join fetch a.containerContent"
+              + " where a.id in (:ids)"
+              + " and a.originalVersion is null";
+    private static final String HQL_PRIOR_BY_ORIGINAL_IDS
+            = "select a from Attachment a"
+              + " where a.originalVersion.id in (:ids)"
+              + " order by a.originalVersion.id asc, a.version asc";
+    private static final String HQL_SPACES_BY_CONTAINER_IDS
+            = "select distinct s from Space s, SpaceContentEntityObject c"
+              + " where c.space = s"
+              + " and c.id in (:ids)";
+
+    private static final String HQL_PRIOR_METADATA_BY_ORIGINAL_IDS
+            = "select a.id, a.originalVersion.id, a.version, a.lastModificationDate from Attachment a"
+              + " where a.originalVersion.id in (:ids)"
+              + " order by a.originalVersion.id asc, a.version asc";
+    private static final String HQL_SPACE_KEYS_BY_IDS
+            = "select a.id, c.space.key from Attachment a, SpaceContentEntityObject c"
+              + " where c = a.containerContent"
+              + " and a.id in (:ids)";
+    private static final String HQL_FILE_SIZES_BY_IDS
+            = "select p.content.id, p.longValue from ContentProperty p"
+              + " where p.name = 'FILESIZE'"
+              + " and p.content.id in (:ids)";
+    private static final String HQL_IDS_BY_IDS
+            = "select a.id from Attachment a"
+              + " where a.id in (:ids)";
+    private static final String HQL_DATA_LOCATIONS_BY_IDS
+            = "select a.id, a.version, a.originalVersion.id, a.containerContent.id from Attachment a"
+              + " where a.id in (:ids)";
+    private static final String HQL_SPACE_IDS_BY_CONTAINER_IDS
+            = "select c.id, c.space.id from SpaceContentEntityObject c"
+              + " where c.id in (:ids)";
+
+    private final HibernateTemplate hibernateTemplate;
+
+    /**
+     * Creates a new {@code PurgeAttachmentsDao} instance.
+     */
+    public PurgeAttachmentsDao(SessionFactory sessionFactory) {
+        this.hibernateTemplate = new HibernateTemplate(sessionFactory);
+    }
+
+    /**
+     * Find the next page of current attachment identifiers which may have
+     * versions to purge according to the given filter.
+     *
+     * <p>
+     * Attachments without prior versions are never returned. Where the filter
+     * has no size rule the revision and age thresholds are also applied. An
+     * incremental filter only returns attachments modified after its
+     * high-water mark.
+     *
+     * @param   partition
+     *          Partition to restrict attachments to.
+     * @param   afterId
+     *          Identifier of the last attachment seen, or {@code 0} to start
+     *          from the beginning.
+     * @param   limit
+     *          Maximum number of identifiers to return.
+     * @param   filter
+     *          Candidate filter to apply.
+     * @return  Identifiers greater than {@code afterId} in ascending order.
+     */
+    public List<Long> findCandidateAttachmentIds(ScanPartition partition,
+                                                 long afterId,
+                                                 int limit,
+                                                 CandidateFilter filter) {
+        boolean revisions = !filter.isAnyPrior() && filter.getMaxRevisions() >= 0;
+        boolean age = !filter.isAnyPrior() && filter.getOlderThan() != null;
+
+        StringBuilder hql = new StringBuilder(HQL_CANDIDATE_IDS_AFTER);
+        appendPartition(hql, partition);
+        if (filter.getModifiedAfter() != null) {
+            hql.append(HQL_MODIFIED_AFTER);
+        }
+        if (revisions && age) {
+            hql.append(" and (").append(HQL_CANDIDATE_REVISIONS)
+                    .append(" or ").append(HQL_CANDIDATE_AGE).append(")");
+        } else if (revisions) {
+            hql.append(" and ").append(HQL_CANDIDATE_REVISIONS);
+        } else if (age) {
+            hql.append(" and ").append(HQL_CANDIDATE_AGE);
+        }
+        hql.append(HQL_ORDER_BY_ID);
+
+        return execute(s -> {
+            Query q = s.createQuery(hql.toString())
+                    .setLong("afterId", afterId)
+                    .setMaxResults(limit);
+            setPartition(q, partition);
+            if (filter.getModifiedAfter() != null) {
+                q.setTimestamp("modifiedAfter", filter.getModifiedAfter());
+            }
+            if (revisions) {
+                q.setInteger("maxRevisions", filter.getMaxRevisions());
+            }
+            if (age) {
+                q.setTimestamp("olderThan", filter.getOlderThan());
+            }
+            return q.list();
+        });
+    }
+
+    /**
+     * Count current attachment versions within an identifier range.
+     *
+     * @param   partition
+     *          Partition to restrict attachments to.
+     * @param   afterId
+     *          Exclusive lower bound.
+     * @param   toId
+     *          Inclusive upper bound.
+     */
+    public long countCurrentAttachments(ScanPartition partition, long afterId, long toId) {
+        StringBuilder hql = new StringBuilder(HQL_COUNT_CURRENT_BETWEEN);
+        appendPartition(hql, partition);
+        Number res = execute(s -> setPartition(s.createQuery(hql.toString()), partition)
+                .setLong("afterId", afterId)
+                .setLong("toId", toId)
+                .uniqueResult());
+        return res == null ? 0 : res.longValue();
+    }
+
+    /**
+     * Find the modification date of the oldest prior version of each current
+     * attachment which has prior versions.
+     *
+     * @param   partition
+     *          Partition to restrict attachments to.
+     * @param   afterId
+     *          Identifier of the last attachment seen, or {@code 0} to start
+     *          from the beginning.
+     * @param   limit
+     *          Maximum number of rows to return.
+     * @return  Pairs of attachment identifier and oldest modification date in
+     *          ascending identifier order.
+     */
+    public List<Object[]> findOldestPriorModified(ScanPartition partition, long afterId, int limit) {
+        StringBuilder hql = new StringBuilder(HQL_OLDEST_PRIOR_AFTER);
+        appendPartition(hql, partition);
+        hql.append(HQL_GROUP_BY_ID).append(HQL_ORDER_BY_ID);
+        return execute(s -> setPartition(s.createQuery(hql.toString()), partition)
+                .setLong("afterId", afterId)
+                .setMaxResults(limit)
+                .list());
+    }
+
+    /**
+     * Find the keys of current spaces containing attachments with prior
+     * versions, only these spaces can have versions to purge. Archived
+     * spaces are not purged.
+     */
+    public List<String> findCandidateSpaceKeys() {
+        return execute(s -> s.createQuery(HQL_CANDIDATE_SPACE_KEYS).list());
+    }
+
+    private static void appendPartition(StringBuilder hql, ScanPartition partition) {
+        if (partition.isNoSpace()) {
+            hql.append(HQL_NOT_IN_SPACE);
+        } else if (!partition.isAll()) {
+            hql.append(HQL_IN_SPACE);
+        }
+    }
+
+    private static Query setPartition(Query q, ScanPartition partition) {
+        if (partition.getSpaceKey() != null) {
+            q.setString("spaceKey", partition.getSpaceKey());
+        }
+        return q;
+    }
+
+    /**
+     * Load attachment versions by identifier.
+     *
+     * @param   ids
+     *          Identifiers of any attachment version.
+     * @return  Attachments found, identifiers which no longer exist are
+     *          ignored.
+     */
+    public List<Attachment> findAttachments(Collection<Long> ids) {
+        return executeChunked(ids, (s, chunk) -> s.createQuery(HQL_BY_IDS)
+                .setParameterList("ids", chunk)
+                .list());
+    }
+
+    /**
+     * Load current attachment versions along with their containers.
+     *
+     * @param   ids
+     *          Attachment identifiers, any which are not current versions are
+     *          ignored.
+     */
+    public List<Attachment> findCurrentAttachments(Collection<Long> ids) {
+        return executeChunked(ids, (s, chunk) -> s.createQuery(HQL_CURRENT_BY_IDS)
+                .setParameterList("ids", chunk)
+                .list());
+    }
+
+    /**
+     * Load all prior versions for the given current attachment versions.
+     *
+     * @param   ids
+     *          Current attachment version identifiers.
+     * @return  Prior versions ordered by their current version identifier and
+     *          then by version ascending.
+     */
+    public List<Attachment> findPriorVersions(Collection<Long> ids) {
+        return executeChunked(ids, (s, chunk) -> s.createQuery(HQL_PRIOR_BY_ORIGINAL_IDS)
+                .setParameterList("ids", chunk)
+                .list());
+    }
+
+    /**
+     * Load the spaces owning the given containers in to the session so that
+     * navigating from an attachment to its space does not issue further
+     * queries.
+     *
+     * @param   containerIds
+     *          Identifiers of the content attachments are attached to.
+     */
+    public List<Space> findSpacesForContainers(Collection<Long> containerIds) {
+        return executeChunked(containerIds, (s, chunk) -> s.createQuery(HQL_SPACES_BY_CONTAINER_IDS)
+                .setParameterList("ids", chunk)
+                .list());
+    }
+
+    /**
+     * Read the fields rules are evaluated on for all prior versions of the
+     * given attachments without loading entities.
+     *
+     * @param   ids
+     *          Current attachment version identifiers.
+     * @return  Rows of version identifier, current version identifier,
+     *          version and modification date ordered by current version
+     *          identifier and then by version ascending.
+     */
+    public List<Object[]> findPriorVersionMetadata(Collection<Long> ids) {
+        return executeChunked(ids, (s, chunk) -> s.createQuery(HQL_PRIOR_METADATA_BY_ORIGINAL_IDS)
+                .setParameterList("ids", chunk)
+                .list());
+    }
+
+    /**
+     * @param   ids
+     *          Current attachment version identifiers.
+     * @return  Rows of attachment identifier and space key, attachments
+     *          outside of spaces are omitted.
+     */
+    public List<Object[]> findSpaceKeys(Collection<Long> ids) {
+        return executeChunked(ids, (s, chunk) -> s.createQuery(HQL_SPACE_KEYS_BY_IDS)
+                .setParameterList("ids", chunk)
+                .list());
+    }
+
+    /**
+     * File sizes are stored as content properties of each version rather than
+     * on the attachment itself.
+     *
+     * @param   ids
+     *          Attachment version identifiers.
+     * @return  Rows of attachment version identifier and file size.
+     */
+    public List<Object[]> findFileSizes(Collection<Long> ids) {
+        return executeChunked(ids, (s, chunk) -> s.createQuery(HQL_FILE_SIZES_BY_IDS)
+                .setParameterList("ids", chunk)
+                .list());
+    }
+
+    /**
+     * @param   ids
+     *          Identifiers of any attachment version.
+     * @return  Identifiers of the given versions which still exist.
+     */
+    public List<Long> findExistingIds(Collection<Long> ids) {
+        return executeChunked(ids, (s, chunk) -> s.createQuery(HQL_IDS_BY_IDS)
+                .setParameterList("ids", chunk)
+                .list());
+    }
+
+    /**
+     * Read the fields locating the stored data of attachment versions.
+     *
+     * @param   ids
+     *          Attachment version identifiers.
+     * @return  Rows of version identifier, version, current version
+     *          identifier and container identifier.
+     */
+    public List<Object[]> findDataLocations(Collection<Long> ids) {
+        return executeChunked(ids, (s, chunk) -> s.createQuery(HQL_DATA_LOCATIONS_BY_IDS)
+                .setParameterList("ids", chunk)
+                .list());
+    }
+
+    /**
+     * @param   containerIds
+     *          Identifiers of the content attachments are attached to.
+     * @return  Rows of container identifier and space identifier, containers
+     *          not belonging to a space are omitted.
+     */
+    public List<Object[]> findContainerSpaceIds(Collection<Long> containerIds) {
+        return executeChunked(containerIds, (s, chunk) -> s.createQuery(HQL_SPACE_IDS_BY_CONTAINER_IDS)
+                .setParameterList("ids", chunk)
+                .list());
+    }
+
+    /**
+     * Run a query for each chunk of at most {@link #MAX_IN_PARAMETERS}
+     * identifiers. Identifiers are chunked in ascending order so that rows
+     * ordered by them remain ordered across chunks.
+     */
+    private <T> List<T> executeChunked(Collection<Long> ids, ChunkCallback callback) {
+        List<Long> all = new ArrayList<>(ids);
+        if (all.size() > MAX_IN_PARAMETERS) {
+            Collections.sort(all);
+        }
+        List<T> res = new ArrayList<>(all.size());
+        for (int i = 0; i < all.size(); i += MAX_IN_PARAMETERS) {
+            List<Long> chunk = all.subList(i, Math.min(all.size(), i + MAX_IN_PARAMETERS));
+            List<T> rows = execute(s -> callback.query(s, chunk));
+            res.addAll(rows);
+        }
+        return res;
+    }
+
+    /**
+     * Query run for each chunk of an {@code in} clause.
+     */
+    @FunctionalInterface
+    private interface ChunkCallback {
+
+        List<?> query(Session session, List<Long> chunk) throws HibernateException;
+
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T execute(HibernateCallback callback) {
+        return (T) hibernateTemplate.execute(callback);
+    }
+
+}
@@ -7,46 +7,84 @@
 
 package com.drunkendev.confluence.plugins.attachments;
 
+import com.atlassian.confluence.cluster.ClusterManager;
 import com.atlassian.confluence.mail.template.ConfluenceMailQueueItem;
 import com.atlassian.confluence.pages.Attachment;
 import com.atlassian.confluence.pages.AttachmentManager;
 import com.atlassian.confluence.pages.persistence.dao.AttachmentDao;
 import com.atlassian.confluence.setup.settings.SettingsManager;
+import com.atlassian.confluence.spaces.Space;
 import com.atlassian.confluence.spaces.SpaceManager;
-import com.atlassian.confluence.spaces.SpaceStatus;
 import com.atlassian.core.task.MultiQueueTaskManager;
+import com.atlassian.core.task.TaskQueue;
 import com.atlassian.core.util.FileSize;
+import com.atlassian.mail.Email;
 import com.atlassian.mail.MailException;
+import com.atlassian.mail.queue.SingleMailQueueItem;
 import com.atlassian.sal.api.transaction.TransactionTemplate;
 import com.atlassian.scheduler.JobRunner;
 import com.atlassian.scheduler.JobRunnerRequest;
 import com.atlassian.scheduler.JobRunnerResponse;
+import java.io.IOException;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
 import java.time.Duration;
 import java.time.Instant;
+import java.time.LocalDate;
 import java.time.LocalDateTime;
 import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
-import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.NavigableSet;
+import java.util.PriorityQueue;
+import java.util.Queue;
 import java.util.Set;
+import java.util.TreeSet;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
 import java.util.function.Supplier;
+import javax.activation.DataHandler;
+import javax.activation.FileDataSource;
+import javax.mail.MessagingException;
+import javax.mail.Multipart;
+import javax.mail.internet.MimeBodyPart;
+import javax.mail.internet.MimeMultipart;
 import org.apache.commons.lang3.tuple.ImmutablePair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import static java.util.Comparator.comparing;
-import static java.util.Comparator.comparingInt;
-import static java.util.Comparator.naturalOrder;
-import static java.util.Comparator.nullsFirst;
-import static java.util.stream.Collectors.toCollection;
 import static java.util.stream.Collectors.toList;
-import static java.util.stream.Collectors.toMap;
 import static java.util.stream.Collectors.toSet;
 import static org.apache.commons.lang3.StringUtils.equalsIgnoreCase;
 import static org.apache.commons.lang3.StringUtils.isNotBlank;
@@ -62,13 +100,20 @@ public class PurgeAttachmentsJob implements JobRunner {
 
     private static final Logger LOG = LoggerFactory.getLogger(PurgeAttachmentsJob.class);
 
-    private static final Comparator<Attachment> COMP_ATTACHMENT_VERSION
-            = nullsFirst(comparingInt(n -> n.getVersion()));
-    private static final Comparator<MailLogEntry> COMP_MAILLOG_SPACE_TITLE
-            = comparing((MailLogEntry n) -> n.getSpaceName(), nullsFirst(naturalOrder()))
-                    .thenComparing((MailLogEntry n) -> n.getDisplayTitle(), nullsFirst(naturalOrder()));
+    private static final Comparator<MailLogEntry> COMP_MAILLOG_SPACE_SAVED
+            = comparing((MailLogEntry n) -> n.getSpaceSaved());
 
-    private static final int BATCH_SIZE = 50;
+    /**
+     * Name report detail is attached to mail as.
+     */
+    private static final String REPORT_DETAIL_FILE_NAME = "purged-attachments.csv.gz";
+
+    /**
+     * Age after which report detail is removed whether or not it was mailed.
+     */
+    private static final Duration REPORT_FILE_RETENTION = Duration.ofDays(7);
+
+    private static final int MAX_WORK_QUEUE_MEMORY_CHUNKS = 64;
 
     private static final int IDX_PRIOR_VERSIONS = 0;
     private static final int IDX_DELETED = 1;
@@ -78,7 +123,27 @@ public class PurgeAttachmentsJob implements JobRunner {
     private static final int IDX_CURRENT_VISITED = 5;
     private static final int IDX_PROCESS_LIMIT = 6;
     private static final int IDX_BATCHES = 7;
-    private static final int COUNTER_ARRAY_SIZE = 8;
+    private static final int IDX_PREFILTER_SKIPPED = 8;
+    private static final int IDX_BATCH_ITEMS = 9;
+    private static final int IDX_BATCH_TIME = 10;
+    private static final int IDX_BATCH_SIZE_MIN = 11;
+    private static final int IDX_BATCH_SIZE_MAX = 12;
+    private static final int IDX_PIPELINE_WAIT = 13;
+    private static final int IDX_THROTTLE_WAIT = 14;
+    private static final int IDX_DELETED_BYTES = 15;
+    private static final int IDX_THROTTLE_BACKOFFS = 16;
+    private static final int COUNTER_ARRAY_SIZE = 17;
+
+    /**
+     * Attachments awaiting deletion before evaluation blocks.
+     */
+    private static final int DELETE_QUEUE_CAPACITY = 1000;
+
+    /**
+     * Interval the coordinator of a cluster run checks for shards to take
+     * over.
+     */
+    private static final long CLUSTER_POLL_MILLIS = 5000;
 
     private final AttachmentManager attachmentManager;
     private final SpaceManager spaceManager;
@@ -86,6 +151,18 @@ public class PurgeAttachmentsJob implements JobRunner {
     private final MultiQueueTaskManager mailQueueTaskManager;
     private final SettingsManager settingsManager;
     private final TransactionTemplate transactionTemplate;
+    private final PurgeAttachmentsDao purgeDao;
+    private final AgeExpiryIndex ageExpiryIndex;
+    private final PurgeCheckpointStore checkpoints;
+    private final ClusterManager clusterManager;
+    private final PluginHome pluginHome;
+    private final AttachmentMetadataStore metadataStore;
+    private final PurgeMetrics metrics;
+    private final RunHistoryStore runHistory;
+    private final DataRemovalJournal dataRemoval;
+    private final ContentDigestStore digests;
+    private final String nodeId;
+    private final AtomicBoolean running = new AtomicBoolean();
 
     /**
      * Creates a new {@code PurgeAttachmentsJob} instance.
@@ -95,48 +172,44 @@ public class PurgeAttachmentsJob implements JobRunner {
                                PurgeAttachmentsSettingsService purgeAttachmentsSettingsService,
                                MultiQueueTaskManager mailQueueTaskManager,
                                SettingsManager settingsManager,
-                               TransactionTemplate transactionTemplate) {
+                               TransactionTemplate transactionTemplate,
+                               PurgeAttachmentsDao purgeAttachmentsDao,
+                               AgeExpiryIndex ageExpiryIndex,
+                               PurgeCheckpointStore purgeCheckpointStore,
+                               ClusterManager clusterManager,
+                               PluginHome pluginHome,
+                               AttachmentMetadataStore attachmentMetadataStore,
+                               PurgeMetrics purgeMetrics,
+                               RunHistoryStore runHistoryStore,
+                               DataRemovalJournal dataRemovalJournal,
+                               ContentDigestStore contentDigestStore) {
         this.attachmentManager = attachmentManager;
         this.spaceManager = spaceManager;
         this.settingSvc = purgeAttachmentsSettingsService;
         this.mailQueueTaskManager = mailQueueTaskManager;
         this.settingsManager = settingsManager;
         this.transactionTemplate = transactionTemplate;
+        this.purgeDao = purgeAttachmentsDao;
+        this.ageExpiryIndex = ageExpiryIndex;
+        this.checkpoints = purgeCheckpointStore;
+        this.clusterManager = clusterManager;
+        this.pluginHome = pluginHome;
+        this.metadataStore = attachmentMetadataStore;
+        this.metrics = purgeMetrics;
+        this.runHistory = runHistoryStore;
+        this.dataRemoval = dataRemovalJournal;
+        this.digests = contentDigestStore;
+        this.nodeId = createNodeId();
     }
 
-    private PurgeAttachmentSettings getSettings(String key, PurgeAttachmentSettings dflt) {
-        if (key == null) {
-            return null;
-        }
-        PurgeAttachmentSettings sng = settingSvc.getSettings(key);
-
-        // Use global.
-        if (sng == null || sng.getMode() == PurgeAttachmentSettings.MODE_GLOBAL) {
-            return dflt;
-        }
-
-        // Explicitely disabled.
-        if (sng.getMode() == PurgeAttachmentSettings.MODE_DISABLED) {
-            sng = null;
+    private static String createNodeId() {
+        String host;
+        try {
+            host = InetAddress.getLocalHost().getHostName();
+        } catch (UnknownHostException ex) {
+            host = "unknown";
         }
-
-        return sng;
-    }
-
-    private Map<String, PurgeAttachmentSettings> getAllSpaceSettings(PurgeAttachmentSettings defaultSetting) {
-        return spaceManager.getAllSpaceKeys(SpaceStatus.CURRENT).stream()
-                .filter(k -> k != null)
-                .map(k -> new ImmutablePair<>(k, getSettings(k, defaultSetting)))
-                .filter(n -> n.right != null)
-                .collect(toMap(k -> k.left, k -> k.right));
-    }
-
-    private PurgeAttachmentSettings getSystemSettings() {
-        PurgeAttachmentSettings res = settingSvc.getSettings();
-        if (res == null) {
-            res = settingSvc.createDefault();
-        }
-        return res;
+        return host + "-" + UUID.randomUUID();
     }
 
     public static <T> ImmutablePair<Duration, T> time(Supplier<T> r) {
@@ -153,216 +226,1486 @@ public class PurgeAttachmentsJob implements JobRunner {
 
     @Override
     public JobRunnerResponse runJob(JobRunnerRequest req) {
+        if (!running.compareAndSet(false, true)) {
+            LOG.warn("Purge attachment revisions is already running on this node, skipping.");
+            return JobRunnerResponse.aborted("Purge attachment revisions is already running.");
+        }
         LOG.info("Purge attachment revisions started.");
+        metrics.runStarted();
         try {
-            LocalDateTime start = LocalDateTime.now();
-
-            PurgeAttachmentSettings systemSettings = getSystemSettings();
-            Map<String, PurgeAttachmentSettings> spaceSettings = getAllSpaceSettings(systemSettings);
+            settingSvc.revalidate();
+            PurgeAttachmentSettings systemSettings = settingSvc.getSystemSettings();
+            MaintenanceWindow window = MaintenanceWindow.of(systemSettings);
+            if (window != null && !window.isOpen(LocalDateTime.now())) {
+                LOG.info("Outside of the maintenance window {}, skipping.", window);
+                return JobRunnerResponse.aborted("Outside of the maintenance window " + window + ".");
+            }
+            // Settings are resolved as each space is visited.
+            List<String> spaceKeys = purgeDao.findCandidateSpaceKeys();
 
             if (LOG.isDebugEnabled()) {
                 LOG.debug("System settings: {}", systemSettings);
-                spaceSettings.forEach((k, v) -> LOG.debug("Space Settings: {} -> {}", k, v));
+                LOG.debug("{} spaces contain attachments with prior versions.", spaceKeys.size());
             }
 
-            Map<String, List<MailLogEntry>> mailEntries = new HashMap<>();
-
-            long[] counters = new long[COUNTER_ARRAY_SIZE];
-
-            ImmutablePair<Duration, ArrayDeque<Long>> findAll
-                    = time(() -> attachmentManager.getAttachmentDao().findAll()
-                    .stream()
-                    .map(Attachment::getId).collect(toCollection(ArrayDeque::new)));
-            LOG.debug("Got {} attachments in {}.", findAll.right.size(), findAll.left);
+            if (clusterManager.isClustered()) {
+                runClustered(req, systemSettings, spaceKeys);
+            } else {
+                runLocal(req, systemSettings, spaceKeys);
+            }
+        } catch (MailException ex) {
+            LOG.error("Exception raised while trying to mail results.", ex);
+            return JobRunnerResponse.failed("Task completed but could not email.");
+        } catch (Throwable ex) {
+            LOG.error("Purge attachment revisions failed: {}", ex.getMessage(), ex);
+            return JobRunnerResponse.failed(ex);
+        } finally {
+            metrics.runFinished();
+            running.set(false);
+        }
+        LOG.info("Purge attachment revisions completed.");
+        return JobRunnerResponse.success();
+    }
 
-            ArrayDeque<Long> ids = findAll.right;
+    private void runLocal(JobRunnerRequest req,
+                          PurgeAttachmentSettings systemSettings,
+                          List<String> spaceKeys) throws Exception {
+        // Load all scans return identifiers out of order and can not be resumed.
+        boolean checkpointing = systemSettings.getScanMode() != PurgeAttachmentSettings.SCAN_MODE_FIND_ALL;
+        PurgeCheckpoint checkpoint = checkpointing
+                                     ? checkpoints.load(Duration.ofHours(systemSettings.getCheckpointExpiryHoursOrDefault()))
+                                     : null;
+
+        PurgeRunState state = settingSvc.getRunState();
+        LocalDateTime start;
+        Date modifiedAfter;
+        if (checkpoint != null) {
+            LOG.info("Resuming run started {} from checkpoint: {}", checkpoint.getStart(), checkpoint);
+            start = checkpoint.getStart();
+            modifiedAfter = checkpoint.getModifiedAfter();
+        } else {
+            checkpoints.clear();
+            start = LocalDateTime.now();
+            modifiedAfter = getModifiedAfter(systemSettings, state, start);
+        }
+        logSweep(modifiedAfter);
 
-            while (!ids.isEmpty() && !req.isCancellationRequested()) {
-                LOG.debug("Processing batch {}; {} atttachments remain", ++counters[IDX_BATCHES], ids.size());
-                transactionTemplate.execute(() -> {
-                    AttachmentDao dao = attachmentManager.getAttachmentDao();
-                    for (int i = 0; i < BATCH_SIZE && !ids.isEmpty() && !req.isCancellationRequested(); i++) {
-                        Attachment attachment = attachmentManager.getAttachment(ids.poll());
-                        process(attachment,
-                                counters,
-                                spaceSettings.get(attachment.getSpaceKey()),
-                                systemSettings,
-                                dao,
-                                mailEntries);
-                    }
-                    return null;
-                });
+        PurgeRun run = new PurgeRun(req, start, systemSettings, spaceKeys, modifiedAfter, checkpointing);
+        try {
+            if (checkpoint != null) {
+                run.restore(checkpoint);
             }
+            run.execute();
 
+            boolean partial = run.isPartial();
             if (req.isCancellationRequested()) {
                 LOG.warn("Attachment purging has been cancelled.");
+                if (checkpointing) {
+                    LOG.info("The next run will resume from the last checkpoint.");
+                }
+            } else if (partial) {
+                LOG.info(checkpointing
+                         ? "Attachment purging paused, the next run will continue from here."
+                         : "Attachment purging paused, load all scans restart on the next run.");
+            } else {
+                advanceRunState(systemSettings, state, start, modifiedAfter, run.counters);
+                checkpoints.clear();
             }
+            refreshSnapshot(run.touched, modifiedAfter == null && !partial && !req.isCancellationRequested());
 
-            LocalDateTime end = LocalDateTime.now();
-            long ms = Duration.between(start, end).toMillis();
+            report(systemSettings, start, run.counters, run.mailEntries, req.isCancellationRequested(), partial);
+        } finally {
+            run.mailEntries.close();
+        }
+    }
 
-            LOG.info("{} prior versions visited for {} attachments.",
-                     counters[IDX_PRIOR_VERSIONS],
-                     counters[IDX_CURRENT_VERSIONS]);
-            if (counters[IDX_CURRENT_VISITED] > 0) {
-                LOG.info("Visited {} attachments averaging {} ms per visit.",
-                         counters[IDX_CURRENT_VISITED],
-                         counters[IDX_CURRENT_VISITED] == 0 ? 0 : Math.round(ms / (double) counters[IDX_CURRENT_VISITED]));
+    /**
+     * Take part in the run shared by all cluster nodes.
+     *
+     * <p>
+     * Every node runs this job and claims partitions of the shared run. Only
+     * the coordinating node reports, once every partition is done.
+     * Checkpoints are not used, an unfinished run is completed by the next
+     * run on any node.
+     */
+    private void runClustered(JobRunnerRequest req,
+                              PurgeAttachmentSettings systemSettings,
+                              List<String> spaceKeys) throws Exception {
+        PurgeRunState state = settingSvc.getRunState();
+        ShardCoordinator coordinator = new ShardCoordinator(
+                new FileLeaseStore(pluginHome.resolve("leases")),
+                nodeId,
+                Duration.ofSeconds(systemSettings.getClusterLeaseSecondsOrDefault()));
+        ClusterRun cluster = coordinator.join(() -> {
+            LocalDateTime now = LocalDateTime.now();
+            return new ClusterRun(UUID.randomUUID().toString(),
+                                  now,
+                                  getModifiedAfter(systemSettings, state, now),
+                                  createPartitions(systemSettings, spaceKeys));
+        });
+        logSweep(cluster.getModifiedAfter());
+
+        PurgeRun run = new PurgeRun(req, cluster.getStart(), systemSettings, spaceKeys, cluster.getModifiedAfter(), false);
+        run.join(coordinator, cluster);
+        try {
+            NodeResult previous = (NodeResult) coordinator.getResult(cluster);
+            if (previous != null) {
+                // Continuing a paused run, carry over what this node did before.
+                run.restore(previous);
             }
-            if (counters[IDX_DELETED] > 0) {
-                LOG.info("Deleted {} individual versions averaging {} ms per deletion.",
-                         counters[IDX_DELETED],
-                         Math.round(counters[IDX_DELETED_TIME] / (double) counters[IDX_DELETED]));
+            run.execute();
+        } finally {
+            // Entries are published to the cluster run before execute returns.
+            run.mailEntries.close();
+        }
+
+        if (req.isCancellationRequested()) {
+            LOG.warn("Attachment purging has been cancelled on this node.");
+        }
+        boolean complete = coordinator.isComplete(cluster, Collections.emptySet());
+        if (!coordinator.isCoordinator(cluster) || !complete && !run.paused) {
+            LOG.info("Node {} has finished its part of {}, results are reported by the coordinating node.",
+                     nodeId, cluster);
+            return;
+        }
+
+        AtomicLongArray counters = new AtomicLongArray(COUNTER_ARRAY_SIZE);
+        Set<Long> touched = new HashSet<>();
+        Set<Path> entryFiles = new HashSet<>();
+        try (MailLogAggregator entries = createMailLogAggregator(systemSettings)) {
+            for (Serializable r : coordinator.getResults(cluster)) {
+                NodeResult nr = (NodeResult) r;
+                mergeCounters(counters, nr.counters);
+                Path file = getReportsDir().resolve(nr.entriesFile);
+                entries.addAll(file);
+                entryFiles.add(file);
+                for (long id : nr.touched) {
+                    touched.add(id);
+                }
+            }
+            if (complete) {
+                advanceRunState(systemSettings, state, cluster.getStart(), cluster.getModifiedAfter(), counters);
+                coordinator.finish(cluster);
+            } else {
+                LOG.info("Attachment purging paused, the next run will continue {}.", cluster);
+            }
+            refreshSnapshot(touched, complete && cluster.getModifiedAfter() == null);
+
+            report(systemSettings, cluster.getStart(), counters, entries, false, !complete);
+        }
+        if (complete) {
+            for (Path f : entryFiles) {
+                Files.deleteIfExists(f);
+            }
+        }
+    }
+
+    private Path getReportsDir() {
+        return pluginHome.resolve("reports");
+    }
+
+    private MailLogAggregator createMailLogAggregator(PurgeAttachmentSettings systemSettings) {
+        return new MailLogAggregator(getReportsDir(), systemSettings.getReportMemoryMiBOrDefault() * 1024L * 1024L);
+    }
+
+    /**
+     * Bring the attachment metadata snapshot up to date with what a run has
+     * purged. A failure leaves the previous snapshot in place.
+     */
+    private void refreshSnapshot(Collection<Long> touched, boolean full) {
+        try {
+            metadataStore.refresh(touched, full);
+        } catch (RuntimeException ex) {
+            LOG.warn("Could not refresh the attachment metadata snapshot: {}", ex.getMessage(), ex);
+        }
+    }
+
+    private void recordHistory(PurgeAttachmentSettings systemSettings,
+                               LocalDateTime start,
+                               LocalDateTime end,
+                               AtomicLongArray counters,
+                               boolean cancelled,
+                               boolean partial) {
+        ZoneId zone = ZoneId.systemDefault();
+        RunHistoryEntry entry = new RunHistoryEntry(start.atZone(zone).toInstant(),
+                                                    end.atZone(zone).toInstant(),
+                                                    counters.get(IDX_CURRENT_VISITED),
+                                                    counters.get(IDX_DELETED),
+                                                    counters.get(IDX_DELETED_BYTES),
+                                                    counters.get(IDX_DELETED_TIME),
+                                                    cancelled,
+                                                    partial,
+                                                    nodeId);
+        try {
+            runHistory.add(entry, systemSettings.getHistoryMaxRunsOrDefault());
+        } catch (RuntimeException ex) {
+            LOG.warn("Could not record run history: {}", ex.getMessage(), ex);
+        }
+    }
+
+    private static void logSweep(Date modifiedAfter) {
+        if (modifiedAfter == null) {
+            LOG.info("Performing a full sweep of all attachments.");
+        } else {
+            LOG.info("Visiting attachments modified since {}.", modifiedAfter);
+        }
+    }
+
+    private static List<ScanPartition> createPartitions(PurgeAttachmentSettings systemSettings,
+                                                        List<String> spaceKeys) {
+        List<ScanPartition> res = new ArrayList<>();
+        if (systemSettings.getScanMode() == PurgeAttachmentSettings.SCAN_MODE_FIND_ALL) {
+            res.add(ScanPartition.ALL);
+        } else {
+            spaceKeys.stream().sorted().map(ScanPartition::ofSpace).forEach(res::add);
+            res.add(ScanPartition.NO_SPACE);
+        }
+        return res;
+    }
+
+    /**
+     * Determine when a run starting now must pause, the earlier of the end of
+     * its time budget and the close of the maintenance window.
+     *
+     * @return  the deadline, or {@code null} if the run may take as long as it
+     *          needs.
+     */
+    private static LocalDateTime getDeadline(PurgeAttachmentSettings systemSettings, LocalDateTime now) {
+        LocalDateTime res = systemSettings.getRunBudgetMinutes() > 0
+                            ? now.plusMinutes(systemSettings.getRunBudgetMinutes())
+                            : null;
+        MaintenanceWindow window = MaintenanceWindow.of(systemSettings);
+        LocalDateTime close = window == null ? null : window.getClose(now);
+        if (close != null && (res == null || close.isBefore(res))) {
+            res = close;
+        }
+        return res;
+    }
+
+    /**
+     * Record the high-water mark of a completed run.
+     */
+    private void advanceRunState(PurgeAttachmentSettings systemSettings,
+                                 PurgeRunState state,
+                                 LocalDateTime start,
+                                 Date modifiedAfter,
+                                 AtomicLongArray counters) {
+        if (systemSettings.getDeleteLimit() > 0 && counters.get(IDX_PROCESS_LIMIT) >= systemSettings.getDeleteLimit()) {
+            // Attachments left by the limit are unmodified, keep the mark so they are visited again.
+            LOG.info("Delete limit reached, high-water mark not advanced.");
+            return;
+        }
+        Date started = toDate(start);
+        settingSvc.setRunState(new PurgeRunState(started,
+                                                 modifiedAfter == null || state == null ? started : state.getLastFullSweep()));
+    }
+
+    /**
+     * Combine counters published by another node.
+     */
+    private static void mergeCounters(AtomicLongArray counters, long[] values) {
+        for (int i = 0; i < values.length && i < COUNTER_ARRAY_SIZE; i++) {
+            long v = values[i];
+            if (i == IDX_BATCH_SIZE_MIN) {
+                counters.accumulateAndGet(i, v, (a, b) -> a == 0 ? b : b == 0 ? a : Math.min(a, b));
+            } else if (i == IDX_BATCH_SIZE_MAX) {
+                counters.accumulateAndGet(i, v, Math::max);
+            } else {
+                counters.addAndGet(i, v);
             }
-            LOG.info("A further {} versions are available for deleting.",
-                     counters[IDX_DELETE_AVAIL]);
-            LOG.info("Attachment purging completed in {} ms.", ms);
+        }
+    }
+
+    /**
+     * Describe the rate versions were deleted at over a whole run, including
+     * time spent waiting on the throttle.
+     */
+    private static String getEffectiveRate(AtomicLongArray counters, long ms) {
+        double secs = Math.max(1, ms) / 1000d;
+        return String.format("%.1f versions/s, %s/s",
+                             counters.get(IDX_DELETED) / secs,
+                             FileSize.format(Math.round(counters.get(IDX_DELETED_BYTES) / secs)));
+    }
+
+    private void report(PurgeAttachmentSettings systemSettings,
+                        LocalDateTime start,
+                        AtomicLongArray counters,
+                        MailLogAggregator entries,
+                        boolean cancelled,
+                        boolean partial) throws MailException {
+        LocalDateTime end = LocalDateTime.now();
+        long ms = Duration.between(start, end).toMillis();
+        recordHistory(systemSettings, start, end, counters, cancelled, partial);
+
+        LOG.info("{} prior versions visited for {} attachments.",
+                 counters.get(IDX_PRIOR_VERSIONS),
+                 counters.get(IDX_CURRENT_VERSIONS));
+        LOG.info("{} attachments skipped by the candidate filter.",
+                 counters.get(IDX_PREFILTER_SKIPPED));
+        if (counters.get(IDX_CURRENT_VISITED) > 0) {
+            LOG.info("Visited {} attachments averaging {} ms per visit.",
+                     counters.get(IDX_CURRENT_VISITED),
+                     counters.get(IDX_CURRENT_VISITED) == 0 ? 0 : Math.round(ms / (double) counters.get(IDX_CURRENT_VISITED)));
+        }
+        if (counters.get(IDX_DELETED) > 0) {
+            LOG.info("Deleted {} individual versions averaging {} ms per deletion.",
+                     counters.get(IDX_DELETED),
+                     Math.round(counters.get(IDX_DELETED_TIME) / (double) counters.get(IDX_DELETED)));
+        }
+        if (counters.get(IDX_BATCHES) > 0) {
+            LOG.info("Processed {} batches of {} to {} attachments averaging {} attachments in {} ms.",
+                     counters.get(IDX_BATCHES),
+                     counters.get(IDX_BATCH_SIZE_MIN),
+                     counters.get(IDX_BATCH_SIZE_MAX),
+                     Math.round(counters.get(IDX_BATCH_ITEMS) / (double) counters.get(IDX_BATCHES)),
+                     Math.round(counters.get(IDX_BATCH_TIME) / (double) counters.get(IDX_BATCHES)));
+        }
+        if (counters.get(IDX_PIPELINE_WAIT) > 0) {
+            LOG.info("Evaluation waited {} ms for deletions to catch up.",
+                     counters.get(IDX_PIPELINE_WAIT));
+        }
+        if (counters.get(IDX_THROTTLE_WAIT) > 0) {
+            LOG.info("Throttling waited {} ms and backed off {} times.",
+                     counters.get(IDX_THROTTLE_WAIT),
+                     counters.get(IDX_THROTTLE_BACKOFFS));
+        }
+        if (counters.get(IDX_DELETED) > 0) {
+            LOG.info("Effective deletion rate {}.", getEffectiveRate(counters, ms));
+        }
+        LOG.info("A further {} versions are available for deleting.",
+                 counters.get(IDX_DELETE_AVAIL));
+        LOG.info("Attachment purging completed in {} ms.", ms);
 
+        long mailStart = System.nanoTime();
+        try {
             if (systemSettings.isSendPlainTextMail()) {
-                mailResultsPlain(mailEntries,
+                mailResultsPlain(entries,
                                  start,
                                  end,
                                  counters,
-                                 req.isCancellationRequested());
+                                 cancelled,
+                                 partial);
             } else {
-                mailResultsHtml(mailEntries,
+                mailResultsHtml(entries,
                                 start,
                                 end,
                                 counters,
-                                req.isCancellationRequested());
+                                cancelled,
+                                partial);
             }
-        } catch (MailException ex) {
-            LOG.error("Exception raised while trying to mail results.", ex);
-            return JobRunnerResponse.failed("Task completed but could not email.");
-        } catch (Throwable ex) {
-            LOG.error("Purge attachment revisions failed: {}", ex.getMessage(), ex);
-            return JobRunnerResponse.failed(ex);
+        } finally {
+            metrics.getTimer(PurgeMetrics.Phase.MAIL).record(System.nanoTime() - mailStart);
         }
-        LOG.info("Purge attachment revisions completed.");
-        return JobRunnerResponse.success();
     }
 
-    private void process(Attachment attachment,
-                         long[] counters,
-                         PurgeAttachmentSettings settings,
+    /**
+     * Determine whether this run may be incremental.
+     *
+     * <p>
+     * The age rule makes versions eligible without their attachment being
+     * modified, so a full sweep is made every {@code fullSweepDays}. A full
+     * sweep is also made when no previous run has completed, after settings
+     * have changed, or when loading all attachments.
+     *
+     * @return  high-water mark to visit attachments modified after, or
+     *          {@code null} for a full sweep.
+     */
+    private static Date getModifiedAfter(PurgeAttachmentSettings systemSettings,
+                                         PurgeRunState state,
+                                         LocalDateTime start) {
+        if (systemSettings.getFullSweepDays() <= 0 ||
+            systemSettings.getScanMode() == PurgeAttachmentSettings.SCAN_MODE_FIND_ALL ||
+            state == null ||
+            state.getHighWaterMark() == null ||
+            state.getLastFullSweep() == null) {
+            return null;
+        }
+        Date due = toDate(start.minusDays(systemSettings.getFullSweepDays()));
+        return state.getLastFullSweep().after(due) ? state.getHighWaterMark() : null;
+    }
+
+    private static Date toDate(LocalDateTime dt) {
+        return Date.from(dt.atZone(ZoneId.systemDefault()).toInstant());
+    }
+
+    /**
+     * Only a full load can queue an unbounded number of identifiers, so only
+     * then allow the work queue to spill to a temporary file.
+     */
+    private LongQueue createWorkQueue(PurgeAttachmentSettings systemSettings) {
+        return systemSettings.getScanMode() == PurgeAttachmentSettings.SCAN_MODE_FIND_ALL
+               ? new LongQueue(LongQueue.DEFAULT_CHUNK_SIZE,
+                               MAX_WORK_QUEUE_MEMORY_CHUNKS,
+                               Paths.get(System.getProperty("java.io.tmpdir")))
+               : new LongQueue();
+    }
+
+    private boolean fill(AttachmentIdScanner scanner, LongQueue ids) {
+        ImmutablePair<Duration, Boolean> res = time(() -> transactionTemplate.execute(() -> scanner.fill(ids)));
+        metrics.getTimer(PurgeMetrics.Phase.SCAN).record(res.left);
+        LOG.debug("Scanned {} attachment ids in {}; queue holds {} bytes in memory and {} ids spilled.",
+                  ids.size(), res.left, ids.memoryUsage(), ids.spilledSize());
+        return res.right;
+    }
+
+    /**
+     * Increment a counter unless it has reached the given limit.
+     *
+     * @param   limit
+     *          Limit to apply, {@code 0} for no limit.
+     * @return  {@code true} if the counter was incremented.
+     */
+    private static boolean incrementWithin(AtomicLong counter, long limit) {
+        long cur;
+        do {
+            cur = counter.get();
+            if (limit > 0 && cur >= limit) {
+                return false;
+            }
+        } while (!counter.compareAndSet(cur, cur + 1));
+        return true;
+    }
+
+
+    /**
+     * State of a single execution of the job.
+     *
+     * <p>
+     * Attachments are partitioned by space and each partition is processed
+     * entirely by one worker, running its own transactions, so two workers
+     * never visit the same attachment history. Counters and report entries
+     * are shared between all workers.
+     *
+     * <p>
+     * After each batch a checkpoint is saved holding every partition's cursor
+     * along with counters and report entries, so that a cancelled or failed run
+     * may be resumed. A cursor never passes an attachment whose versions are
+     * still queued for deletion; such attachments are evaluated again on
+     * resume.
+     */
+    private final class PurgeRun {
+
+        private final JobRunnerRequest req;
+        private final LocalDateTime start;
+        private final PurgeAttachmentSettings systemSettings;
+        private final List<String> spaceKeys;
+        private final Date modifiedAfter;
+        private final AttachmentBatchLoader loader = new AttachmentBatchLoader(purgeDao, metrics);
+        private final AtomicLongArray counters = new AtomicLongArray(COUNTER_ARRAY_SIZE);
+        /**
+         * Attachments whose deletions are queued or committed, the delete
+         * limit is applied to these while only those committed are counted.
+         */
+        private final AtomicLong reserved = new AtomicLong();
+        private final MailLogAggregator mailEntries;
+        private final Queue<ScanPartition> partitions = new ConcurrentLinkedQueue<>();
+        private final BatchSizeController deleteBatchSize;
+        private final DeletionThrottle throttle;
+        private final boolean checkpointing;
+        private final Set<ScanPartition> completed = ConcurrentHashMap.newKeySet();
+        private final Map<ScanPartition, Long> cursors = new ConcurrentHashMap<>();
+        private final Map<ScanPartition, NavigableSet<Long>> retries = new ConcurrentHashMap<>();
+        private final InFlightAttachments inFlight = new InFlightAttachments();
+        private long entriesLength;
+        private ShardCoordinator coordinator;
+        private ClusterRun cluster;
+        private final Set<ScanPartition> held = ConcurrentHashMap.newKeySet();
+        private final Set<Long> touched = ConcurrentHashMap.newKeySet();
+        private final Map<PurgeAttachmentSettings, PurgeRuleSet> ruleSets = new ConcurrentHashMap<>();
+        private PipelineStage<DeletionWork> deletions;
+        /**
+         * Backoffs of the throttle already added to the counters, only used
+         * by the delete stage.
+         */
+        private long backoffsCounted;
+        private final LocalDateTime deadline;
+        private List<ScanPartition> all;
+        private volatile boolean failed;
+        private volatile boolean paused;
+
+        private PurgeRun(JobRunnerRequest req,
+                         LocalDateTime start,
                          PurgeAttachmentSettings systemSettings,
-                         AttachmentDao dao,
-                         Map<String, List<MailLogEntry>> mailEntries) {
-        counters[IDX_CURRENT_VERSIONS]++;
+                         List<String> spaceKeys,
+                         Date modifiedAfter,
+                         boolean checkpointing) {
+            this.req = req;
+            this.start = start;
+            this.systemSettings = systemSettings;
+            this.spaceKeys = spaceKeys;
+            this.modifiedAfter = modifiedAfter;
+            this.checkpointing = checkpointing;
+            this.deleteBatchSize = BatchSizeController.of(systemSettings);
+            this.throttle = DeletionThrottle.of(systemSettings);
+            this.deadline = getDeadline(systemSettings, LocalDateTime.now());
+            this.mailEntries = createMailLogAggregator(systemSettings);
+        }
 
-        if (attachment.getVersion() == 1) {
-            LOG.trace("Skipping only attachment version {}", attachment.getId());
-            return;
+        /**
+         * Claim partitions of a cluster run rather than processing all.
+         */
+        private void join(ShardCoordinator coordinator, ClusterRun cluster) {
+            this.coordinator = coordinator;
+            this.cluster = cluster;
         }
 
-        if (settings == null) {
-            settings = systemSettings;
+        private void restore(NodeResult result) throws IOException {
+            for (int i = 0; i < result.counters.length && i < COUNTER_ARRAY_SIZE; i++) {
+                counters.set(i, result.counters[i]);
+            }
+            reserved.set(counters.get(IDX_PROCESS_LIMIT));
+            mailEntries.addAll(getReportsDir().resolve(result.entriesFile));
+            for (long id : result.touched) {
+                touched.add(id);
+            }
         }
 
-        counters[IDX_CURRENT_VISITED]++;
+        @SuppressWarnings("unchecked")
+        private void restore(PurgeCheckpoint checkpoint) {
+            long[] values = checkpoint.getCounters();
+            for (int i = 0; i < values.length && i < COUNTER_ARRAY_SIZE; i++) {
+                counters.set(i, values[i]);
+            }
+            reserved.set(counters.get(IDX_PROCESS_LIMIT));
+            completed.addAll(checkpoint.getCompleted());
+            cursors.putAll(checkpoint.getCursors());
+            checkpoint.getRetries().forEach((p, ids) -> retries.put(p, new ConcurrentSkipListSet<>(ids)));
+            checkpoints.readEntries(checkpoint, o -> {
+                ImmutablePair<String, MailLogEntry> e = (ImmutablePair<String, MailLogEntry>) o;
+                mailEntries.add(e.left, e.right);
+            });
+            entriesLength = checkpoint.getEntriesLength();
+        }
 
-        List<Attachment> prior = attachmentManager.getPreviousVersions(attachment);
-        counters[IDX_PRIOR_VERSIONS] += prior.size();
+        /**
+         * Record what a batch evaluated and save a checkpoint.
+         *
+         * <p>
+         * Counters of the batch are only added here so that a checkpoint
+         * saved by another worker never counts attachments beyond the cursor.
+         * Attachments queued for deletion are held to be evaluated again on
+         * resume until their deletions commit.
+         *
+         * @param   batch
+         *          Attachments of the batch.
+         * @param   lastId
+         *          Last attachment evaluated, every attachment of the batch
+         *          before it has been evaluated.
+         * @param   retrying
+         *          Whether the batch evaluated attachments of a checkpoint
+         *          again rather than advancing the cursor.
+         * @param   skipped
+         *          Attachments of the batch before {@code lastId} left
+         *          unevaluated, which are evaluated again on resume.
+         * @param   tally
+         *          Counters of the batch.
+         * @param   pending
+         *          Deletions queued by the batch.
+         * @param   entries
+         *          Report entries of the batch.
+         */
+        private synchronized void checkpoint(ScanPartition partition,
+                                             List<Long> batch,
+                                             long lastId,
+                                             boolean retrying,
+                                             Collection<Long> skipped,
+                                             long[] tally,
+                                             List<DeletionWork> pending,
+                                             List<ImmutablePair<String, MailLogEntry>> entries) {
+            for (int i = 0; i < tally.length; i++) {
+                if (tally[i] != 0) {
+                    counters.addAndGet(i, tally[i]);
+                }
+            }
+            if (!checkpointing) {
+                return;
+            }
+            for (DeletionWork w : pending) {
+                inFlight.add(partition, w.attachmentId, w.priorVersions);
+            }
+            if (retrying) {
+                NavigableSet<Long> ids = retries.get(partition);
+                if (ids != null) {
+                    batch.stream().filter(id -> id <= lastId).forEach(ids::remove);
+                }
+            } else if (lastId > 0) {
+                cursors.merge(partition, lastId, Math::max);
+            }
+            if (!skipped.isEmpty()) {
+                retries.computeIfAbsent(partition, k -> new ConcurrentSkipListSet<>()).addAll(skipped);
+            }
+            entriesLength = checkpoints.append(entries);
+            saveCheckpoint();
+        }
 
-        List<Attachment> toDelete = findDeletions(prior, settings);
-        Set<Integer> badVersions = toDelete.stream()
-                .filter(n -> n.getVersion() >= attachment.getVersion())
-                .map(n -> n.getVersion())
-                .collect(toSet());
-        if (badVersions.size() > 0) {
-            LOG.error("Attachment with versions to delete > current version: {}:{} :- {} ({}) :: {}",
-                      attachment.getSpaceKey(),
-                      attachment.getSpace().getName(),
-                      attachment.getDisplayTitle(),
-                      attachment.getVersion(),
-                      badVersions);
-        } else if (!toDelete.isEmpty()) {
-            boolean canUpdate
-                    = !settings.isReportOnly() &&
-                      !systemSettings.isReportOnly() &&
-                      (systemSettings.getDeleteLimit() == 0 ||
-                       counters[IDX_PROCESS_LIMIT] < systemSettings.getDeleteLimit());
+        /**
+         * Save a checkpoint, attachments whose deletions have not committed
+         * are recorded to be evaluated again and are not counted.
+         */
+        private synchronized void saveCheckpoint() {
+            if (!checkpointing) {
+                return;
+            }
+            Map<ScanPartition, Set<Long>> retry = inFlight.getIds();
+            retries.forEach((p, ids) -> {
+                if (!ids.isEmpty()) {
+                    retry.computeIfAbsent(p, k -> new TreeSet<>()).addAll(ids);
+                }
+            });
+            long[] values = new long[COUNTER_ARRAY_SIZE];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = counters.get(i);
+            }
+            int held = inFlight.size();
+            values[IDX_CURRENT_VERSIONS] -= held;
+            values[IDX_CURRENT_VISITED] -= held;
+            values[IDX_PRIOR_VERSIONS] -= inFlight.getPriorVersions();
+            values[IDX_DELETE_AVAIL] -= inFlight.getDiscardedVersions();
+            checkpoints.save(new PurgeCheckpoint(start, modifiedAfter, values, completed, cursors, retry, entriesLength, paused));
+        }
 
-            if (canUpdate) {
-                counters[IDX_PROCESS_LIMIT]++;
+        /**
+         * Deletions have committed, release their attachments from the cursor
+         * and journal their report entries.
+         */
+        private synchronized void committed(List<DeletionWork> work) {
+            List<ImmutablePair<String, MailLogEntry>> entries = new ArrayList<>();
+            for (DeletionWork w : work) {
+                report(w.entry, w.recipients, entries);
+                inFlight.remove(w.partition, w.attachmentId);
+                touched.add(w.attachmentId);
+            }
+            counters.addAndGet(IDX_PROCESS_LIMIT, work.size());
+            if (checkpointing) {
+                entriesLength = checkpoints.append(entries);
             }
+        }
 
-            long spaceSaved = toDelete.stream().map(p -> {
-                LOG.debug("Attachment to remove {}", p.getId());
-                if (canUpdate) {
-                    Duration dur = time(() -> dao.removeAttachmentVersionFromServer(p));
-                    counters[IDX_DELETED]++;
-                    counters[IDX_DELETED_TIME] += dur.toMillis();
-                } else {
-                    counters[IDX_DELETE_AVAIL]++;
+        /**
+         * Evaluate all partitions while deleting versions on a separate stage.
+         */
+        private void execute() throws InterruptedException, ExecutionException {
+            if (deadline != null) {
+                LOG.info("Run will pause at {}.", deadline);
+            }
+            if (coordinator == null) {
+                all = createPartitions(systemSettings, spaceKeys);
+                partitions.addAll(all);
+                partitions.removeIf(p -> completed.contains(p) && !retries.containsKey(p));
+            }
+
+            deletions = new PipelineStage<>("purge-attachments-deleter",
+                                            DELETE_QUEUE_CAPACITY,
+                                            deleteBatchSize::getBatchSize,
+                                            this::delete,
+                                            this::discard,
+                                            req::isCancellationRequested);
+            ScheduledExecutorService renewer = coordinator == null ? null : startLeaseRenewal();
+            try {
+                evaluate();
+            } catch (InterruptedException | ExecutionException | RuntimeException | Error ex) {
+                try {
+                    deletions.finish();
+                } catch (ExecutionException fex) {
+                    ex.addSuppressed(fex);
                 }
-                return p.getFileSize();
-            }).reduce(0L, (a, b) -> a + b);
+                saveCheckpoint();
+                publish(renewer);
+                throw ex;
+            }
+            deletions.finish();
+            saveCheckpoint();
+            publish(renewer);
+        }
 
-            if (isNotBlank(settings.getReportEmailAddress()) || isNotBlank(systemSettings.getReportEmailAddress())) {
-                MailLogEntry mle = new MailLogEntry(
-                        attachment,
-                        toDelete.stream().map(Attachment::getVersion).collect(toList()),
-                        !canUpdate,
-                        settings == systemSettings,
-                        spaceSaved);
+        private ScheduledExecutorService startLeaseRenewal() {
+            ScheduledExecutorService res = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread t = new Thread(r, "purge-attachments-lease-renewal");
+                t.setDaemon(true);
+                return t;
+            });
+            long period = Math.max(1, coordinator.getLeaseDuration().toMillis() / 3);
+            res.scheduleAtFixedRate(() -> {
+                try {
+                    coordinator.renew(cluster, held);
+                } catch (RuntimeException ex) {
+                    LOG.warn("Could not renew shard leases: {}", ex.getMessage(), ex);
+                }
+            }, period, period, TimeUnit.MILLISECONDS);
+            return res;
+        }
 
-                if (isNotBlank(settings.getReportEmailAddress())) {
-                    if (!mailEntries.containsKey(settings.getReportEmailAddress())) {
-                        mailEntries.put(settings.getReportEmailAddress(), new ArrayList<>());
+        /**
+         * Publish the result of this node to the cluster run once all of its
+         * deletions have completed.
+         */
+        private void publish(ScheduledExecutorService renewer) {
+            if (coordinator == null) {
+                return;
+            }
+            renewer.shutdownNow();
+            long[] values = new long[COUNTER_ARRAY_SIZE];
+            for (int i = 0; i < values.length; i++) {
+                values[i] = counters.get(i);
+            }
+            Set<ScanPartition> done = new HashSet<>(completed);
+            done.retainAll(held);
+            long[] ids = touched.stream().mapToLong(Long::longValue).toArray();
+            String entriesFile = "run-" + cluster.getId() + "-" + nodeId + ".bin";
+            try {
+                Files.createDirectories(getReportsDir());
+                mailEntries.writeTo(getReportsDir().resolve(entriesFile));
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            coordinator.publish(cluster, done, held, new NodeResult(values, entriesFile, ids));
+        }
+
+        private void evaluate() throws InterruptedException, ExecutionException {
+            int workers = Math.min(systemSettings.getWorkerThreadsOrDefault(), partitions.size());
+            LOG.debug("Processing {} partitions with {} workers.", partitions.size(), workers);
+            if (workers <= 1) {
+                work();
+                return;
+            }
+
+            AtomicInteger threadNumber = new AtomicInteger();
+            ExecutorService executor = Executors.newFixedThreadPool(workers, r -> {
+                Thread t = new Thread(r, "purge-attachments-worker-" + threadNumber.incrementAndGet());
+                t.setDaemon(true);
+                return t;
+            });
+            try {
+                List<Future<?>> futures = new ArrayList<>(workers);
+                for (int i = 0; i < workers; i++) {
+                    futures.add(executor.submit(this::work));
+                }
+                ExecutionException failure = null;
+                for (Future<?> f : futures) {
+                    try {
+                        f.get();
+                    } catch (ExecutionException ex) {
+                        if (failure == null) {
+                            failure = ex;
+                        }
                     }
-                    mailEntries.get(settings.getReportEmailAddress()).add(mle);
                 }
-                if (isNotBlank(systemSettings.getReportEmailAddress()) && !equalsIgnoreCase(settings.getReportEmailAddress(), systemSettings.getReportEmailAddress())) {
-                    if (!mailEntries.containsKey(systemSettings.getReportEmailAddress())) {
-                        mailEntries.put(systemSettings.getReportEmailAddress(), new ArrayList<>());
+                if (failure != null) {
+                    throw failure;
+                }
+            } finally {
+                executor.shutdownNow();
+            }
+        }
+
+        /**
+         * Checked between batches, which is where a run pauses once its
+         * deadline has passed.
+         */
+        private boolean isStopping() {
+            if (!paused && deadline != null && !LocalDateTime.now().isBefore(deadline)) {
+                LOG.info("Deadline {} reached, pausing.", deadline);
+                paused = true;
+            }
+            return paused || isAborting();
+        }
+
+        /**
+         * Checked within batches, a paused run still completes the batch it
+         * is in.
+         */
+        private boolean isAborting() {
+            return failed || req.isCancellationRequested();
+        }
+
+        /**
+         * @return  {@code true} if the run paused before visiting every
+         *          partition given to it.
+         */
+        private boolean isPartial() {
+            return paused && (all == null || !completed.containsAll(all) || !retries.isEmpty());
+        }
+
+        private void work() {
+            try {
+                BatchSizeController batchSize = BatchSizeController.of(systemSettings);
+                ScanPartition partition;
+                while (!isStopping() && (partition = nextPartition()) != null) {
+                    processPartition(partition, batchSize);
+                }
+            } catch (RuntimeException | Error ex) {
+                failed = true;
+                throw ex;
+            }
+        }
+
+        /**
+         * Take the next partition to process, for a cluster run claiming one
+         * of the shards. The coordinator waits for shards held by other nodes
+         * in case they must be taken over.
+         *
+         * @return  the partition, or {@code null} if there are none left.
+         */
+        private ScanPartition nextPartition() {
+            if (coordinator == null) {
+                return partitions.poll();
+            }
+            while (!isStopping()) {
+                ScanPartition res;
+                synchronized (held) {
+                    res = coordinator.claim(cluster, held);
+                    if (res != null) {
+                        held.add(res);
+                        return res;
                     }
-                    mailEntries.get(systemSettings.getReportEmailAddress()).add(mle);
+                }
+                if (coordinator.isComplete(cluster, held) || !coordinator.isCoordinator(cluster)) {
+                    return null;
+                }
+                try {
+                    Thread.sleep(CLUSTER_POLL_MILLIS);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return null;
                 }
             }
+            return null;
+        }
 
+        /**
+         * @return  settings for attachments in the given partition, or
+         *          {@code null} if they must be resolved per attachment.
+         */
+        private PurgeAttachmentSettings getPartitionSettings(ScanPartition partition) {
+            if (partition.isAll()) {
+                return null;
+            }
+            if (partition.isNoSpace()) {
+                return systemSettings;
+            }
+            return settingSvc.getResolvedSettings(partition.getSpaceKey());
         }
-    }
 
-    private List<Attachment> findDeletions(List<Attachment> prior, PurgeAttachmentSettings stng) {
-        if (prior == null || prior.isEmpty()) {
-            return Collections.<Attachment>emptyList();
+        private void processPartition(ScanPartition partition, BatchSizeController batchSize) {
+            PurgeAttachmentSettings settings = getPartitionSettings(partition);
+            if (settings == null && !partition.isAll()) {
+                LOG.debug("Skipping partition {} which is disabled.", partition);
+                completed.add(partition);
+                retries.remove(partition);
+                return;
+            }
+            if (completed.contains(partition)) {
+                // The expiry of a completed partition has been committed already.
+                if (retry(partition, settings, batchSize, null)) {
+                    saveCheckpoint();
+                }
+                return;
+            }
+            List<PurgeAttachmentSettings> filterSettings = new ArrayList<>();
+            if (settings == null) {
+                spaceKeys.stream()
+                        .map(settingSvc::getResolvedSettings)
+                        .filter(n -> n != null)
+                        .forEach(filterSettings::add);
+                filterSettings.add(systemSettings);
+            } else {
+                filterSettings.add(settings);
+            }
+            CandidateFilter filter = CandidateFilter.of(filterSettings, start).withModifiedAfter(modifiedAfter);
+
+            // Only space partitions are indexed, load all scans are always full sweeps.
+            boolean indexAge = settings != null && settings.isAgeRuleEnabled();
+            AgeExpiryIndex.Update expiry = null;
+            if (indexAge && modifiedAfter != null) {
+                // Modified attachments must be visited to be indexed even if no version is old enough yet.
+                filter = filter.withAnyPrior();
+                expiry = ageExpiryIndex.update(partition);
+            }
+            LOG.debug("Processing partition {} with {}", partition, filter);
+
+            if (!retry(partition, settings, batchSize, expiry)) {
+                return;
+            }
+
+            long afterId = cursors.getOrDefault(partition, 0L);
+            if (afterId > 0) {
+                LOG.info("Resuming partition {} after attachment {}.", partition, afterId);
+            }
+            AttachmentIdScanner scanner = AttachmentIdScanner.create(systemSettings, partition, filter, afterId, attachmentManager, purgeDao);
+            if (expiry != null) {
+                long[] due = ageExpiryIndex.readDue(partition, start.toLocalDate());
+                LOG.debug("{} attachments in {} are due for the age rule.", due.length, partition);
+                scanner = AttachmentIdScanner.merge(scanner, due);
+            }
+            try (LongQueue ids = createWorkQueue(systemSettings)) {
+                while (!isStopping() && (!ids.isEmpty() || fill(scanner, ids))) {
+                    processBatch(partition, settings, ids, batchSize, expiry, false);
+                }
+            }
+            counters.addAndGet(IDX_PREFILTER_SKIPPED, scanner.getSkipped());
+            metrics.skipped(scanner.getSkipped());
+
+            if (indexAge && !isStopping()) {
+                if (expiry == null) {
+                    expiry = ageExpiryIndex.update(partition);
+                    indexAgeExpiry(partition, settings.getMaxDaysOld(), expiry);
+                }
+                expiry.commit(modifiedAfter == null, start.toLocalDate());
+            }
+            if (!isStopping()) {
+                completed.add(partition);
+                cursors.remove(partition);
+                saveCheckpoint();
+            }
         }
-        Collections.sort(prior, COMP_ATTACHMENT_VERSION);
 
-        int to = -1;
-        int n;
-        if (stng.isRevisionCountRuleEnabled()) {
-            n = filterRevisionCount(prior, stng.getMaxRevisions());
-            if (n > to) {
-                to = n;
+        /**
+         * Evaluate again attachments of a partition whose deletions had not
+         * committed when the checkpoint resumed was saved.
+         *
+         * @return  {@code false} if the run stopped before all were evaluated.
+         */
+        private boolean retry(ScanPartition partition,
+                              PurgeAttachmentSettings settings,
+                              BatchSizeController batchSize,
+                              AgeExpiryIndex.Update expiry) {
+            NavigableSet<Long> retry = retries.get(partition);
+            if (retry == null) {
+                return true;
             }
+            LOG.info("Evaluating {} attachments of partition {} again.", retry.size(), partition);
+            try (LongQueue ids = createWorkQueue(systemSettings)) {
+                ids.addAll(retry);
+                while (!isStopping() && !ids.isEmpty()) {
+                    processBatch(partition, settings, ids, batchSize, expiry, true);
+                }
+            }
+            if (isStopping()) {
+                return false;
+            }
+            retries.remove(partition);
+            return true;
+        }
+
+        /**
+         * Record the due date of every attachment with prior versions in a
+         * partition, used on full sweeps as most are filtered out before being
+         * visited.
+         *
+         * <p>
+         * Versions still queued for deletion may be counted as the oldest
+         * version, which only brings the due date forward.
+         */
+        private void indexAgeExpiry(ScanPartition partition, int maxDaysOld, AgeExpiryIndex.Update expiry) {
+            int pageSize = systemSettings.getScanPageSizeOrDefault();
+            long afterId = 0;
+            List<Object[]> page;
+            do {
+                long from = afterId;
+                page = transactionTemplate.execute(() -> purgeDao.findOldestPriorModified(partition, from, pageSize));
+                for (Object[] row : page) {
+                    afterId = ((Number) row[0]).longValue();
+                    if (row[1] != null) {
+                        expiry.add(getAgeDue((Date) row[1], maxDaysOld), afterId);
+                    }
+                }
+            } while (page.size() == pageSize && !isStopping());
         }
-        if (stng.isAgeRuleEnabled()) {
-            n = filterAge(prior, stng.getMaxDaysOld());
-            if (n > to) {
-                to = n;
+
+        private void processBatch(ScanPartition partition,
+                                  PurgeAttachmentSettings settings,
+                                  LongQueue ids,
+                                  BatchSizeController batchSize,
+                                  AgeExpiryIndex.Update expiry,
+                                  boolean retrying) {
+            int size = batchSize.getBatchSize();
+            LOG.debug("Processing batch {} of {} attachments from {}; {} atttachments remain in page",
+                      counters.incrementAndGet(IDX_BATCHES), size, partition, ids.size());
+            List<Long> batch = new ArrayList<>(size);
+            while (batch.size() < size && !ids.isEmpty()) {
+                batch.add(ids.poll());
             }
+            List<DeletionWork> pending = new ArrayList<>();
+            List<ImmutablePair<String, MailLogEntry>> entries = new ArrayList<>();
+            long[] tally = new long[COUNTER_ARRAY_SIZE];
+            long[] lastId = {0};
+            Set<Long> deferred = new LinkedHashSet<>();
+            Map<Long, Path> files = new HashMap<>();
+            Duration dur = time(() -> transactionTemplate.execute(() -> {
+                List<AttachmentHistory> histories = loader.load(batch);
+                List<Long> hashed = new ArrayList<>();
+                for (AttachmentHistory history : histories) {
+                    if (isAborting()) {
+                        return null;
+                    }
+                    List<Long> versions = findHashed(history, settings);
+                    if (versions.isEmpty()) {
+                        evaluate(partition, history, settings, null, expiry, tally, pending, entries);
+                    } else {
+                        // Evaluated once hashed, which is not done within this transaction.
+                        deferred.add(history.getCurrent().getId());
+                        hashed.addAll(versions);
+                    }
+                    lastId[0] = history.getCurrent().getId();
+                }
+                files.putAll(digests.locate(hashed));
+                // Identifiers of attachments removed since scanning were passed over too.
+                lastId[0] = batch.get(batch.size() - 1);
+                return null;
+            })).left;
+            if (!deferred.isEmpty() && !isAborting()) {
+                long hashStart = System.nanoTime();
+                Map<Long, byte[]> found = digests.getDigests(files);
+                metrics.getTimer(PurgeMetrics.Phase.DIGEST).record(System.nanoTime() - hashStart);
+                dur = dur.plus(time(() -> transactionTemplate.execute(() -> {
+                    for (AttachmentHistory history : loader.load(new ArrayList<>(deferred))) {
+                        if (isAborting()) {
+                            return null;
+                        }
+                        evaluate(partition, history, settings, findDuplicates(history, found), expiry, tally, pending, entries);
+                        deferred.remove(history.getCurrent().getId());
+                    }
+                    // Attachments removed since were passed over.
+                    deferred.clear();
+                    return null;
+                })).left);
+            }
+            batchSize.record(batch.size(), dur);
+
+            counters.addAndGet(IDX_BATCH_ITEMS, batch.size());
+            counters.addAndGet(IDX_BATCH_TIME, dur.toMillis());
+            counters.accumulateAndGet(IDX_BATCH_SIZE_MIN, batch.size(), (a, b) -> a == 0 ? b : Math.min(a, b));
+            counters.accumulateAndGet(IDX_BATCH_SIZE_MAX, batch.size(), Math::max);
+
+            checkpoint(partition, batch, lastId[0], retrying, deferred, tally, pending, entries);
+
+            // Hand off after commit so evaluation never holds a transaction open while blocked.
+            Instant waitStart = Instant.now();
+            try {
+                for (DeletionWork work : pending) {
+                    deletions.submit(work);
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while queueing deletions.", ex);
+            }
+            counters.addAndGet(IDX_PIPELINE_WAIT, Duration.between(waitStart, Instant.now()).toMillis());
         }
-        if (stng.isMaxSizeRuleEnabled()) {
-            n = filterSize(prior, stng.getMaxTotalSize());
-            if (n > to) {
-                to = n;
+
+        /**
+         * @param   settings
+         *          Settings of the partition, {@code null} where each space
+         *          resolves its own.
+         * @return  settings applied to an attachment, {@code null} where the
+         *          system settings apply.
+         */
+        private PurgeAttachmentSettings getSettings(AttachmentHistory history, PurgeAttachmentSettings settings) {
+            return settings == null
+                   ? settingSvc.getResolvedSettings(history.getCurrent().getSpaceKey())
+                   : settings;
+        }
+
+        private void evaluate(ScanPartition partition,
+                              AttachmentHistory history,
+                              PurgeAttachmentSettings settings,
+                              BitSet duplicates,
+                              AgeExpiryIndex.Update expiry,
+                              long[] tally,
+                              List<DeletionWork> pending,
+                              List<ImmutablePair<String, MailLogEntry>> entries) {
+            DeletionWork work = process(partition,
+                                        history,
+                                        getSettings(history, settings),
+                                        duplicates,
+                                        expiry,
+                                        tally,
+                                        entries);
+            if (work != null) {
+                pending.add(work);
+            }
+        }
+
+        /**
+         * Find versions of an attachment to hash where its settings enable
+         * the duplicate content rule.
+         *
+         * <p>
+         * Only versions sharing a file size with another version of the same
+         * attachment may be identical, only those are hashed.
+         *
+         * @return  version identifiers, empty if none are to be hashed.
+         */
+        private List<Long> findHashed(AttachmentHistory history, PurgeAttachmentSettings settings) {
+            if (!digests.isAvailable()) {
+                return Collections.emptyList();
+            }
+            PurgeAttachmentSettings s = getSettings(history, settings);
+            if (s == null) {
+                s = systemSettings;
+            }
+            List<Attachment> prior = history.getPrior();
+            if (!s.isDuplicateRuleEnabled() || prior.isEmpty()) {
+                return Collections.emptyList();
+            }
+            Map<Long, Integer> sizes = new HashMap<>();
+            sizes.merge(history.getCurrent().getFileSize(), 1, Integer::sum);
+            for (Attachment p : prior) {
+                sizes.merge(p.getFileSize(), 1, Integer::sum);
+            }
+            List<Long> res = new ArrayList<>();
+            if (sizes.get(history.getCurrent().getFileSize()) > 1) {
+                res.add(history.getCurrent().getId());
+            }
+            for (Attachment p : prior) {
+                if (sizes.get(p.getFileSize()) > 1) {
+                    res.add(p.getId());
+                }
+            }
+            return res;
+        }
+
+        /**
+         * Find prior versions identical to a newer version.
+         *
+         * @param   found
+         *          Digests by version identifier, versions without one are
+         *          not duplicates.
+         * @return  indexes of duplicate prior versions, {@code null} if there
+         *          are none.
+         */
+        private BitSet findDuplicates(AttachmentHistory history, Map<Long, byte[]> found) {
+            List<Attachment> prior = history.getPrior();
+            Set<ByteBuffer> newer = new HashSet<>();
+            byte[] current = found.get(history.getCurrent().getId());
+            if (current != null) {
+                newer.add(ByteBuffer.wrap(current));
+            }
+            BitSet res = new BitSet(prior.size());
+            for (int i = prior.size() - 1; i >= 0; i--) {
+                byte[] d = found.get(prior.get(i).getId());
+                if (d != null && !newer.add(ByteBuffer.wrap(d))) {
+                    res.set(i);
+                }
+            }
+            return res.isEmpty() ? null : res;
+        }
+
+        /**
+         * Evaluate the rules for an attachment.
+         *
+         * @param   duplicates
+         *          Indexes of prior versions identical to a newer version, may
+         *          be {@code null}.
+         * @param   expiry
+         *          Receives the date the attachment is next due for the age
+         *          rule, may be {@code null}.
+         * @param   tally
+         *          Receives counters of the attachment.
+         * @param   entries
+         *          Receives report entries for versions which are not queued
+         *          for deletion.
+         * @return  versions to delete, or {@code null} if there are none or
+         *          they may not be deleted.
+         */
+        private DeletionWork process(ScanPartition partition,
+                                     AttachmentHistory history,
+                                     PurgeAttachmentSettings settings,
+                                     BitSet duplicates,
+                                     AgeExpiryIndex.Update expiry,
+                                     long[] tally,
+                                     List<ImmutablePair<String, MailLogEntry>> entries) {
+            Attachment attachment = history.getCurrent();
+            tally[IDX_CURRENT_VERSIONS]++;
+
+            if (attachment.getVersion() == 1) {
+                LOG.trace("Skipping only attachment version {}", attachment.getId());
+                return null;
+            }
+
+            if (settings == null) {
+                settings = systemSettings;
+            }
+
+            tally[IDX_CURRENT_VISITED]++;
+            metrics.visited();
+
+            List<Attachment> prior = history.getPrior();
+            tally[IDX_PRIOR_VERSIONS] += prior.size();
+
+            long evaluateStart = System.nanoTime();
+            PurgeRuleSet rules = ruleSets.computeIfAbsent(settings, s -> PurgeRuleSet.compile(s, LocalDateTime.now()));
+            BitSet selected = new BitSet(prior.size());
+            List<Attachment> toDelete = findDeletions(attachment, prior, duplicates, rules, selected);
+            metrics.getTimer(PurgeMetrics.Phase.EVALUATE).record(System.nanoTime() - evaluateStart);
+            Set<Integer> badVersions = toDelete.stream()
+                    .filter(n -> n.getVersion() >= attachment.getVersion())
+                    .map(n -> n.getVersion())
+                    .collect(toSet());
+            DeletionWork res = null;
+            int oldestKept = 0;
+            if (badVersions.size() > 0) {
+                LOG.error("Attachment with versions to delete > current version: {}:{} :- {} ({}) :: {}",
+                          attachment.getSpaceKey(),
+                          history.getSpace() == null ? null : history.getSpace().getName(),
+                          attachment.getDisplayTitle(),
+                          attachment.getVersion(),
+                          badVersions);
+            } else if (!toDelete.isEmpty()) {
+                boolean canUpdate
+                        = !settings.isReportOnly() &&
+                          !systemSettings.isReportOnly() &&
+                          incrementWithin(reserved, systemSettings.getDeleteLimit());
+
+                long spaceSaved = toDelete.stream().mapToLong(Attachment::getFileSize).sum();
+
+                List<String> recipients = new ArrayList<>(2);
+                if (isNotBlank(settings.getReportEmailAddress())) {
+                    recipients.add(settings.getReportEmailAddress());
+                }
+                if (isNotBlank(systemSettings.getReportEmailAddress()) && !equalsIgnoreCase(settings.getReportEmailAddress(), systemSettings.getReportEmailAddress())) {
+                    recipients.add(systemSettings.getReportEmailAddress());
+                }
+                MailLogEntry mle = recipients.isEmpty()
+                                   ? null
+                                   : MailLogEntry.of(
+                                           getSpaceDetail(attachment, history.getSpace()),
+                                           attachment.getDisplayTitle(),
+                                           attachment.getAttachmentsUrlPath(),
+                                           attachment.getVersion(),
+                                           toDelete.stream().mapToInt(Attachment::getVersion).sorted().toArray(),
+                                           !canUpdate,
+                                           settings == systemSettings,
+                                           spaceSaved);
+
+                if (canUpdate) {
+                    res = new DeletionWork(partition,
+                                           attachment.getId(),
+                                           prior.size(),
+                                           toDelete.stream().map(Attachment::getId).collect(toList()),
+                                           spaceSaved,
+                                           mle,
+                                           recipients);
+                    oldestKept = selected.nextClearBit(0);
+                } else {
+                    tally[IDX_DELETE_AVAIL] += toDelete.size();
+                    report(mle, recipients, entries);
+                }
+            }
+
+            if (expiry != null && oldestKept < prior.size() && prior.get(oldestKept).getLastModificationDate() != null) {
+                expiry.add(getAgeDue(prior.get(oldestKept).getLastModificationDate(), settings.getMaxDaysOld()),
+                           attachment.getId());
             }
+            return res;
         }
-        if (to == -1) {
+
+        private MailLogEntry.SpaceDetail getSpaceDetail(Attachment attachment, Space space) {
+            return mailEntries.intern(attachment.getSpaceKey(),
+                                      space == null ? null : space.getName(),
+                                      space == null ? null : space.getUrlPath());
+        }
+
+        /**
+         * Delete stage, removes queued versions in its own transaction and
+         * reports them once committed.
+         *
+         * <p>
+         * Each version is removed through
+         * {@link AttachmentDao#removeAttachmentVersionFromServer(Attachment)}
+         * so that confluence removes its dependent rows and evicts it from
+         * caches as it would itself, all versions of the batch in a single
+         * transaction. Only timing, throttling and error reporting are done
+         * per batch, latency is spread evenly over its versions.
+         *
+         * <p>
+         * Where the data removal journal is enabled the stored data of each
+         * version is journaled and set aside beforehand, confluence then finds
+         * no data to remove and it is removed in the background once the
+         * transaction commits.
+         *
+         * <p>
+         * The throttle is waited on before the transaction begins and after
+         * it commits so that no transaction is held open while waiting.
+         */
+        private void delete(List<DeletionWork> work) {
+            List<Long> ids = work.stream().flatMap(w -> w.versionIds.stream()).collect(toList());
+            long size = work.stream().mapToLong(w -> w.size).sum();
+            try {
+                counters.addAndGet(IDX_THROTTLE_WAIT, throttle.acquire(ids.size(), size).toMillis());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while throttling deletions.", ex);
+            }
+            List<DataRemovalJournal.Entry> journaled = new ArrayList<>();
+            Duration dur;
+            try {
+                dur = time(() -> transactionTemplate.execute(() -> {
+                    List<Attachment> versions = purgeDao.findAttachments(ids);
+                    LOG.debug("Removing {} attachment versions of {} attachments.", versions.size(), work.size());
+                    journaled.addAll(dataRemoval.journal(ids));
+                    AttachmentDao dao = attachmentManager.getAttachmentDao();
+                    for (Attachment p : versions) {
+                        dao.removeAttachmentVersionFromServer(p);
+                    }
+                    return null;
+                })).left;
+            } catch (RuntimeException ex) {
+                LOG.error("Could not remove batch of {} attachment versions {}: {}", ids.size(), ids, ex.getMessage());
+                reserved.addAndGet(-work.size());
+                dataRemoval.reconcile(journaled);
+                throw ex;
+            }
+            dataRemoval.submit(journaled);
+            digests.remove(ids);
+            if (!ids.isEmpty()) {
+                throttle.record(dur.dividedBy(ids.size()));
+            }
+            metrics.getTimer(PurgeMetrics.Phase.DELETE).record(dur);
+            counters.addAndGet(IDX_DELETED, ids.size());
+            counters.addAndGet(IDX_DELETED_TIME, dur.toMillis());
+            deleteBatchSize.record(work.size(), dur);
+            counters.addAndGet(IDX_DELETED_BYTES, size);
+            metrics.deleted(ids.size());
+            metrics.reclaimed(size);
+            committed(work);
+            try {
+                counters.addAndGet(IDX_THROTTLE_WAIT, throttle.pause(dur).toMillis());
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while throttling deletions.", ex);
+            }
+            // Counters may be restored from a checkpoint, only add backoffs of this run.
+            long backoffs = throttle.getBackoffs();
+            counters.addAndGet(IDX_THROTTLE_BACKOFFS, backoffs - backoffsCounted);
+            backoffsCounted = backoffs;
+        }
+
+        /**
+         * Queued versions not deleted due to cancellation are reported as
+         * still available for deletion. They are not journaled as their
+         * attachments are evaluated again when the run is resumed, their
+         * place within the delete limit is given back.
+         */
+        private void discard(List<DeletionWork> work) {
+            LOG.debug("Discarding {} queued deletions.", work.size());
+            reserved.addAndGet(-work.size());
+            for (DeletionWork w : work) {
+                counters.addAndGet(IDX_DELETE_AVAIL, w.versionIds.size());
+                inFlight.discarded(w.partition, w.attachmentId, w.versionIds.size());
+                report(w.entry == null ? null : w.entry.asReportOnly(), w.recipients, null);
+            }
+        }
+
+        /**
+         * @param   entries
+         *          Receives entries to be journaled, may be {@code null}.
+         */
+        private void report(MailLogEntry mle,
+                            List<String> recipients,
+                            List<ImmutablePair<String, MailLogEntry>> entries) {
+            if (mle != null) {
+                for (String r : recipients) {
+                    mailEntries.add(r, mle);
+                    if (entries != null) {
+                        entries.add(new ImmutablePair<>(r, mle));
+                    }
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Result published by a node taking part in a cluster run.
+     */
+    private static final class NodeResult implements Serializable {
+
+        private static final long serialVersionUID = 2L;
+
+        private final long[] counters;
+        private final String entriesFile;
+        private final long[] touched;
+
+        private NodeResult(long[] counters, String entriesFile, long[] touched) {
+            this.counters = counters;
+            this.entriesFile = entriesFile;
+            this.touched = touched;
+        }
+
+    }
+
+    /**
+     * Versions of a single attachment queued for deletion.
+     */
+    private static final class DeletionWork {
+
+        private final ScanPartition partition;
+        private final long attachmentId;
+        private final int priorVersions;
+        private final List<Long> versionIds;
+        private final long size;
+        private final MailLogEntry entry;
+        private final List<String> recipients;
+
+        private DeletionWork(ScanPartition partition,
+                             long attachmentId,
+                             int priorVersions,
+                             List<Long> versionIds,
+                             long size,
+                             MailLogEntry entry,
+                             List<String> recipients) {
+            this.partition = partition;
+            this.attachmentId = attachmentId;
+            this.priorVersions = priorVersions;
+            this.versionIds = versionIds;
+            this.size = size;
+            this.entry = entry;
+            this.recipients = recipients;
+        }
+
+    }
+
+    /**
+     * Select the prior versions of an attachment its rules purge.
+     *
+     * @param   duplicates
+     *          Indexes of prior versions identical to a newer version, may be
+     *          {@code null}.
+     * @param   selected
+     *          Set with the indexes of the versions returned.
+     * @return  versions to purge, oldest first.
+     */
+    private static List<Attachment> findDeletions(Attachment attachment,
+                                                  List<Attachment> prior,
+                                                  BitSet duplicates,
+                                                  PurgeRuleSet rules,
+                                                  BitSet selected) {
+        if (prior == null || prior.isEmpty()) {
+            selected.clear();
             return Collections.<Attachment>emptyList();
         }
-        if (to >= prior.size() - 1) {
+        int n = rules.evaluate(new AttachmentVersions(prior, duplicates),
+                               attachment.getFileName(),
+                               attachment.getContentType(),
+                               selected);
+        if (n == 0) {
+            return Collections.<Attachment>emptyList();
+        }
+        if (n == prior.size()) {
             return prior;
         }
-        return prior.subList(0, to + 1);
+        if (selected.nextClearBit(0) == n) {
+            return prior.subList(0, n);
+        }
+        List<Attachment> res = new ArrayList<>(n);
+        for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+            res.add(prior.get(i));
+        }
+        return res;
     }
 
-    private int filterRevisionCount(List<Attachment> prior, int maxRevisions) {
-        return prior.size() > maxRevisions
-               ? (prior.size() - maxRevisions) - 1
-               : -1;
+    private static long toEpochMilli(Date value) {
+        return value == null ? PurgeRules.UNKNOWN_MODIFIED : value.getTime();
     }
 
     public static LocalDateTime toLocalDateTime(Date value) {
@@ -378,41 +1721,27 @@ public class PurgeAttachmentsJob implements JobRunner {
                                          zoneId);
     }
 
-    private int filterAge(List<Attachment> prior, int maxDaysOld) {
-        LocalDateTime from = LocalDateTime.now().minusDays(maxDaysOld);
-
-        for (int i = prior.size() - 1; i >= 0; i--) {
-            if (prior.get(i).getLastModificationDate() != null) {
-                LocalDateTime mod = toLocalDateTime(prior.get(i).getLastModificationDate());
-                if (from.isAfter(mod)) {
-                    return i;
-                }
-            }
-        }
-
-        return -1;
-    }
-
-    private int filterSize(List<Attachment> prior, long maxTotalSize) {
-        long maxSizeKiB = maxTotalSize * 1024 * 1024;
-        long total = 0;
-        for (int i = prior.size() - 1; i >= 0; i--) {
-            total += prior.get(i).getFileSize();
-            if (total > maxSizeKiB) {
-                return i;
-            }
-        }
-        return -1;
+    /**
+     * @return  first run date on which a version modified at the given time is
+     *          old enough to be purged by the age rule.
+     */
+    private static LocalDate getAgeDue(Date modified, int maxDaysOld) {
+        return toLocalDateTime(modified).toLocalDate().plusDays(maxDaysOld + 1L);
     }
 
-    private void mailResultsPlain(Map<String, List<MailLogEntry>> entries,
+    private void mailResultsPlain(MailLogAggregator entries,
                                   LocalDateTime started,
                                   LocalDateTime ended,
-                                  long[] counters,
-                                  boolean cancellationRequested) throws MailException {
+                                  AtomicLongArray counters,
+                                  boolean cancellationRequested,
+                                  boolean partial) throws MailException {
         String p = settingsManager.getGlobalSettings().getBaseUrl();
 
-        entries.forEach((emailAddress, entryList) -> {
+        int maxEntries = settingSvc.getSystemSettings().getReportMaxEntriesOrDefault();
+
+        for (String emailAddress : entries.getRecipients()) {
+            ReportDetail detail = summarise(entries, emailAddress, p, maxEntries);
+
             StringBuilder sb = new StringBuilder();
 
             sb.append("Started: ")
@@ -420,87 +1749,154 @@ public class PurgeAttachmentsJob implements JobRunner {
                     .append("\nEnded: ")
                     .append(ended.format(DateTimeFormatter.ISO_DATE_TIME)).append("\n\n");
 
-            long deleted = 0;
-            long report = 0;
-            for (MailLogEntry me : entryList) {
-                if (me.isReportOnly()) {
-                    report += me.getSpaceSaved();
-                } else {
-                    deleted += me.getSpaceSaved();
-                }
-            }
             if (cancellationRequested) {
                 sb.append("CANCELLED: Job has had an early cancellation request.");
+            } else if (partial) {
+                sb.append("PARTIAL: The run reached the end of its maintenance window or time budget,")
+                        .append(" the next run continues where it stopped.\n");
             }
-            if (deleted > 0) {
-                sb.append("A total of ").append(FileSize.format(deleted))
+            if (detail.deleted > 0) {
+                sb.append("A total of ").append(FileSize.format(detail.deleted))
                         .append(" space has been reclaimed.\n");
             }
-            if (report > 0) {
-                sb.append("A total of ").append(FileSize.format(report))
+            if (detail.report > 0) {
+                sb.append("A total of ").append(FileSize.format(detail.report))
                         .append(" can be reclaimed from those in report mode.\n");
             }
+            if (detail.isTruncated()) {
+                sb.append("Listing the ").append(detail.shown.size()).append(" of ").append(detail.total)
+                        .append(" attachments reclaiming the most space");
+                if (detail.csv == null) {
+                    sb.append(".\n");
+                } else {
+                    sb.append(", all are listed in the attached ").append(REPORT_DETAIL_FILE_NAME).append(".\n");
+                }
+            }
 
             sb.append("\n\n");
 
-            String ps = null;
-            for (MailLogEntry me : entryList) {
-                if (ps == null || !ps.equalsIgnoreCase(me.getSpaceKey())) {
-                    sb.append("\n");
-                    ps = me.getSpaceKey();
-                    String sp = ps + ":" + me.getSpaceName() + " (" + p + me.getSpaceUrlPath() + ")";
-                    sb.append(sp).append('\n').append(repeat('-', sp.length())).append('\n');
-                }
-
-                sb.append(me.getDisplayTitle()).append(" (").append(me.getVersion()).append(") ");
-                sb.append(me.isReportOnly() ? "TO_DELETE:" : "DELETED:");
-                me.getDeletedVersions().stream().forEach(ver -> sb.append(" ").append(ver));
-                sb.append(" [").append(me.getSpaceSavedPretty()).append("]\n");
-            }
+            appendPlainEntries(sb, detail.shown, p);
 
 
             sb.append("\n");
-            sb.append(counters[IDX_PRIOR_VERSIONS])
-                    .append("processable prior versions found for ")
-                    .append(counters[IDX_CURRENT_VERSIONS]).append(" attachments.");
+            sb.append(counters.get(IDX_PRIOR_VERSIONS))
+                    .append(" processable prior versions found for ")
+                    .append(counters.get(IDX_CURRENT_VERSIONS)).append(" attachments.\n");
+            sb.append(counters.get(IDX_PREFILTER_SKIPPED))
+                    .append(" attachments skipped by the candidate filter.\n");
 
             long ms = Duration.between(started, ended).toMillis();
-            if (counters[IDX_CURRENT_VISITED] > 0) {
-                sb.append("Visited ").append(counters[IDX_CURRENT_VISITED])
+            if (counters.get(IDX_CURRENT_VISITED) > 0) {
+                sb.append("Visited ").append(counters.get(IDX_CURRENT_VISITED))
                         .append(" attachments averaging ")
-                        .append(counters[IDX_CURRENT_VISITED] == 0 ? 0 : Math.round(ms / (double) counters[IDX_CURRENT_VISITED]))
-                        .append(" ms per visit.");
+                        .append(counters.get(IDX_CURRENT_VISITED) == 0 ? 0 : Math.round(ms / (double) counters.get(IDX_CURRENT_VISITED)))
+                        .append(" ms per visit.\n");
             }
-            if (counters[IDX_DELETED] > 0) {
-                sb.append("Deleted ").append(counters[IDX_DELETED])
+            if (counters.get(IDX_DELETED) > 0) {
+                sb.append("Deleted ").append(counters.get(IDX_DELETED))
                         .append(" individual versions averaging ")
-                        .append(Math.round(counters[IDX_DELETED_TIME] / (double) counters[IDX_DELETED]))
-                        .append(" ms per deletion.");
-            }
-            sb.append("A further ").append(counters[IDX_DELETE_AVAIL])
-                    .append(" versions are available for deleting.");
-            sb.append("Attachment purging completed in ").append(ms).append(" ms.");
-
-            ConfluenceMailQueueItem mail = new ConfluenceMailQueueItem(
-                    emailAddress,
-                    "Purged attachments",
-                    sb.toString(),
-                    "text/plain");
-            mailQueueTaskManager.getTaskQueue("mail").addTask(mail);
+                        .append(Math.round(counters.get(IDX_DELETED_TIME) / (double) counters.get(IDX_DELETED)))
+                        .append(" ms per deletion.\n");
+            }
+            if (counters.get(IDX_BATCHES) > 0) {
+                sb.append("Processed ").append(counters.get(IDX_BATCHES))
+                        .append(" batches of ").append(counters.get(IDX_BATCH_SIZE_MIN))
+                        .append(" to ").append(counters.get(IDX_BATCH_SIZE_MAX))
+                        .append(" attachments averaging ")
+                        .append(Math.round(counters.get(IDX_BATCH_ITEMS) / (double) counters.get(IDX_BATCHES)))
+                        .append(" attachments in ")
+                        .append(Math.round(counters.get(IDX_BATCH_TIME) / (double) counters.get(IDX_BATCHES)))
+                        .append(" ms.\n");
+            }
+            if (counters.get(IDX_THROTTLE_WAIT) > 0) {
+                sb.append("Throttling waited ").append(counters.get(IDX_THROTTLE_WAIT))
+                        .append(" ms and backed off ").append(counters.get(IDX_THROTTLE_BACKOFFS))
+                        .append(" times.\n");
+            }
+            if (counters.get(IDX_DELETED) > 0) {
+                sb.append("Effective deletion rate ").append(getEffectiveRate(counters, ms)).append(".\n");
+            }
+            sb.append("A further ").append(counters.get(IDX_DELETE_AVAIL))
+                    .append(" versions are available for deleting.\n");
+            sb.append("Attachment purging completed in ").append(ms).append(" ms.\n");
+
+            send(emailAddress, "Purged attachments", sb.toString(), "text/plain", detail.csv);
             LOG.debug("Mail Sent");
-        });
+        }
+    }
+
+    /**
+     * Append the plain text listing of entries, grouped under a heading per
+     * space.
+     *
+     * @param   baseUrl
+     *          Base URL links are relative to.
+     */
+    static void appendPlainEntries(StringBuilder sb, List<MailLogEntry> entries, String baseUrl) {
+        String ps = null;
+        for (MailLogEntry me : entries) {
+            if (ps == null || !ps.equalsIgnoreCase(me.getSpaceKey())) {
+                sb.append("\n");
+                ps = me.getSpaceKey();
+                String sp = ps + ":" + me.getSpaceName() + " (" + baseUrl + me.getSpaceUrlPath() + ")";
+                sb.append(sp).append('\n').append(repeat('-', sp.length())).append('\n');
+            }
+
+            sb.append(me.getDisplayTitle()).append(" (").append(me.getVersion()).append(") ");
+            sb.append(me.isReportOnly() ? "TO_DELETE:" : "DELETED:");
+            me.getDeletedVersions().stream().forEach(ver -> sb.append(" ").append(ver));
+            sb.append(" [").append(me.getSpaceSavedPretty()).append("]\n");
+        }
+    }
+
+    /**
+     * Append a table row for each entry.
+     *
+     * @param   baseUrl
+     *          Base URL links are relative to.
+     */
+    static void appendHtmlEntries(StringBuilder sb, List<MailLogEntry> entries, String baseUrl) {
+        for (MailLogEntry me : entries) {
+            sb.append("<tr");
+            if (!me.isReportOnly()) {
+                sb.append(" class=\"deleted\"");
+            }
+            sb.append(">");
+
+            sb.append("<td>");
+            sb.append("<a href=\"").append(baseUrl).append(me.getSpaceUrlPath()).append("\">")
+                    .append(me.getSpaceName()).append("</a>");
+            sb.append("</td>");
+
+            sb.append("<td>");
+            sb.append("<a href=\"").append(baseUrl).append(me.getAttachmentsUrlPath()).append("\">")
+                    .append(me.getDisplayTitle()).append("</a>");
+            sb.append("</td>");
+
+            sb.append("<td>").append(me.getSpaceSavedPretty()).append("</td>");
+
+            //sb.append("<td>").append(me.isGlobalSettings() ? "Yes" : "No").append("</td>");
+            sb.append("<td>").append(me.getVersion()).append("</td>");
+
+            sb.append("<td>").append(me.getDeletedVersionsRanged()).append("</td>");
+
+            sb.append("</tr>");
+        }
     }
 
-    private void mailResultsHtml(Map<String, List<MailLogEntry>> mailEntries,
+    private void mailResultsHtml(MailLogAggregator mailEntries,
                                  LocalDateTime started,
                                  LocalDateTime ended,
-                                 long[] counters,
-                                 boolean cancellationRequested) throws MailException {
+                                 AtomicLongArray counters,
+                                 boolean cancellationRequested,
+                                 boolean partial) throws MailException {
         String p = settingsManager.getGlobalSettings().getBaseUrl();
         String subject = "Purged old attachments";
 
-        mailEntries.forEach((emailAddress, entryList) -> {
-            Collections.sort(entryList, COMP_MAILLOG_SPACE_TITLE);
+        int maxEntries = settingSvc.getSystemSettings().getReportMaxEntriesOrDefault();
+
+        for (String emailAddress : mailEntries.getRecipients()) {
+            ReportDetail detail = summarise(mailEntries, emailAddress, p, maxEntries);
 
             StringBuilder sb = new StringBuilder();
 
@@ -540,6 +1936,9 @@ public class PurgeAttachmentsJob implements JobRunner {
 
             if (cancellationRequested) {
                 sb.append("<p><strong>CANCELLED</strong>: Job has had an early cancellation request.</p>");
+            } else if (partial) {
+                sb.append("<p><strong>PARTIAL</strong>: The run reached the end of its maintenance window or");
+                sb.append(" time budget, the next run continues where it stopped.</p>");
             }
             sb.append("<p><strong>Started</strong>: ")
                     .append(started.format(DateTimeFormatter.ISO_DATE_TIME))
@@ -547,27 +1946,30 @@ public class PurgeAttachmentsJob implements JobRunner {
                     .append(ended.format(DateTimeFormatter.ISO_DATE_TIME))
                     .append("</p>");
 
-            long deleted = 0;
-            long report = 0;
-            for (MailLogEntry me : entryList) {
-                if (me.isReportOnly()) {
-                    report += me.getSpaceSaved();
-                } else {
-                    deleted += me.getSpaceSaved();
-                }
-            }
-            if (deleted > 0) {
+            if (detail.deleted > 0) {
                 sb.append("<p>");
-                sb.append("A total of ").append(FileSize.format(deleted))
+                sb.append("A total of ").append(FileSize.format(detail.deleted))
                         .append(" space has been reclaimed.");
                 sb.append("</p>");
             }
-            if (report > 0) {
+            if (detail.report > 0) {
                 sb.append("<p>");
-                sb.append("A total of ").append(FileSize.format(report))
+                sb.append("A total of ").append(FileSize.format(detail.report))
                         .append(" can be reclaimed from those in report mode.");
                 sb.append("</p>");
             }
+            if (detail.isTruncated()) {
+                sb.append("<div class=\"note\">");
+                sb.append("Listing the ").append(detail.shown.size()).append(" of ").append(detail.total)
+                        .append(" attachments reclaiming the most space");
+                if (detail.csv == null) {
+                    sb.append(".");
+                } else {
+                    sb.append(", all are listed in the attached <strong>")
+                            .append(REPORT_DETAIL_FILE_NAME).append("</strong>.");
+                }
+                sb.append("</div>");
+            }
             sb.append("<table>");
 
             sb.append("<thead>");
@@ -582,53 +1984,48 @@ public class PurgeAttachmentsJob implements JobRunner {
             sb.append("</thead>");
 
             sb.append("<tbody>");
-            for (MailLogEntry me : entryList) {
-                sb.append("<tr");
-                if (!me.isReportOnly()) {
-                    sb.append(" class=\"deleted\"");
-                }
-                sb.append(">");
-
-                sb.append("<td>");
-                sb.append("<a href=\"").append(p).append(me.getSpaceUrlPath()).append("\">")
-                        .append(me.getSpaceName()).append("</a>");
-                sb.append("</td>");
-
-                sb.append("<td>");
-                sb.append("<a href=\"").append(p).append(me.getAttachmentsUrlPath()).append("\">")
-                        .append(me.getDisplayTitle()).append("</a>");
-                sb.append("</td>");
-
-                sb.append("<td>").append(me.getSpaceSavedPretty()).append("</td>");
-
-                //sb.append("<td>").append(me.isGlobalSettings() ? "Yes" : "No").append("</td>");
-                sb.append("<td>").append(me.getVersion()).append("</td>");
-
-                sb.append("<td>").append(me.getDeletedVersionsRanged()).append("</td>");
-
-                sb.append("</tr>");
-            }
+            appendHtmlEntries(sb, detail.shown, p);
             sb.append("</tbody></table>");
 
-            sb.append("<p>").append(counters[IDX_PRIOR_VERSIONS])
+            sb.append("<p>").append(counters.get(IDX_PRIOR_VERSIONS))
                     .append(" prior versions found for ")
-                    .append(counters[IDX_CURRENT_VERSIONS]).append(" attachments.</p>");
+                    .append(counters.get(IDX_CURRENT_VERSIONS)).append(" attachments.</p>");
+            sb.append("<p>").append(counters.get(IDX_PREFILTER_SKIPPED))
+                    .append(" attachments skipped by the candidate filter.</p>");
 
             long ms = Duration.between(started, ended).toMillis();
-            if (counters[IDX_CURRENT_VISITED] > 0) {
-                sb.append("<p>Visited ").append(counters[IDX_CURRENT_VISITED])
+            if (counters.get(IDX_CURRENT_VISITED) > 0) {
+                sb.append("<p>Visited ").append(counters.get(IDX_CURRENT_VISITED))
                         .append(" attachments averaging ")
-                        .append(counters[IDX_CURRENT_VISITED] == 0 ? 0 : Math.round(ms / (double) counters[IDX_CURRENT_VISITED]))
+                        .append(counters.get(IDX_CURRENT_VISITED) == 0 ? 0 : Math.round(ms / (double) counters.get(IDX_CURRENT_VISITED)))
                         .append(" ms per visit.</p>");
             }
-            if (counters[IDX_DELETED] > 0) {
-                sb.append("<p>Deleted ").append(counters[IDX_DELETED])
+            if (counters.get(IDX_DELETED) > 0) {
+                sb.append("<p>Deleted ").append(counters.get(IDX_DELETED))
                         .append(" individual versions averaging ")
-                        .append(Math.round(counters[IDX_DELETED_TIME] / (double) counters[IDX_DELETED]))
+                        .append(Math.round(counters.get(IDX_DELETED_TIME) / (double) counters.get(IDX_DELETED)))
                         .append(" ms per deletion.</p>");
             }
-            if (counters[IDX_DELETE_AVAIL] > 0) {
-                sb.append("<p>A further ").append(counters[IDX_DELETE_AVAIL])
+            if (counters.get(IDX_BATCHES) > 0) {
+                sb.append("<p>Processed ").append(counters.get(IDX_BATCHES))
+                        .append(" batches of ").append(counters.get(IDX_BATCH_SIZE_MIN))
+                        .append(" to ").append(counters.get(IDX_BATCH_SIZE_MAX))
+                        .append(" attachments averaging ")
+                        .append(Math.round(counters.get(IDX_BATCH_ITEMS) / (double) counters.get(IDX_BATCHES)))
+                        .append(" attachments in ")
+                        .append(Math.round(counters.get(IDX_BATCH_TIME) / (double) counters.get(IDX_BATCHES)))
+                        .append(" ms.</p>");
+            }
+            if (counters.get(IDX_THROTTLE_WAIT) > 0) {
+                sb.append("<p>Throttling waited ").append(counters.get(IDX_THROTTLE_WAIT))
+                        .append(" ms and backed off ").append(counters.get(IDX_THROTTLE_BACKOFFS))
+                        .append(" times.</p>");
+            }
+            if (counters.get(IDX_DELETED) > 0) {
+                sb.append("<p>Effective deletion rate ").append(getEffectiveRate(counters, ms)).append(".</p>");
+            }
+            if (counters.get(IDX_DELETE_AVAIL) > 0) {
+                sb.append("<p>A further ").append(counters.get(IDX_DELETE_AVAIL))
                         .append(" versions are available for deleting.</p>");
             }
             sb.append("<p>Attachment purging completed in ").append(ms).append(" ms.</p>");
@@ -637,132 +2034,218 @@ public class PurgeAttachmentsJob implements JobRunner {
 
             sb.append("</body></html>");
 
-            ConfluenceMailQueueItem mail = new ConfluenceMailQueueItem(
-                    emailAddress,
-                    subject,
-                    sb.toString(),
-                    ConfluenceMailQueueItem.MIME_TYPE_HTML);
-            mailQueueTaskManager.getTaskQueue("mail").addTask(mail);
+            send(emailAddress, subject, sb.toString(), ConfluenceMailQueueItem.MIME_TYPE_HTML, detail.csv);
             LOG.debug("Mail Sent to: {}", emailAddress);
-        });
+        }
     }
 
-
     /**
+     * Total the entries of a report mail and select those listed in its body.
      *
+     * <p>
+     * Where there are more entries than are listed, every entry is written to
+     * a compressed CSV file in the same pass. Entries are read from the
+     * aggregator as they are merged, neither the mail body nor this pass
+     * grows with the number of attachments a run visits.
      */
-    private class MailLogEntry {
-
-        private final String spaceKey;
-        private final String spaceName;
-        private final String spaceUrlPath;
-
-        private final String displayTitle;
-        private final String attachmentsUrlPath;
-        private final int version;
-
-        private final List<Integer> deletedVersions;
-        private final boolean reportOnly;
-        private final boolean globalSettings;
-        private final long spaceSaved;
+    private ReportDetail summarise(MailLogAggregator entries, String emailAddress, String baseUrl, int maxEntries) {
+        ReportDetail res = new ReportDetail();
+        PriorityQueue<MailLogEntry> top = new PriorityQueue<>(COMP_MAILLOG_SPACE_SAVED);
+        // Entries are held until there are more than listed, only then is
+        // the CSV file needed.
+        List<MailLogEntry> pending = new ArrayList<>();
+        GzipCsvWriter[] csv = new GzipCsvWriter[1];
+
+        entries.forEach(emailAddress, me -> {
+            res.total++;
+            if (me.isReportOnly()) {
+                res.report += me.getSpaceSaved();
+            } else {
+                res.deleted += me.getSpaceSaved();
+            }
+            top.add(me);
+            if (top.size() > maxEntries) {
+                top.poll();
+            }
+            if (res.total <= maxEntries) {
+                pending.add(me);
+                return;
+            }
+            try {
+                if (res.total == maxEntries + 1) {
+                    res.csv = createReportFile();
+                    csv[0] = new GzipCsvWriter(res.csv);
+                    csv[0].writeRow("Space Key", "Space", "File Name", "Version", "Versions Deleted",
+                                    "Bytes", "Status", "Attachments URL");
+                    for (MailLogEntry e : pending) {
+                        writeDetail(csv[0], e, baseUrl);
+                    }
+                    pending.clear();
+                }
+                if (res.csv != null) {
+                    writeDetail(csv[0], me, baseUrl);
+                }
+            } catch (IOException ex) {
+                csv[0] = abandonDetail(res, csv[0], ex);
+            }
+        });
+        if (csv[0] != null) {
+            try {
+                csv[0].close();
+            } catch (IOException ex) {
+                abandonDetail(res, csv[0], ex);
+            }
+        }
 
-        private MailLogEntry(Attachment a,
-                             List<Integer> deletedVersions,
-                             boolean reportOnly,
-                             boolean globalSettings,
-                             long spaceSaved) {
-            this.spaceKey = a.getSpaceKey();
-            this.spaceName = a.getSpace() == null ? null : a.getSpace().getName();
-            this.spaceUrlPath = a.getSpace() == null ? null : a.getSpace().getUrlPath();
+        res.shown = new ArrayList<>(top);
+        Collections.sort(res.shown, MailLogEntry.COMP_SPACE_TITLE);
+        return res;
+    }
 
-            this.displayTitle = a.getDisplayTitle();
-            this.attachmentsUrlPath = a.getAttachmentsUrlPath();
-            this.version = a.getVersion();
+    private static void writeDetail(GzipCsvWriter csv, MailLogEntry me, String baseUrl) throws IOException {
+        csv.writeRow(me.getSpaceKey(),
+                     me.getSpaceName(),
+                     me.getDisplayTitle(),
+                     me.getVersion(),
+                     me.getDeletedVersionsRanged(),
+                     me.getSpaceSaved(),
+                     me.isReportOnly() ? "TO_DELETE" : "DELETED",
+                     baseUrl + me.getAttachmentsUrlPath());
+    }
 
-            this.deletedVersions = deletedVersions;
-            this.reportOnly = reportOnly;
-            this.globalSettings = globalSettings;
-            this.spaceSaved = spaceSaved;
+    private static GzipCsvWriter abandonDetail(ReportDetail detail, GzipCsvWriter csv, IOException ex) {
+        LOG.warn("Could not write report detail, only the largest entries are mailed: {}", ex.getMessage(), ex);
+        try {
+            if (csv != null) {
+                csv.close();
+            }
+            if (detail.csv != null) {
+                Files.deleteIfExists(detail.csv);
+            }
+        } catch (IOException ex2) {
+            LOG.debug("Could not remove report detail {}: {}", detail.csv, ex2.getMessage());
         }
+        detail.csv = null;
+        return null;
+    }
 
-        public String getSpaceKey() {
-            return spaceKey;
+    /**
+     * Create a file for report detail, removing files of earlier reports
+     * which have not been removed once mailed.
+     */
+    private Path createReportFile() throws IOException {
+        Path dir = pluginHome.resolve("reports");
+        Files.createDirectories(dir);
+        FileTime expired = FileTime.from(Instant.now().minus(REPORT_FILE_RETENTION));
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*.csv.gz")) {
+            for (Path f : files) {
+                if (Files.getLastModifiedTime(f).compareTo(expired) < 0) {
+                    Files.deleteIfExists(f);
+                }
+            }
         }
+        return Files.createTempFile(dir, "purged-attachments-", ".csv.gz");
+    }
 
-        public String getSpaceName() {
-            return spaceName;
+    /**
+     * Queue a report mail, attaching the given report detail if any.
+     */
+    private void send(String emailAddress, String subject, String body, String mimeType, Path detail) {
+        TaskQueue queue = mailQueueTaskManager.getTaskQueue("mail");
+        if (detail != null) {
+            try {
+                MimeBodyPart part = new MimeBodyPart();
+                part.setDataHandler(new DataHandler(new FileDataSource(detail.toFile())));
+                part.setFileName(REPORT_DETAIL_FILE_NAME);
+                part.setDisposition(MimeBodyPart.ATTACHMENT);
+                Multipart multipart = new MimeMultipart();
+                multipart.addBodyPart(part);
+                queue.addTask(new DetailMailQueueItem(new Email(emailAddress)
+                        .setSubject(subject)
+                        .setBody(body)
+                        .setMimeType(mimeType)
+                        .setMultipart(multipart), detail));
+                return;
+            } catch (MessagingException ex) {
+                LOG.warn("Could not attach report detail, mailing without it: {}", ex.getMessage(), ex);
+            }
         }
+        queue.addTask(new ConfluenceMailQueueItem(emailAddress, subject, body, mimeType));
+    }
 
-        public String getSpaceUrlPath() {
-            return spaceUrlPath;
-        }
 
-        public String getDisplayTitle() {
-            return displayTitle;
-        }
+    /**
+     * Totals of the entries of a report mail and those listed in its body.
+     */
+    private static final class ReportDetail {
 
-        public String getAttachmentsUrlPath() {
-            return attachmentsUrlPath;
-        }
+        private int total;
+        private long deleted;
+        private long report;
+        private List<MailLogEntry> shown;
+        private Path csv;
 
-        public int getVersion() {
-            return version;
+        private boolean isTruncated() {
+            return shown.size() < total;
         }
 
-        private List<Integer> getDeletedVersions() {
-            return deletedVersions;
-        }
+    }
 
-        private boolean isReportOnly() {
-            return reportOnly;
-        }
+    /**
+     * Mail with report detail attached, the detail file is removed once sent.
+     */
+    private static final class DetailMailQueueItem extends SingleMailQueueItem {
 
-        private boolean isGlobalSettings() {
-            return globalSettings;
+        private final Path detail;
+
+        private DetailMailQueueItem(Email email, Path detail) {
+            super(email);
+            this.detail = detail;
         }
 
-        private long getSpaceSaved() {
-            return spaceSaved;
+        @Override
+        public void send() throws MailException {
+            super.send();
+            try {
+                Files.deleteIfExists(detail);
+            } catch (IOException ex) {
+                LOG.debug("Could not remove report detail {}: {}", detail, ex.getMessage());
+            }
         }
 
-        private String getSpaceSavedPretty() {
-            return FileSize.format(spaceSaved);
+    }
+
+    /**
+     * Prior versions held as entities, viewed by index for a rule set.
+     */
+    private static final class AttachmentVersions implements PriorVersions {
+
+        private final List<Attachment> prior;
+        private final BitSet duplicates;
+
+        private AttachmentVersions(List<Attachment> prior, BitSet duplicates) {
+            this.prior = prior;
+            this.duplicates = duplicates;
         }
 
-        private void append(StringBuilder res, int a, int b) {
-            if (a == -1 || b == -1) {
-                return;
-            }
-            if (res.length() > 0) {
-                res.append(", ");
-            }
-            if (a == b) {
-                res.append(a);
-//            } else if (b - a == 1) {
-//                res.append(a).append(", ").append(b);
-            } else {
-                res.append("[").append(a).append("-").append(b).append("]");
-            }
+        @Override
+        public int size() {
+            return prior.size();
         }
 
-        public String getDeletedVersionsRanged() {
-            StringBuilder res = new StringBuilder();
+        @Override
+        public long getSize(int index) {
+            return prior.get(index).getFileSize();
+        }
 
-            int first = -1;
-            int prior = -1;
-            for (int i : deletedVersions) {
-                if (first == -1) {
-                    first = prior = i;
-                } else if (prior - i > 1) {
-                    append(res, first, prior);
-                    first = prior = i;
-                } else {
-                    prior = i;
-                }
-            }
-            append(res, first, prior);
+        @Override
+        public long getModified(int index) {
+            return toEpochMilli(prior.get(index).getLastModificationDate());
+        }
 
-            return res.toString();
+        @Override
+        public boolean isDuplicate(int index) {
+            return duplicates != null && duplicates.get(index);
         }
 
     }
@@ -8,27 +8,58 @@
 package com.drunkendev.confluence.plugins.attachments;
 
 import com.atlassian.bandana.BandanaManager;
+import com.atlassian.confluence.event.events.space.SpaceCreateEvent;
+import com.atlassian.confluence.event.events.space.SpaceRemoveEvent;
 import com.atlassian.confluence.setup.bandana.ConfluenceBandanaContext;
+import com.atlassian.event.api.EventListener;
+import com.atlassian.event.api.EventPublisher;
+import java.util.Objects;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import org.springframework.beans.factory.DisposableBean;
 
 import static org.apache.commons.lang3.StringUtils.isBlank;
 
 
 /**
+ * Stores purge settings for the system and for each space in bandana.
+ *
+ * <p>
+ * Settings in effect for each space are resolved on first use and cached
+ * until settings are saved or removed, or a space is created or removed.
+ * Saving or removing the global settings invalidates every space as spaces
+ * may fall back to them. Other cluster nodes notice a change through a
+ * version stamp checked by {@link #revalidate()}.
  *
  * @author  Brett Ryan
  */
-public class PurgeAttachmentsSettingsService {
+public class PurgeAttachmentsSettingsService implements DisposableBean {
 
     private static final String KEY = "com.drunkendev.confluence.plugins.attachments.purge-settings";
+    private static final String KEY_RUN_STATE = "com.drunkendev.confluence.plugins.attachments.purge-run-state";
+    private static final String KEY_SETTINGS_VERSION = "com.drunkendev.confluence.plugins.attachments.purge-settings-version";
     private static final int DEFAULT_DELETE_LIMIT = 50;
 
     private final BandanaManager bandanaManager;
+    private final EventPublisher eventPublisher;
+    private final ConcurrentMap<String, Resolved> resolved = new ConcurrentHashMap<>();
+    private volatile PurgeAttachmentSettings system;
+    private volatile String version;
 
     /**
      * Creates a new {@code PurgeAttachmentsSettingsService} instance.
      */
-    public PurgeAttachmentsSettingsService(BandanaManager bandanaManager) {
+    public PurgeAttachmentsSettingsService(BandanaManager bandanaManager,
+                                           EventPublisher eventPublisher) {
         this.bandanaManager = bandanaManager;
+        this.eventPublisher = eventPublisher;
+        eventPublisher.register(this);
+    }
+
+    @Override
+    public void destroy() {
+        eventPublisher.unregister(this);
     }
 
     public void setSettings(String spaceKey, PurgeAttachmentSettings settings) {
@@ -37,6 +68,7 @@ public class PurgeAttachmentsSettingsService {
                                 : new ConfluenceBandanaContext(spaceKey),
                                 KEY,
                                 settings);
+        changed(spaceKey);
     }
 
     public PurgeAttachmentSettings getSettings(String spaceKey) {
@@ -51,6 +83,120 @@ public class PurgeAttachmentsSettingsService {
                 new ConfluenceBandanaContext(), KEY, false);
     }
 
+    /**
+     * @return  the global settings, or the defaults where none have been
+     *          saved.
+     */
+    public PurgeAttachmentSettings getSystemSettings() {
+        PurgeAttachmentSettings res = system;
+        if (res == null) {
+            res = getSettings();
+            if (res == null) {
+                res = createDefault();
+            }
+            system = res;
+        }
+        return res;
+    }
+
+    /**
+     * Settings in effect for a space after falling back to the global
+     * settings.
+     *
+     * @param   spaceKey
+     *          Key of the space.
+     * @return  the effective settings, or {@code null} where purging is
+     *          disabled for the space.
+     */
+    public PurgeAttachmentSettings getResolvedSettings(String spaceKey) {
+        if (spaceKey == null) {
+            return null;
+        }
+        Resolved res = resolved.computeIfAbsent(spaceKey, this::resolve);
+        return res.global ? getSystemSettings() : res.settings;
+    }
+
+    /**
+     * Settings which would be in effect for a space if the global settings
+     * were replaced.
+     *
+     * @param   spaceKey
+     *          Key of the space.
+     * @param   global
+     *          Proposed global settings.
+     * @return  the effective settings, or {@code null} where purging is
+     *          disabled for the space.
+     */
+    public PurgeAttachmentSettings getResolvedSettings(String spaceKey, PurgeAttachmentSettings global) {
+        if (spaceKey == null) {
+            return null;
+        }
+        Resolved res = resolved.computeIfAbsent(spaceKey, this::resolve);
+        return res.global ? global : res.settings;
+    }
+
+    private Resolved resolve(String spaceKey) {
+        PurgeAttachmentSettings sng = getSettings(spaceKey);
+
+        // Use global.
+        if (sng == null || sng.getMode() == PurgeAttachmentSettings.MODE_GLOBAL) {
+            return Resolved.GLOBAL;
+        }
+
+        // Explicitely disabled.
+        if (sng.getMode() == PurgeAttachmentSettings.MODE_DISABLED) {
+            return Resolved.DISABLED;
+        }
+
+        return new Resolved(sng, false);
+    }
+
+    /**
+     * Discard cached settings if they have been changed on another cluster
+     * node since last checked.
+     */
+    public void revalidate() {
+        String current = (String) bandanaManager.getValue(
+                new ConfluenceBandanaContext(), KEY_SETTINGS_VERSION, false);
+        if (!Objects.equals(version, current)) {
+            invalidateAll();
+            version = current;
+        }
+    }
+
+    /**
+     * Discard cached settings after saving, all of them if another node has
+     * changed settings since last checked as taking the new version would
+     * otherwise hide that change from {@link #revalidate()}.
+     */
+    private void changed(String spaceKey) {
+        String current = (String) bandanaManager.getValue(
+                new ConfluenceBandanaContext(), KEY_SETTINGS_VERSION, false);
+        if (isBlank(spaceKey) || !Objects.equals(version, current)) {
+            invalidateAll();
+        } else {
+            resolved.remove(spaceKey);
+        }
+        String next = UUID.randomUUID().toString();
+        bandanaManager.setValue(new ConfluenceBandanaContext(), KEY_SETTINGS_VERSION, next);
+        version = next;
+    }
+
+    private void invalidateAll() {
+        system = null;
+        resolved.clear();
+    }
+
+    @EventListener
+    public void onSpaceCreate(SpaceCreateEvent event) {
+        resolved.remove(event.getSpace().getKey());
+    }
+
+    @EventListener
+    public void onSpaceRemove(SpaceRemoveEvent event) {
+        resolved.remove(event.getSpace().getKey());
+    }
+
     public PurgeAttachmentSettings createDefault() {
         return new PurgeAttachmentSettings(PurgeAttachmentSettings.MODE_GLOBAL,
                                            false, 0,
@@ -61,12 +207,54 @@ public class PurgeAttachmentsSettingsService {
                                            DEFAULT_DELETE_LIMIT);
     }
 
+    public PurgeRunState getRunState() {
+        return (PurgeRunState) bandanaManager.getValue(
+                new ConfluenceBandanaContext(), KEY_RUN_STATE, false);
+    }
+
+    public void setRunState(PurgeRunState state) {
+        bandanaManager.setValue(new ConfluenceBandanaContext(), KEY_RUN_STATE, state);
+    }
+
+    /**
+     * Force the next run to visit every attachment, used when settings change
+     * as unmodified attachments may match the new rules.
+     */
+    public void requireFullSweep() {
+        PurgeRunState state = getRunState();
+        if (state != null && state.getLastFullSweep() != null) {
+            state.setLastFullSweep(null);
+            setRunState(state);
+        }
+    }
+
     //TODO: Implement ability to remove all space contexts.
     public void deleteSettings(String spaceKey) {
         bandanaManager.removeValue(isBlank(spaceKey)
                                    ? new ConfluenceBandanaContext()
                                    : new ConfluenceBandanaContext(spaceKey),
                                    KEY);
+        changed(spaceKey);
+    }
+
+    /**
+     * Settings resolved for a space, spaces falling back to the global
+     * settings are flagged rather than holding them so they follow the global
+     * settings in use.
+     */
+    private static final class Resolved {
+
+        private static final Resolved GLOBAL = new Resolved(null, true);
+        private static final Resolved DISABLED = new Resolved(null, false);
+
+        private final PurgeAttachmentSettings settings;
+        private final boolean global;
+
+        private Resolved(PurgeAttachmentSettings settings, boolean global) {
+            this.settings = settings;
+            this.global = global;
+        }
+
     }
 
 }
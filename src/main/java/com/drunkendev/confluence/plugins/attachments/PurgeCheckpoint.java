@@ -0,0 +1,137 @@
+/*
+ * PurgeCheckpoint.java    Oct 17 2026, 18:20
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.io.Serializable;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+
+/**
+ * Progress of an unfinished purge run as of its last committed batch.
+ *
+ * @author  Brett Ryan
+ */
+public final class PurgeCheckpoint implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final LocalDateTime start;
+    private final Date modifiedAfter;
+    private final long[] counters;
+    private final Set<ScanPartition> completed;
+    private final Map<ScanPartition, Long> cursors;
+    private final Map<ScanPartition, Set<Long>> retries;
+    private final long entriesLength;
+    private final boolean paused;
+    private final Instant updated;
+
+    /**
+     * Creates a new {@code PurgeCheckpoint} instance.
+     *
+     * @param   start
+     *          Start time of the run being checkpointed.
+     * @param   modifiedAfter
+     *          High-water mark of an incremental run, or {@code null}.
+     * @param   counters
+     *          Counter values.
+     * @param   completed
+     *          Partitions fully processed.
+     * @param   cursors
+     *          Last attachment identifier processed for each partition which
+     *          has been started but not completed.
+     * @param   retries
+     *          Attachments at or before the cursor of each partition to be
+     *          evaluated again, as their deletions had not committed.
+     * @param   entriesLength
+     *          Length of the report entry journal belonging to this
+     *          checkpoint.
+     * @param   paused
+     *          Whether the run stopped at the end of its time budget or
+     *          maintenance window.
+     */
+    public PurgeCheckpoint(LocalDateTime start,
+                           Date modifiedAfter,
+                           long[] counters,
+                           Set<ScanPartition> completed,
+                           Map<ScanPartition, Long> cursors,
+                           Map<ScanPartition, Set<Long>> retries,
+                           long entriesLength,
+                           boolean paused) {
+        this.start = start;
+        this.modifiedAfter = modifiedAfter;
+        this.counters = counters.clone();
+        this.completed = new HashSet<>(completed);
+        this.cursors = new HashMap<>(cursors);
+        this.retries = new HashMap<>();
+        retries.forEach((p, ids) -> this.retries.put(p, new TreeSet<>(ids)));
+        this.entriesLength = entriesLength;
+        this.paused = paused;
+        this.updated = Instant.now();
+    }
+
+    public LocalDateTime getStart() {
+        return start;
+    }
+
+    public Date getModifiedAfter() {
+        return modifiedAfter;
+    }
+
+    public long[] getCounters() {
+        return counters.clone();
+    }
+
+    public Set<ScanPartition> getCompleted() {
+        return Collections.unmodifiableSet(completed);
+    }
+
+    public Map<ScanPartition, Long> getCursors() {
+        return Collections.unmodifiableMap(cursors);
+    }
+
+    /**
+     * @return  attachments to evaluate again by partition, empty for a
+     *          checkpoint saved before these were recorded.
+     */
+    public Map<ScanPartition, Set<Long>> getRetries() {
+        return retries == null ? Collections.emptyMap() : Collections.unmodifiableMap(retries);
+    }
+
+    public long getEntriesLength() {
+        return entriesLength;
+    }
+
+    /**
+     * @return  {@code true} if the run was paused to be continued in the next
+     *          maintenance window rather than interrupted.
+     */
+    public boolean isPaused() {
+        return paused;
+    }
+
+    /**
+     * @return  time this checkpoint was taken.
+     */
+    public Instant getUpdated() {
+        return updated;
+    }
+
+    @Override
+    public String toString() {
+        return "PurgeCheckpoint{" + "start=" + start + ", modifiedAfter=" + modifiedAfter + ", completed=" + completed.size() + ", cursors=" + cursors + ", retries=" + getRetries().size() + ", entriesLength=" + entriesLength + ", paused=" + paused + ", updated=" + updated + '}';
+    }
+
+}
@@ -0,0 +1,189 @@
+/*
+ * PurgeCheckpointStore.java    Oct 17 2026, 18:35
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+
+/**
+ * Stores the checkpoint of an unfinished purge run.
+ *
+ * <p>
+ * The checkpoint itself is small and replaced atomically after each batch.
+ * Report entries are appended to a separate journal; the checkpoint records
+ * the journal length it covers so entries written after the last checkpoint
+ * are dropped on resume.
+ *
+ * @author  Brett Ryan
+ */
+public class PurgeCheckpointStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PurgeCheckpointStore.class);
+
+    private static final String CHECKPOINT_FILE = "checkpoint.ser";
+    private static final String ENTRIES_FILE = "entries.log";
+
+    private final PluginHome pluginHome;
+
+    /**
+     * Creates a new {@code PurgeCheckpointStore} instance.
+     */
+    public PurgeCheckpointStore(PluginHome pluginHome) {
+        this.pluginHome = pluginHome;
+    }
+
+    private Path getDir() {
+        return pluginHome.resolve("checkpoint");
+    }
+
+    /**
+     * Load the current checkpoint.
+     *
+     * @param   maxAge
+     *          Checkpoints not updated within this duration are discarded.
+     * @return  the checkpoint, or {@code null} if there is none to resume.
+     */
+    public synchronized PurgeCheckpoint load(Duration maxAge) {
+        Path file = getDir().resolve(CHECKPOINT_FILE);
+        if (!Files.exists(file)) {
+            return null;
+        }
+        PurgeCheckpoint res;
+        try (ObjectInputStream in = new ObjectInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            res = (PurgeCheckpoint) in.readObject();
+        } catch (IOException | ClassNotFoundException | ClassCastException ex) {
+            LOG.warn("Discarding unreadable checkpoint {}: {}", file, ex.getMessage());
+            clear();
+            return null;
+        }
+        // A paused run waits for the next maintenance window however far away.
+        if (!res.isPaused() && res.getUpdated().plus(maxAge).isBefore(Instant.now())) {
+            LOG.info("Discarding stale checkpoint last updated {}", res.getUpdated());
+            clear();
+            return null;
+        }
+        return res;
+    }
+
+    /**
+     * Replace the current checkpoint.
+     */
+    public synchronized void save(PurgeCheckpoint checkpoint) {
+        Path dir = getDir();
+        try {
+            Files.createDirectories(dir);
+            Path tmp = dir.resolve(CHECKPOINT_FILE + ".tmp");
+            try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp)))) {
+                out.writeObject(checkpoint);
+            }
+            Files.move(tmp, dir.resolve(CHECKPOINT_FILE), ATOMIC_MOVE, REPLACE_EXISTING);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Append report entries to the journal.
+     *
+     * @return  length of the journal after appending.
+     */
+    public synchronized long append(Collection<? extends Serializable> entries) {
+        Path dir = getDir();
+        Path file = dir.resolve(ENTRIES_FILE);
+        try {
+            Files.createDirectories(dir);
+            if (!entries.isEmpty()) {
+                try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                        Files.newOutputStream(file, CREATE, APPEND)))) {
+                    for (Serializable e : entries) {
+                        ByteArrayOutputStream buf = new ByteArrayOutputStream();
+                        try (ObjectOutputStream oo = new ObjectOutputStream(buf)) {
+                            oo.writeObject(e);
+                        }
+                        out.writeInt(buf.size());
+                        buf.writeTo(out);
+                    }
+                }
+            }
+            return Files.exists(file) ? Files.size(file) : 0;
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /**
+     * Read the journal belonging to a checkpoint, truncating any entries
+     * written after it. Entries are passed one at a time as they are read.
+     */
+    public synchronized void readEntries(PurgeCheckpoint checkpoint, Consumer<Object> action) {
+        Path file = getDir().resolve(ENTRIES_FILE);
+        if (!Files.exists(file)) {
+            return;
+        }
+        int read = 0;
+        try {
+            try (FileChannel ch = FileChannel.open(file, WRITE)) {
+                ch.truncate(checkpoint.getEntriesLength());
+            }
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+                while (true) {
+                    byte[] b = new byte[in.readInt()];
+                    in.readFully(b);
+                    try (ObjectInputStream oi = new ObjectInputStream(new ByteArrayInputStream(b))) {
+                        action.accept(oi.readObject());
+                        read++;
+                    }
+                }
+            } catch (EOFException ex) {
+                // End of journal.
+            }
+        } catch (IOException | ClassNotFoundException ex) {
+            LOG.warn("Could not read checkpoint report entries, {} read: {}", read, ex.getMessage());
+        }
+    }
+
+    /**
+     * Remove the checkpoint and its journal so the next run starts from the
+     * beginning.
+     */
+    public synchronized void clear() {
+        try {
+            Files.deleteIfExists(getDir().resolve(CHECKPOINT_FILE));
+            Files.deleteIfExists(getDir().resolve(ENTRIES_FILE));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+}
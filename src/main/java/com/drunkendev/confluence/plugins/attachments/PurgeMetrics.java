@@ -0,0 +1,294 @@
+/*
+ * PurgeMetrics.java    Oct 18 2026, 01:30
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.EnumMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.DisposableBean;
+
+
+/**
+ * Live metrics of the purge job exposed through JMX.
+ *
+ * <p>
+ * Registers {@code com.drunkendev.confluence.plugins.attachments:type=PurgeMetrics}
+ * holding counters of the current or last run and totals since the plugin
+ * started, and a {@link PhaseTimerMBean} per {@link Phase} named by its
+ * {@code phase} key. Metrics remain registered between runs so the results
+ * of the last run may be read after it finishes.
+ *
+ * @author  Brett Ryan
+ */
+public class PurgeMetrics implements PurgeMetricsMBean, DisposableBean {
+
+    private static final Logger LOG = LoggerFactory.getLogger(PurgeMetrics.class);
+
+    private static final String DOMAIN = "com.drunkendev.confluence.plugins.attachments";
+
+    /**
+     * Timed phases of a purge run.
+     */
+    public enum Phase {
+        /**
+         * Scanning for candidate attachment identifiers.
+         */
+        SCAN,
+        /**
+         * Loading current attachments of a batch.
+         */
+        LOAD,
+        /**
+         * Loading prior versions of a batch.
+         */
+        PRIOR_LOAD,
+        /**
+         * Evaluating rules for an attachment.
+         */
+        EVALUATE,
+        /**
+         * Hashing content of a batch for the duplicate content rule.
+         */
+        DIGEST,
+        /**
+         * Deleting a batch of versions.
+         */
+        DELETE,
+        /**
+         * Rendering and queueing report mail.
+         */
+        MAIL
+    }
+
+    private final Map<Phase, PhaseTimer> timers = new EnumMap<>(Phase.class);
+    private final LongAdder runVisited = new LongAdder();
+    private final LongAdder runDeleted = new LongAdder();
+    private final LongAdder runReclaimedBytes = new LongAdder();
+    private final LongAdder runSkipped = new LongAdder();
+    private final LongAdder totalVisited = new LongAdder();
+    private final LongAdder totalDeleted = new LongAdder();
+    private final LongAdder totalReclaimedBytes = new LongAdder();
+    private final LongAdder totalSkipped = new LongAdder();
+    private final LongAdder totalDataMissing = new LongAdder();
+    private final LongAdder runs = new LongAdder();
+    private volatile boolean running;
+    private volatile Instant runStarted;
+    private volatile Instant runEnded;
+
+    /**
+     * Creates a new {@code PurgeMetrics} instance and registers it with the
+     * platform MBean server.
+     */
+    public PurgeMetrics() {
+        for (Phase p : Phase.values()) {
+            timers.put(p, new PhaseTimer(p.name().toLowerCase(Locale.ENGLISH)));
+        }
+        register(getObjectName(null), this);
+        for (PhaseTimer t : timers.values()) {
+            register(getObjectName(t.getName()), t);
+        }
+    }
+
+    private static ObjectName getObjectName(String phase) {
+        try {
+            return new ObjectName(DOMAIN + ":type=PurgeMetrics" + (phase == null ? "" : ",phase=" + phase));
+        } catch (JMException ex) {
+            throw new IllegalStateException(ex);
+        }
+    }
+
+    private static void register(ObjectName name, Object mbean) {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            // Replace the instance of a previous plugin version still registered.
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+            server.registerMBean(mbean, name);
+        } catch (JMException ex) {
+            LOG.warn("Could not register {}: {}", name, ex.getMessage());
+        }
+    }
+
+    @Override
+    public void destroy() {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        unregister(server, getObjectName(null));
+        for (PhaseTimer t : timers.values()) {
+            unregister(server, getObjectName(t.getName()));
+        }
+    }
+
+    private static void unregister(MBeanServer server, ObjectName name) {
+        try {
+            if (server.isRegistered(name)) {
+                server.unregisterMBean(name);
+            }
+        } catch (JMException ex) {
+            LOG.debug("Could not unregister {}: {}", name, ex.getMessage());
+        }
+    }
+
+    public PhaseTimer getTimer(Phase phase) {
+        return timers.get(phase);
+    }
+
+    /**
+     * Reset run counters at the start of a run.
+     */
+    public void runStarted() {
+        runVisited.reset();
+        runDeleted.reset();
+        runReclaimedBytes.reset();
+        runSkipped.reset();
+        runStarted = Instant.now();
+        runEnded = null;
+        running = true;
+        runs.increment();
+    }
+
+    public void runFinished() {
+        runEnded = Instant.now();
+        running = false;
+        LOG.debug("Phase timings: {}", timers.values());
+    }
+
+    public void visited() {
+        runVisited.increment();
+        totalVisited.increment();
+    }
+
+    public void deleted(long count) {
+        runDeleted.add(count);
+        totalDeleted.add(count);
+    }
+
+    public void reclaimed(long bytes) {
+        runReclaimedBytes.add(bytes);
+        totalReclaimedBytes.add(bytes);
+    }
+
+    public void skipped(long count) {
+        runSkipped.add(count);
+        totalSkipped.add(count);
+    }
+
+    /**
+     * Data of a deleted version was not found where journaled.
+     */
+    public void dataMissing() {
+        totalDataMissing.increment();
+    }
+
+    @Override
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public String getRunStarted() {
+        Instant t = runStarted;
+        return t == null ? null : t.toString();
+    }
+
+    @Override
+    public String getRunEnded() {
+        Instant t = runEnded;
+        return t == null ? null : t.toString();
+    }
+
+    @Override
+    public long getRunMillis() {
+        Instant start = runStarted;
+        if (start == null) {
+            return 0;
+        }
+        Instant end = runEnded;
+        return Duration.between(start, end == null ? Instant.now() : end).toMillis();
+    }
+
+    @Override
+    public long getRunVisited() {
+        return runVisited.sum();
+    }
+
+    @Override
+    public long getRunDeleted() {
+        return runDeleted.sum();
+    }
+
+    @Override
+    public long getRunReclaimedBytes() {
+        return runReclaimedBytes.sum();
+    }
+
+    @Override
+    public long getRunSkipped() {
+        return runSkipped.sum();
+    }
+
+    @Override
+    public double getRunVisitedPerSecond() {
+        return perSecond(runVisited.sum());
+    }
+
+    @Override
+    public double getRunDeletedPerSecond() {
+        return perSecond(runDeleted.sum());
+    }
+
+    @Override
+    public double getRunReclaimedBytesPerSecond() {
+        return perSecond(runReclaimedBytes.sum());
+    }
+
+    private double perSecond(long value) {
+        long ms = getRunMillis();
+        return ms == 0 ? 0 : value * 1000d / ms;
+    }
+
+    @Override
+    public long getRuns() {
+        return runs.sum();
+    }
+
+    @Override
+    public long getTotalVisited() {
+        return totalVisited.sum();
+    }
+
+    @Override
+    public long getTotalDeleted() {
+        return totalDeleted.sum();
+    }
+
+    @Override
+    public long getTotalReclaimedBytes() {
+        return totalReclaimedBytes.sum();
+    }
+
+    @Override
+    public long getTotalSkipped() {
+        return totalSkipped.sum();
+    }
+
+    @Override
+    public long getTotalDataMissing() {
+        return totalDataMissing.sum();
+    }
+
+}
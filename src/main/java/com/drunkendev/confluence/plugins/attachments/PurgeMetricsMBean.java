@@ -0,0 +1,67 @@
+/*
+ * PurgeMetricsMBean.java    Oct 18 2026, 01:30
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+
+/**
+ * Management interface of {@link PurgeMetrics}.
+ *
+ * <p>
+ * Run values are those of the run in progress, or of the last run once it
+ * has finished. Totals accumulate over every run since the plugin started.
+ *
+ * @author  Brett Ryan
+ */
+public interface PurgeMetricsMBean {
+
+    boolean isRunning();
+
+    /**
+     * @return  start of the current or last run in ISO-8601, or {@code null}.
+     */
+    String getRunStarted();
+
+    /**
+     * @return  end of the last run in ISO-8601, or {@code null} while the
+     *          first run is in progress.
+     */
+    String getRunEnded();
+
+    long getRunMillis();
+
+    long getRunVisited();
+
+    long getRunDeleted();
+
+    long getRunReclaimedBytes();
+
+    long getRunSkipped();
+
+    double getRunVisitedPerSecond();
+
+    double getRunDeletedPerSecond();
+
+    double getRunReclaimedBytesPerSecond();
+
+    long getRuns();
+
+    long getTotalVisited();
+
+    long getTotalDeleted();
+
+    long getTotalReclaimedBytes();
+
+    long getTotalSkipped();
+
+    /**
+     * @return  versions whose data was no longer found where journaled once
+     *          their rows were deleted.
+     */
+    long getTotalDataMissing();
+
+}
@@ -0,0 +1,159 @@
+/*
+ * PurgeRuleSet.java    Oct 18 2026, 03:50
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Rules of one set of settings compiled for evaluating many attachments.
+ *
+ * <p>
+ * Versions are visited once from newest to oldest. A cascading rule matching
+ * a version purges it and every older version, ending the pass; other rules
+ * purge only the version they match. Versions purged are not counted towards
+ * the bytes retained by newer versions.
+ *
+ * <p>
+ * A rule set is immutable and may be shared by any number of threads,
+ * evaluating an attachment allocates nothing.
+ *
+ * @author  Brett Ryan
+ */
+public final class PurgeRuleSet {
+
+    /**
+     * Factories of every rule type, in the order rules are evaluated.
+     */
+    public static final List<RetentionRule.Factory> FACTORIES = Collections.unmodifiableList(Arrays.asList(
+            RevisionCountRule::create,
+            AgeRule::create,
+            TotalSizeRule::create,
+            VersionSizeRule::create,
+            DuplicateContentRule::create,
+            FileTypeRule::create));
+
+    private static final PurgeRuleSet EMPTY = new PurgeRuleSet(new RetentionRule[0]);
+
+    /**
+     * Rules skipped for an attachment are tracked in a single {@code long}.
+     */
+    private static final int MAX_RULES = Long.SIZE;
+
+    private final RetentionRule[] rules;
+    private final boolean[] cascading;
+
+    private PurgeRuleSet(RetentionRule[] rules) {
+        if (rules.length > MAX_RULES) {
+            throw new IllegalArgumentException("At most " + MAX_RULES + " rules may be compiled, given " + rules.length + ".");
+        }
+        this.rules = rules;
+        this.cascading = new boolean[rules.length];
+        for (int i = 0; i < rules.length; i++) {
+            cascading[i] = rules[i].isCascading();
+        }
+    }
+
+    /**
+     * Compile the rules enabled by settings.
+     *
+     * @param   settings
+     *          Settings to compile, {@code null} for none.
+     * @param   now
+     *          Time the rules are evaluated at.
+     */
+    public static PurgeRuleSet compile(PurgeAttachmentSettings settings, LocalDateTime now) {
+        return compile(settings, now, FACTORIES);
+    }
+
+    /**
+     * Compile the rules enabled by settings from the given factories.
+     */
+    public static PurgeRuleSet compile(PurgeAttachmentSettings settings,
+                                       LocalDateTime now,
+                                       List<RetentionRule.Factory> factories) {
+        if (settings == null) {
+            return EMPTY;
+        }
+        List<RetentionRule> res = new ArrayList<>();
+        for (RetentionRule.Factory f : factories) {
+            res.addAll(f.create(settings, now));
+        }
+        return res.isEmpty() ? EMPTY : new PurgeRuleSet(res.toArray(new RetentionRule[res.size()]));
+    }
+
+    /**
+     * @return  {@code true} if no rule is enabled.
+     */
+    public boolean isEmpty() {
+        return rules.length == 0;
+    }
+
+    /**
+     * Select the prior versions of an attachment to purge.
+     *
+     * @param   versions
+     *          Prior versions, oldest first.
+     * @param   fileName
+     *          File name of the attachment, or {@code null} where not known.
+     * @param   contentType
+     *          MIME type of the attachment, or {@code null} where not known.
+     * @param   selected
+     *          Cleared and set with the indexes of versions to purge.
+     * @return  number of versions selected.
+     */
+    public int evaluate(PriorVersions versions, String fileName, String contentType, BitSet selected) {
+        selected.clear();
+        int count = versions.size();
+        if (count == 0 || rules.length == 0) {
+            return 0;
+        }
+        // Rules not applying to this attachment are skipped for the pass.
+        long skip = 0;
+        for (int r = 0; r < rules.length; r++) {
+            if (!rules[r].appliesTo(fileName, contentType)) {
+                skip |= 1L << r;
+            }
+        }
+
+        int n = 0;
+        long retained = 0;
+        for (int i = count - 1; i >= 0; i--) {
+            long bytes = retained + versions.getSize(i);
+            boolean purge = false;
+            for (int r = 0; r < rules.length; r++) {
+                if ((skip & 1L << r) != 0 || !rules[r].purges(versions, i, bytes)) {
+                    continue;
+                }
+                if (cascading[r]) {
+                    selected.set(0, i + 1);
+                    return n + i + 1;
+                }
+                purge = true;
+            }
+            if (purge) {
+                selected.set(i);
+                n++;
+            } else {
+                retained = bytes;
+            }
+        }
+        return n;
+    }
+
+    @Override
+    public String toString() {
+        return "PurgeRuleSet" + Arrays.toString(rules);
+    }
+
+}
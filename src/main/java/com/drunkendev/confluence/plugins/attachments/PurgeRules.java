@@ -0,0 +1,43 @@
+/*
+ * PurgeRules.java    Oct 17 2026, 22:10
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+
+/**
+ * Values shared by the rules of a {@link PurgeRuleSet}.
+ *
+ * <p>
+ * Versions are addressed by index, oldest first, so that the same decision is
+ * made whether they are held as entities by the purge job or as rows of a
+ * metadata snapshot by the simulator.
+ *
+ * @author  Brett Ryan
+ */
+public final class PurgeRules {
+
+    /**
+     * Modification time of a version whose modification date is not known,
+     * such a version is never purged by the age rule.
+     */
+    public static final long UNKNOWN_MODIFIED = Long.MIN_VALUE;
+
+    private PurgeRules() {
+    }
+
+    /**
+     * @return  epoch milliseconds before which versions are old enough for
+     *          the age rule when evaluated at the given time.
+     */
+    public static long getAgeCutoff(PurgeAttachmentSettings stng, LocalDateTime now) {
+        return now.minusDays(stng.getMaxDaysOld()).atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+}
@@ -0,0 +1,66 @@
+/*
+ * PurgeRunState.java    Oct 17 2026, 17:05
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.io.Serializable;
+import java.util.Date;
+
+
+/**
+ * State carried between executions of the purge job.
+ *
+ * @author  Brett Ryan
+ */
+public class PurgeRunState implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private Date highWaterMark;
+    private Date lastFullSweep;
+
+    /**
+     * Creates a new {@code PurgeRunState} instance.
+     */
+    public PurgeRunState() {
+    }
+
+    public PurgeRunState(Date highWaterMark, Date lastFullSweep) {
+        this.highWaterMark = highWaterMark;
+        this.lastFullSweep = lastFullSweep;
+    }
+
+    /**
+     * @return  start time of the last run to visit every changed attachment,
+     *          later runs need only visit attachments modified after this.
+     */
+    public Date getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    public void setHighWaterMark(Date highWaterMark) {
+        this.highWaterMark = highWaterMark;
+    }
+
+    /**
+     * @return  start time of the last completed full sweep, or {@code null}
+     *          if a full sweep is required.
+     */
+    public Date getLastFullSweep() {
+        return lastFullSweep;
+    }
+
+    public void setLastFullSweep(Date lastFullSweep) {
+        this.lastFullSweep = lastFullSweep;
+    }
+
+    @Override
+    public String toString() {
+        return "PurgeRunState{" + "highWaterMark=" + highWaterMark + ", lastFullSweep=" + lastFullSweep + '}';
+    }
+
+}
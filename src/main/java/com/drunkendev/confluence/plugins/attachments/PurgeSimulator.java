@@ -0,0 +1,185 @@
+/*
+ * PurgeSimulator.java    Oct 17 2026, 23:00
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.util.BitSet;
+import java.util.function.Function;
+
+
+/**
+ * Estimates what a purge would delete by evaluating settings against an
+ * attachment metadata snapshot.
+ *
+ * <p>
+ * The rules applied are those of the purge job. The delete limit and
+ * report-only mode are ignored, the result is everything the rules match.
+ *
+ * @author  Brett Ryan
+ */
+public final class PurgeSimulator {
+
+    private PurgeSimulator() {
+    }
+
+    /**
+     * Evaluate settings against every attachment in a snapshot.
+     *
+     * @param   snapshot
+     *          Snapshot to evaluate.
+     * @param   settings
+     *          Settings in effect for a space key, or for {@code null} those
+     *          for attachments outside of spaces. Returns {@code null} where
+     *          attachments are not purged. Called at most once per space.
+     * @param   now
+     *          Time the age rule is evaluated from.
+     */
+    public static Result simulate(AttachmentMetadataSnapshot snapshot,
+                                  Function<String, PurgeAttachmentSettings> settings,
+                                  LocalDateTime now) {
+        int spaces = snapshot.getSpaceCount();
+        // Index 0 holds attachments outside of spaces, space n is held at n + 1.
+        PurgeRuleSet[] resolved = new PurgeRuleSet[spaces + 1];
+        boolean[] done = new boolean[spaces + 1];
+        SnapshotVersions versions = new SnapshotVersions(snapshot);
+        BitSet selected = new BitSet();
+
+        Result res = new Result(snapshot.getTaken());
+        int rows = snapshot.size();
+        int from = 0;
+        while (from < rows) {
+            long originalId = snapshot.getOriginalId(from);
+            int to = from + 1;
+            while (to < rows && snapshot.getOriginalId(to) == originalId) {
+                to++;
+            }
+
+            int s = snapshot.getSpace(from) + 1;
+            if (!done[s]) {
+                PurgeAttachmentSettings stng = settings.apply(snapshot.getSpaceKey(s - 1));
+                resolved[s] = stng == null ? null : PurgeRuleSet.compile(stng, now);
+                done[s] = true;
+            }
+            if (resolved[s] != null) {
+                res.attachments++;
+                res.priorVersions += to - from;
+                versions.from = from;
+                versions.count = to - from;
+                // File names are not held by the snapshot, rules by file type are not applied.
+                int n = resolved[s].evaluate(versions, null, null, selected);
+                if (n > 0) {
+                    res.matchedAttachments++;
+                    res.versions += n;
+                    for (int i = selected.nextSetBit(0); i >= 0; i = selected.nextSetBit(i + 1)) {
+                        res.bytes += snapshot.getSize(from + i);
+                    }
+                }
+            }
+            from = to;
+        }
+        return res;
+    }
+
+    /**
+     * Versions of one attachment within a snapshot, moved from attachment to
+     * attachment rather than created for each.
+     */
+    private static final class SnapshotVersions implements PriorVersions {
+
+        private final AttachmentMetadataSnapshot snapshot;
+        private int from;
+        private int count;
+
+        private SnapshotVersions(AttachmentMetadataSnapshot snapshot) {
+            this.snapshot = snapshot;
+        }
+
+        @Override
+        public int size() {
+            return count;
+        }
+
+        @Override
+        public long getSize(int index) {
+            return snapshot.getSize(from + index);
+        }
+
+        @Override
+        public long getModified(int index) {
+            return snapshot.getModified(from + index);
+        }
+
+    }
+
+    /**
+     * Totals of a simulation.
+     */
+    public static final class Result {
+
+        private final Instant snapshotTaken;
+        private long attachments;
+        private long priorVersions;
+        private long matchedAttachments;
+        private long versions;
+        private long bytes;
+
+        private Result(Instant snapshotTaken) {
+            this.snapshotTaken = snapshotTaken;
+        }
+
+        /**
+         * @return  time the snapshot evaluated was taken.
+         */
+        public Instant getSnapshotTaken() {
+            return snapshotTaken;
+        }
+
+        /**
+         * @return  number of attachments with prior versions evaluated.
+         */
+        public long getAttachments() {
+            return attachments;
+        }
+
+        /**
+         * @return  number of prior versions evaluated.
+         */
+        public long getPriorVersions() {
+            return priorVersions;
+        }
+
+        /**
+         * @return  number of attachments with at least one version to delete.
+         */
+        public long getMatchedAttachments() {
+            return matchedAttachments;
+        }
+
+        /**
+         * @return  number of versions which would be deleted.
+         */
+        public long getVersions() {
+            return versions;
+        }
+
+        /**
+         * @return  bytes which would be reclaimed.
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        @Override
+        public String toString() {
+            return "Result{" + "snapshotTaken=" + snapshotTaken + ", attachments=" + attachments + ", priorVersions=" + priorVersions + ", matchedAttachments=" + matchedAttachments + ", versions=" + versions + ", bytes=" + bytes + '}';
+        }
+
+    }
+
+}
@@ -0,0 +1,77 @@
+/*
+ * RetentionRule.java    Oct 18 2026, 03:40
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.time.LocalDateTime;
+import java.util.List;
+
+
+/**
+ * A rule deciding which prior versions of an attachment to purge.
+ *
+ * <p>
+ * Rules are created from settings by a {@link Factory} when a
+ * {@link PurgeRuleSet} is compiled and must not change once created. They are
+ * evaluated from the newest prior version to the oldest in a single pass
+ * shared by every rule, so must not allocate or hold state between calls.
+ *
+ * @author  Brett Ryan
+ */
+public interface RetentionRule {
+
+    /**
+     * Determine whether this rule is evaluated for an attachment, called once
+     * per attachment before its versions are visited.
+     *
+     * @param   fileName
+     *          File name of the attachment, may be {@code null} where not
+     *          known.
+     * @param   contentType
+     *          MIME type of the attachment, may be {@code null} where not
+     *          known.
+     */
+    default boolean appliesTo(String fileName, String contentType) {
+        return true;
+    }
+
+    /**
+     * @return  {@code true} if purging a version also purges every older
+     *          version, {@code false} if only the version matched is purged.
+     */
+    default boolean isCascading() {
+        return true;
+    }
+
+    /**
+     * @param   versions
+     *          Prior versions of the attachment.
+     * @param   index
+     *          Index of the version being visited.
+     * @param   retainedBytes
+     *          Bytes of this version and every newer prior version not
+     *          already purged.
+     * @return  {@code true} to purge the version.
+     */
+    boolean purges(PriorVersions versions, int index, long retainedBytes);
+
+    /**
+     * Creates the rules of one type enabled by settings.
+     */
+    @FunctionalInterface
+    interface Factory {
+
+        /**
+         * @param   now
+         *          Time the rules are evaluated at.
+         * @return  rules enabled by the settings, empty if none are.
+         */
+        List<RetentionRule> create(PurgeAttachmentSettings settings, LocalDateTime now);
+
+    }
+
+}
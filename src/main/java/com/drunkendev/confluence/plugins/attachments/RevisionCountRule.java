@@ -0,0 +1,53 @@
+/*
+ * RevisionCountRule.java    Oct 18 2026, 04:00
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Keeps at most a number of the newest prior versions.
+ *
+ * @author  Brett Ryan
+ */
+public final class RevisionCountRule implements RetentionRule {
+
+    private final int maxRevisions;
+
+    /**
+     * Creates a new {@code RevisionCountRule} instance.
+     *
+     * @param   maxRevisions
+     *          Number of prior versions kept.
+     */
+    public RevisionCountRule(int maxRevisions) {
+        this.maxRevisions = maxRevisions;
+    }
+
+    /**
+     * {@link RetentionRule.Factory} of the version limit.
+     */
+    public static List<RetentionRule> create(PurgeAttachmentSettings stng, LocalDateTime now) {
+        return stng.isRevisionCountRuleEnabled()
+               ? Collections.singletonList(new RevisionCountRule(stng.getMaxRevisions()))
+               : Collections.emptyList();
+    }
+
+    @Override
+    public boolean purges(PriorVersions versions, int index, long retainedBytes) {
+        return versions.size() - index > maxRevisions;
+    }
+
+    @Override
+    public String toString() {
+        return "RevisionCountRule{" + "maxRevisions=" + maxRevisions + '}';
+    }
+
+}
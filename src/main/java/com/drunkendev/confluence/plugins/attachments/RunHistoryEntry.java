@@ -0,0 +1,161 @@
+/*
+ * RunHistoryEntry.java    Oct 18 2026, 02:10
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import com.atlassian.core.util.FileSize;
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+
+
+/**
+ * Results of one purge run kept in the run history.
+ *
+ * @author  Brett Ryan
+ */
+public final class RunHistoryEntry {
+
+    private final Instant start;
+    private final Instant end;
+    private final long visited;
+    private final long deleted;
+    private final long reclaimedBytes;
+    private final long deleteMillis;
+    private final boolean cancelled;
+    private final boolean partial;
+    private final String node;
+
+    /**
+     * Creates a new {@code RunHistoryEntry} instance.
+     *
+     * @param   deleteMillis
+     *          Total milliseconds spent deleting versions.
+     * @param   partial
+     *          {@code true} where the run stopped before visiting every
+     *          attachment, such as at a limit or the end of a window.
+     * @param   node
+     *          Node the run was started on.
+     */
+    public RunHistoryEntry(Instant start,
+                           Instant end,
+                           long visited,
+                           long deleted,
+                           long reclaimedBytes,
+                           long deleteMillis,
+                           boolean cancelled,
+                           boolean partial,
+                           String node) {
+        this.start = start;
+        this.end = end;
+        this.visited = visited;
+        this.deleted = deleted;
+        this.reclaimedBytes = reclaimedBytes;
+        this.deleteMillis = deleteMillis;
+        this.cancelled = cancelled;
+        this.partial = partial;
+        this.node = node;
+    }
+
+    public Instant getStart() {
+        return start;
+    }
+
+    public Instant getEnd() {
+        return end;
+    }
+
+    public long getDurationMillis() {
+        return Duration.between(start, end).toMillis();
+    }
+
+    public long getVisited() {
+        return visited;
+    }
+
+    public long getDeleted() {
+        return deleted;
+    }
+
+    public long getReclaimedBytes() {
+        return reclaimedBytes;
+    }
+
+    public String getReclaimedBytesPretty() {
+        return FileSize.format(reclaimedBytes);
+    }
+
+    /**
+     * @return  run time divided by attachments visited, {@code 0} if none
+     *          were visited.
+     */
+    public double getMillisPerVisit() {
+        return visited == 0 ? 0 : getDurationMillis() / (double) visited;
+    }
+
+    /**
+     * @return  average time taken to delete a version, {@code 0} if none were
+     *          deleted.
+     */
+    public double getMillisPerDeletion() {
+        return deleted == 0 ? 0 : deleteMillis / (double) deleted;
+    }
+
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    public boolean isPartial() {
+        return partial;
+    }
+
+    public String getStatus() {
+        return cancelled ? "Cancelled" : partial ? "Partial" : "Complete";
+    }
+
+    public String getNode() {
+        return node;
+    }
+
+    /**
+     * Write this entry for {@link #read(DataInput)}.
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeLong(start.toEpochMilli());
+        out.writeLong(end.toEpochMilli());
+        out.writeLong(visited);
+        out.writeLong(deleted);
+        out.writeLong(reclaimedBytes);
+        out.writeLong(deleteMillis);
+        out.writeBoolean(cancelled);
+        out.writeBoolean(partial);
+        out.writeUTF(node == null ? "" : node);
+    }
+
+    /**
+     * Read an entry written by {@link #write(DataOutput)}.
+     */
+    static RunHistoryEntry read(DataInput in) throws IOException {
+        return new RunHistoryEntry(Instant.ofEpochMilli(in.readLong()),
+                                   Instant.ofEpochMilli(in.readLong()),
+                                   in.readLong(),
+                                   in.readLong(),
+                                   in.readLong(),
+                                   in.readLong(),
+                                   in.readBoolean(),
+                                   in.readBoolean(),
+                                   in.readUTF());
+    }
+
+    @Override
+    public String toString() {
+        return "RunHistoryEntry{" + "start=" + start + ", end=" + end + ", visited=" + visited + ", deleted=" + deleted + ", reclaimedBytes=" + reclaimedBytes + ", deleteMillis=" + deleteMillis + ", cancelled=" + cancelled + ", partial=" + partial + ", node=" + node + '}';
+    }
+
+}
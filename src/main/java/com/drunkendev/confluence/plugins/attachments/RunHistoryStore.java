@@ -0,0 +1,121 @@
+/*
+ * RunHistoryStore.java    Oct 18 2026, 02:20
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.UUID;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static java.nio.file.StandardCopyOption.ATOMIC_MOVE;
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+
+/**
+ * Keeps the results of recent purge runs.
+ *
+ * <p>
+ * Runs are held in a file in the shared home in the order they finish. The
+ * file is written again in full for each run and moved over the last, so a
+ * node stopping part way through leaves the previous history intact.
+ *
+ * @author  Brett Ryan
+ */
+public class RunHistoryStore {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RunHistoryStore.class);
+
+    private static final String HISTORY_FILE = "runs.bin";
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final PluginHome pluginHome;
+
+    /**
+     * Creates a new {@code RunHistoryStore} instance.
+     */
+    public RunHistoryStore(PluginHome pluginHome) {
+        this.pluginHome = pluginHome;
+    }
+
+    private Path getFile() {
+        return pluginHome.resolve("history").resolve(HISTORY_FILE);
+    }
+
+    /**
+     * Record a finished run.
+     *
+     * @param   maxRuns
+     *          Number of most recent runs to keep.
+     */
+    public synchronized void add(RunHistoryEntry entry, int maxRuns) {
+        Path file = getFile();
+        try {
+            Files.createDirectories(file.getParent());
+            List<RunHistoryEntry> all = readAll();
+            all.add(entry);
+            write(file, all.subList(Math.max(0, all.size() - maxRuns), all.size()));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private static void write(Path file, List<RunHistoryEntry> entries) throws IOException {
+        Path tmp = file.resolveSibling(file.getFileName() + "." + UUID.randomUUID() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp), BUFFER_SIZE))) {
+            for (RunHistoryEntry e : entries) {
+                e.write(out);
+            }
+        }
+        try {
+            Files.move(tmp, file, ATOMIC_MOVE, REPLACE_EXISTING);
+        } finally {
+            Files.deleteIfExists(tmp);
+        }
+    }
+
+    /**
+     * Read all runs held, most recent first.
+     *
+     * @return  runs held.
+     */
+    public synchronized List<RunHistoryEntry> getRuns() {
+        List<RunHistoryEntry> all = readAll();
+        Collections.reverse(all);
+        return all;
+    }
+
+    private List<RunHistoryEntry> readAll() {
+        Path file = getFile();
+        List<RunHistoryEntry> res = new ArrayList<>();
+        if (!Files.exists(file)) {
+            return res;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file), BUFFER_SIZE))) {
+            while (true) {
+                res.add(RunHistoryEntry.read(in));
+            }
+        } catch (EOFException ex) {
+            // End of the runs held.
+        } catch (IOException ex) {
+            LOG.warn("Could not read run history {}: {}", file, ex.getMessage());
+        }
+        return res;
+    }
+
+}
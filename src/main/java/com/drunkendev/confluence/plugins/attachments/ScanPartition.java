@@ -0,0 +1,91 @@
+/*
+ * ScanPartition.java    Oct 17 2026, 13:40
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+
+/**
+ * Unit of work processed by a single purge worker.
+ *
+ * <p>
+ * Partitions are keyed by space so that all versions of an attachment are
+ * always visited by the same worker.
+ *
+ * @author  Brett Ryan
+ */
+public final class ScanPartition implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Every attachment regardless of space, used where the scan can not be
+     * restricted to a space.
+     */
+    public static final ScanPartition ALL = new ScanPartition(Type.ALL, null);
+
+    /**
+     * Attachments whose container does not belong to a space.
+     */
+    public static final ScanPartition NO_SPACE = new ScanPartition(Type.NO_SPACE, null);
+
+    private enum Type {
+        ALL, NO_SPACE, SPACE
+    }
+
+    private final Type type;
+    private final String spaceKey;
+
+    private ScanPartition(Type type, String spaceKey) {
+        this.type = type;
+        this.spaceKey = spaceKey;
+    }
+
+    public static ScanPartition ofSpace(String spaceKey) {
+        return new ScanPartition(Type.SPACE, Objects.requireNonNull(spaceKey));
+    }
+
+    public boolean isAll() {
+        return type == Type.ALL;
+    }
+
+    public boolean isNoSpace() {
+        return type == Type.NO_SPACE;
+    }
+
+    /**
+     * @return  the space key of a space partition, otherwise {@code null}.
+     */
+    public String getSpaceKey() {
+        return spaceKey;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(type, spaceKey);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof ScanPartition)) {
+            return false;
+        }
+        ScanPartition other = (ScanPartition) obj;
+        return type == other.type && Objects.equals(spaceKey, other.spaceKey);
+    }
+
+    @Override
+    public String toString() {
+        return type == Type.SPACE ? spaceKey : type.name();
+    }
+
+}
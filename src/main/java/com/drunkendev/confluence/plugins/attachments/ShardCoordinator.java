@@ -0,0 +1,232 @@
+/*
+ * ShardCoordinator.java    Oct 17 2026, 20:15
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.io.Serializable;
+import java.time.Duration;
+import java.util.Collection;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Supplier;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+
+/**
+ * Shares the partitions of a purge run between cluster nodes.
+ *
+ * <p>
+ * The first node to start creates the {@link ClusterRun} and becomes its
+ * coordinator, later nodes join it. Each node claims shards through expiring
+ * leases, renewing them while it works. Once a node has finished it publishes
+ * its result and marks the shards it completed as done. Shards held by a node
+ * which stops renewing are claimed by another node.
+ *
+ * <p>
+ * The coordinator keeps claiming shards until every shard is done and then
+ * merges the published results. Should the coordinator's lease expire any node
+ * may take over, including a later run which then completes the unfinished
+ * run.
+ *
+ * <p>
+ * All state is held in a {@link LeaseStore}, so several coordinators within a
+ * single JVM sharing a {@link LocalLeaseStore} act as separate nodes.
+ *
+ * @author  Brett Ryan
+ */
+public final class ShardCoordinator {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ShardCoordinator.class);
+
+    private static final String RUN_KEY = "current-run";
+
+    private final LeaseStore store;
+    private final String nodeId;
+    private final Duration ttl;
+
+    /**
+     * Creates a new {@code ShardCoordinator} instance.
+     *
+     * @param   store
+     *          Store shared by all nodes.
+     * @param   nodeId
+     *          Unique identifier of this node.
+     * @param   ttl
+     *          Lease duration, leases must be renewed well within this.
+     */
+    public ShardCoordinator(LeaseStore store, String nodeId, Duration ttl) {
+        this.store = store;
+        this.nodeId = nodeId;
+        this.ttl = ttl;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+
+    public Duration getLeaseDuration() {
+        return ttl;
+    }
+
+    /**
+     * Join the current run, or start a new one if there is none.
+     *
+     * @param   create
+     *          Creates the run should this node start it.
+     */
+    public ClusterRun join(Supplier<ClusterRun> create) {
+        ClusterRun run = (ClusterRun) store.get(RUN_KEY);
+        if (run == null) {
+            ClusterRun created = create.get();
+            if (store.putIfAbsent(RUN_KEY, created)) {
+                store.tryAcquire(coordinatorKey(created), nodeId, ttl);
+                LOG.info("Node {} started {}", nodeId, created);
+                return created;
+            }
+            run = (ClusterRun) store.get(RUN_KEY);
+        }
+        LOG.info("Node {} joined {}", nodeId, run);
+        return run;
+    }
+
+    /**
+     * Renew this node's coordinator lease, or take it over where it has
+     * expired.
+     *
+     * @return  {@code true} if this node is the coordinator.
+     */
+    public boolean isCoordinator(ClusterRun run) {
+        if (store.renew(coordinatorKey(run), nodeId, ttl)) {
+            return true;
+        }
+        if (store.tryAcquire(coordinatorKey(run), nodeId, ttl)) {
+            LOG.warn("Node {} has taken over coordination of {}", nodeId, run);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Claim a shard which is not done and not leased by another node.
+     *
+     * @param   own
+     *          Shards already held by this node.
+     * @return  the claimed shard, or {@code null} if none is available.
+     */
+    public ScanPartition claim(ClusterRun run, Set<ScanPartition> own) {
+        for (ScanPartition shard : run.getShards()) {
+            if (!own.contains(shard) &&
+                store.get(doneKey(run, shard)) == null &&
+                store.tryAcquire(shardKey(run, shard), nodeId, ttl)) {
+                LOG.debug("Node {} claimed shard {}", nodeId, shard);
+                return shard;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Renew the leases of shards held by this node.
+     *
+     * @return  {@code false} if any lease has been lost to another node.
+     */
+    public boolean renew(ClusterRun run, Collection<ScanPartition> held) {
+        boolean res = true;
+        for (ScanPartition shard : held) {
+            if (!store.renew(shardKey(run, shard), nodeId, ttl)) {
+                LOG.warn("Node {} lost its lease on shard {}", nodeId, shard);
+                res = false;
+            }
+        }
+        return res;
+    }
+
+    /**
+     * Publish the result of this node and mark completed shards as done.
+     * Leases on all held shards are released.
+     *
+     * @param   completed
+     *          Shards fully processed by this node.
+     * @param   held
+     *          All shards claimed by this node.
+     * @param   result
+     *          Result of this node, replacing any it published earlier.
+     */
+    public void publish(ClusterRun run,
+                        Collection<ScanPartition> completed,
+                        Collection<ScanPartition> held,
+                        Serializable result) {
+        store.put(resultKey(run, nodeId), result);
+        for (ScanPartition shard : completed) {
+            store.put(doneKey(run, shard), nodeId);
+        }
+        for (ScanPartition shard : held) {
+            store.release(shardKey(run, shard), nodeId);
+        }
+    }
+
+    /**
+     * @param   own
+     *          Shards held by this node which are counted as done.
+     * @return  {@code true} if every shard of the run is done.
+     */
+    public boolean isComplete(ClusterRun run, Set<ScanPartition> own) {
+        for (ScanPartition shard : run.getShards()) {
+            if (!own.contains(shard) && store.get(doneKey(run, shard)) == null) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return  the result this node published earlier in the run, or
+     *          {@code null}.
+     */
+    public Serializable getResult(ClusterRun run) {
+        return store.get(resultKey(run, nodeId));
+    }
+
+    /**
+     * @return  results published by each node.
+     */
+    public Collection<Serializable> getResults(ClusterRun run) {
+        Map<String, Serializable> res = store.getAll(prefix(run) + "result:");
+        return res.values();
+    }
+
+    /**
+     * Remove all state of a completed run so that the next run starts afresh.
+     */
+    public void finish(ClusterRun run) {
+        store.removeAll(prefix(run));
+        store.removeAll(RUN_KEY);
+        LOG.info("Node {} finished {}", nodeId, run);
+    }
+
+    private static String prefix(ClusterRun run) {
+        return "run-" + run.getId() + ":";
+    }
+
+    private static String coordinatorKey(ClusterRun run) {
+        return prefix(run) + "coordinator";
+    }
+
+    private static String shardKey(ClusterRun run, ScanPartition shard) {
+        return prefix(run) + "shard:" + shard;
+    }
+
+    private static String doneKey(ClusterRun run, ScanPartition shard) {
+        return prefix(run) + "done:" + shard;
+    }
+
+    private static String resultKey(ClusterRun run, String nodeId) {
+        return prefix(run) + "result:" + nodeId;
+    }
+
+}
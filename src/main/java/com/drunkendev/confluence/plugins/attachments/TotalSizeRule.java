@@ -0,0 +1,55 @@
+/*
+ * TotalSizeRule.java    Oct 18 2026, 04:00
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Purges the oldest prior versions once the newer versions retained exceed a
+ * total size.
+ *
+ * @author  Brett Ryan
+ */
+public final class TotalSizeRule implements RetentionRule {
+
+    private final long maxBytes;
+
+    /**
+     * Creates a new {@code TotalSizeRule} instance.
+     *
+     * @param   maxBytes
+     *          Total bytes of prior versions retained.
+     */
+    public TotalSizeRule(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * {@link RetentionRule.Factory} of the maximum attachment size, configured
+     * in MiB.
+     */
+    public static List<RetentionRule> create(PurgeAttachmentSettings stng, LocalDateTime now) {
+        return stng.isMaxSizeRuleEnabled()
+               ? Collections.singletonList(new TotalSizeRule(stng.getMaxTotalSize() * 1024 * 1024))
+               : Collections.emptyList();
+    }
+
+    @Override
+    public boolean purges(PriorVersions versions, int index, long retainedBytes) {
+        return retainedBytes > maxBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "TotalSizeRule{" + "maxBytes=" + maxBytes + '}';
+    }
+
+}
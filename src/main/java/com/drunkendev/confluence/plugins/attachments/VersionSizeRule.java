@@ -0,0 +1,60 @@
+/*
+ * VersionSizeRule.java    Oct 18 2026, 04:00
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.time.LocalDateTime;
+import java.util.Collections;
+import java.util.List;
+
+
+/**
+ * Purges any prior version larger than a size, leaving smaller versions
+ * either side of it.
+ *
+ * @author  Brett Ryan
+ */
+public final class VersionSizeRule implements RetentionRule {
+
+    private final long maxBytes;
+
+    /**
+     * Creates a new {@code VersionSizeRule} instance.
+     *
+     * @param   maxBytes
+     *          Size in bytes above which a version is purged.
+     */
+    public VersionSizeRule(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /**
+     * {@link RetentionRule.Factory} of the maximum version size, configured in
+     * MiB where {@code 0} disables the rule.
+     */
+    public static List<RetentionRule> create(PurgeAttachmentSettings stng, LocalDateTime now) {
+        return stng.getMaxVersionSize() > 0
+               ? Collections.singletonList(new VersionSizeRule(stng.getMaxVersionSize() * 1024 * 1024))
+               : Collections.emptyList();
+    }
+
+    @Override
+    public boolean isCascading() {
+        return false;
+    }
+
+    @Override
+    public boolean purges(PriorVersions versions, int index, long retainedBytes) {
+        return versions.getSize(index) > maxBytes;
+    }
+
+    @Override
+    public String toString() {
+        return "VersionSizeRule{" + "maxBytes=" + maxBytes + '}';
+    }
+
+}
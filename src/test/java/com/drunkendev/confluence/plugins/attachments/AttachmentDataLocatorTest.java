@@ -0,0 +1,40 @@
+/*
+ * AttachmentDataLocatorTest.java    Oct 18 2026, 09:30
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+
+
+/**
+ * Tests files are located as laid out by confluence in {@code ver003}.
+ *
+ * @author  Brett Ryan
+ */
+public class AttachmentDataLocatorTest {
+
+    private static final Path ROOT = Paths.get("attachments", "ver003");
+
+    @Test
+    public void testSpacedPath() {
+        // Space 98306 hashes to 56/98, page 65584457 to 207/84.
+        assertEquals(ROOT.resolve(Paths.get("56", "98", "98306", "207", "84", "65584457", "65601549", "3")),
+                     AttachmentDataLocator.resolve(ROOT, 98306L, 65584457, 65601549, 3));
+    }
+
+    @Test
+    public void testNonspacedPath() {
+        // Page 1720321 hashes to 71/220.
+        assertEquals(ROOT.resolve(Paths.get("nonspaced", "71", "220", "1720321", "1736706", "1")),
+                     AttachmentDataLocator.resolve(ROOT, null, 1720321, 1736706, 1));
+    }
+
+}
@@ -0,0 +1,119 @@
+/*
+ * ContentDigestStoreTest.java    Oct 18 2026, 07:20
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.nio.file.StandardOpenOption.APPEND;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Tests digests are kept across stores and removed with their versions.
+ *
+ * @author  Brett Ryan
+ */
+public class ContentDigestStoreTest {
+
+    private Path dir;
+    private PluginHome home;
+    private ContentDigestStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("digests");
+        home = new PluginHome(null) {
+            @Override
+            public Path resolve(String name) {
+                return dir.resolve(name);
+            }
+        };
+        store = new ContentDigestStore(home, null);
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        store.destroy();
+        try (Stream<Path> files = Files.walk(dir)) {
+            files.sorted(Comparator.reverseOrder()).forEach(p -> p.toFile().delete());
+        }
+    }
+
+    private Path write(String name, String content) throws IOException {
+        return Files.write(dir.resolve(name), content.getBytes(UTF_8));
+    }
+
+    private static byte[] sha256(String content) throws NoSuchAlgorithmException {
+        return MessageDigest.getInstance("SHA-256").digest(content.getBytes(UTF_8));
+    }
+
+    @Test
+    public void testDigestsAreKept() throws Exception {
+        Map<Long, Path> files = new HashMap<>();
+        files.put(1L, write("1", "one"));
+        files.put(1025L, write("1025", "one"));
+        files.put(2L, write("2", "two"));
+        Map<Long, byte[]> digests = store.getDigests(files);
+        assertEquals(3, digests.size());
+        assertArrayEquals(sha256("one"), digests.get(1L));
+        assertArrayEquals(sha256("one"), digests.get(1025L));
+        assertArrayEquals(sha256("two"), digests.get(2L));
+
+        // Files no longer read once hashed.
+        for (Path f : files.values()) {
+            Files.delete(f);
+        }
+        Map<Long, byte[]> kept = new ContentDigestStore(home, null).getDigests(files);
+        assertEquals(3, kept.size());
+        assertArrayEquals(sha256("two"), kept.get(2L));
+    }
+
+    @Test
+    public void testRemovedDigestsAreHashedAgain() throws Exception {
+        Map<Long, Path> files = Collections.singletonMap(7L, write("7", "seven"));
+        store.getDigests(files);
+        store.remove(Arrays.asList(7L, 8L));
+        Files.delete(files.get(7L));
+        assertTrue(store.getDigests(files).isEmpty());
+    }
+
+    @Test
+    public void testReadStopsAtCorruptRecord() throws Exception {
+        Map<Long, Path> files = new HashMap<>();
+        files.put(3L, write("3", "three"));
+        store.getDigests(files);
+        Path bucket = dir.resolve("digests").resolve("003.bin");
+        Files.write(bucket, new byte[]{0, 0, 0, 41, 1, 2, 3, 4, 5}, APPEND);
+        files.put(1027L, write("1027", "other"));
+        store.getDigests(files);
+
+        // Records appended after the torn record are dropped with it, the bucket is written again.
+        Files.delete(files.get(3L));
+        Files.delete(files.get(1027L));
+        Map<Long, byte[]> kept = store.getDigests(files);
+        assertEquals(1, kept.size());
+        assertArrayEquals(sha256("three"), kept.get(3L));
+    }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * LongQueueTest.java    Oct 18 2026, 08:10
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Tests values are returned in order whether held in memory or spilled.
+ *
+ * @author  Brett Ryan
+ */
+public class LongQueueTest {
+
+    private Path dir;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("queue");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(dir);
+    }
+
+    private long files() throws IOException {
+        try (Stream<Path> s = Files.list(dir)) {
+            return s.count();
+        }
+    }
+
+    @Test
+    public void testOrderAcrossChunkBoundaries() {
+        try (LongQueue q = new LongQueue(4, Integer.MAX_VALUE, null)) {
+            long next = 0;
+            long expected = 0;
+            // Polls trail adds so the head meets the tail within and across chunks.
+            for (int round = 1; round <= 20; round++) {
+                for (int i = 0; i < round; i++) {
+                    q.add(next++);
+                }
+                for (int i = 0; i < round / 2; i++) {
+                    assertEquals(expected++, q.poll());
+                }
+            }
+            assertEquals(next - expected, q.size());
+            while (!q.isEmpty()) {
+                assertEquals(expected++, q.poll());
+            }
+            assertEquals(next, expected);
+        }
+    }
+
+    @Test
+    public void testSpillsToTempFile() throws IOException {
+        try (LongQueue q = new LongQueue(4, 2, dir)) {
+            for (long i = 0; i < 100; i++) {
+                q.add(i);
+            }
+            assertEquals(100, q.size());
+            assertTrue(q.spilledSize() > 0);
+            // Only two full chunks, the tail and a spare chunk are held in memory.
+            assertTrue(q.memoryUsage() <= 4 * (16 + 4 * 8));
+
+            for (long i = 0; i < 50; i++) {
+                assertEquals(i, q.poll());
+            }
+            for (long i = 100; i < 150; i++) {
+                q.add(i);
+            }
+            for (long i = 50; i < 150; i++) {
+                assertEquals(i, q.poll());
+            }
+            assertTrue(q.isEmpty());
+            assertEquals(0, q.spilledSize());
+        }
+        // The spill file is removed on close, or on open where the platform allows.
+        assertEquals(0, files());
+    }
+
+    @Test
+    public void testBytesPerEntry() {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+            return;
+        }
+        long thread = Thread.currentThread().getId();
+        int n = 1_000_000;
+        try (LongQueue q = new LongQueue()) {
+            long before = threads.getThreadAllocatedBytes(thread);
+            for (long i = 0; i < n; i++) {
+                q.add(i);
+            }
+            // Nothing is polled, every chunk allocated is still held.
+            double perEntry = (double) (threads.getThreadAllocatedBytes(thread) - before) / n;
+            assertTrue("Bytes per entry " + perEntry, perEntry >= 8 && perEntry < 8.1);
+        }
+    }
+
+    @Test(expected = NoSuchElementException.class)
+    public void testPollEmpty() {
+        try (LongQueue q = new LongQueue()) {
+            q.add(1);
+            q.poll();
+            q.poll();
+        }
+    }
+
+}
@@ -0,0 +1,146 @@
+/*
+ * PurgeCheckpointStoreTest.java    Oct 18 2026, 06:40
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Tests resuming a run from a checkpoint saved while deletions were queued.
+ *
+ * @author  Brett Ryan
+ */
+public class PurgeCheckpointStoreTest {
+
+    private static final ScanPartition PARTITION = ScanPartition.NO_SPACE;
+
+    private Path dir;
+    private PurgeCheckpointStore store;
+
+    @Before
+    public void setUp() throws IOException {
+        dir = Files.createTempDirectory("checkpoint");
+        store = new PurgeCheckpointStore(new PluginHome(null) {
+            @Override
+            public Path resolve(String name) {
+                return dir.resolve(name);
+            }
+        });
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        store.clear();
+        Files.deleteIfExists(dir.resolve("checkpoint"));
+        Files.deleteIfExists(dir);
+    }
+
+    /**
+     * Attachments 1 to 6 are evaluated in two batches, 2 and 5 are queued for
+     * deletion and only the deletion of 2 commits before the checkpoint.
+     */
+    @Test
+    public void testResumeEvaluatesEachAttachmentOnce() {
+        InFlightAttachments inFlight = new InFlightAttachments();
+        long[] counters = new long[3];
+        List<String> entries = new ArrayList<>();
+        for (long id = 1; id <= 6; id++) {
+            counters[0]++;
+            counters[1] += 2;
+            if (id == 2 || id == 5) {
+                inFlight.add(PARTITION, id, 2);
+            } else {
+                entries.add("kept " + id);
+            }
+        }
+        inFlight.remove(PARTITION, 2);
+        entries.add("deleted 2");
+        long length = store.append(entries);
+
+        Map<ScanPartition, Long> cursors = Collections.singletonMap(PARTITION, 6L);
+        counters[0] -= inFlight.size();
+        counters[1] -= inFlight.getPriorVersions();
+        store.save(new PurgeCheckpoint(LocalDateTime.now(), null, counters, Collections.emptySet(),
+                                       cursors, inFlight.getIds(), length, false));
+        // Entries journaled after the checkpoint are dropped on resume.
+        store.append(Collections.singletonList("deleted 5"));
+
+        PurgeCheckpoint resumed = store.load(Duration.ofHours(1));
+        assertNotNull(resumed);
+        assertEquals(Long.valueOf(6), resumed.getCursors().get(PARTITION));
+        assertEquals(new TreeSet<>(Arrays.asList(5L)), resumed.getRetries().get(PARTITION));
+        assertArrayEquals(new long[]{5, 10}, Arrays.copyOf(resumed.getCounters(), 2));
+
+        List<Object> read = new ArrayList<>();
+        store.readEntries(resumed, read::add);
+        assertEquals(entries, read);
+
+        // Retries and attachments after the cursor together visit each attachment once.
+        List<Long> evaluated = new ArrayList<>(resumed.getRetries().get(PARTITION));
+        for (long id = 1; id <= 8; id++) {
+            if (id > resumed.getCursors().get(PARTITION)) {
+                evaluated.add(id);
+            }
+        }
+        for (Object e : read) {
+            evaluated.add(Long.valueOf(((String) e).substring(((String) e).indexOf(' ') + 1)));
+        }
+        Set<Long> distinct = new TreeSet<>(evaluated);
+        assertEquals(evaluated.size(), distinct.size());
+        assertEquals(8, distinct.size());
+    }
+
+    @Test
+    public void testDiscardedVersionsRemainHeld() {
+        InFlightAttachments inFlight = new InFlightAttachments();
+        inFlight.add(PARTITION, 10, 4);
+        inFlight.add(PARTITION, 11, 1);
+        inFlight.discarded(PARTITION, 10, 3);
+        assertEquals(2, inFlight.size());
+        assertEquals(5, inFlight.getPriorVersions());
+        assertEquals(3, inFlight.getDiscardedVersions());
+
+        inFlight.remove(PARTITION, 11);
+        assertEquals(1, inFlight.size());
+        assertEquals(4, inFlight.getPriorVersions());
+        assertTrue(inFlight.getIds().get(PARTITION).contains(10L));
+    }
+
+    @Test
+    public void testCheckpointWithoutRetriesHasNone() {
+        Map<ScanPartition, Long> cursors = new HashMap<>();
+        cursors.put(PARTITION, 3L);
+        store.save(new PurgeCheckpoint(LocalDateTime.now(), null, new long[1],
+                                       Collections.singleton(PARTITION), cursors,
+                                       Collections.emptyMap(), 0, true));
+        PurgeCheckpoint resumed = store.load(Duration.ofHours(1));
+        assertTrue(resumed.getRetries().isEmpty());
+        assertEquals(Collections.singleton(PARTITION), resumed.getCompleted());
+    }
+
+}
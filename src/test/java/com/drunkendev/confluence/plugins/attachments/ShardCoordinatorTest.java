@@ -0,0 +1,178 @@
+/*
+ * ShardCoordinatorTest.java    Oct 18 2026, 07:50
+ *
+ * Copyright 2026 Drunken Dev. All rights reserved.
+ * Use is subject to license terms.
+ */
+
+package com.drunkendev.confluence.plugins.attachments;
+
+import java.time.Clock;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+
+/**
+ * Tests several coordinators sharing a {@link LocalLeaseStore} as separate
+ * nodes.
+ *
+ * @author  Brett Ryan
+ */
+public class ShardCoordinatorTest {
+
+    private static final Duration TTL = Duration.ofMinutes(1);
+
+    private MutableClock clock;
+    private LocalLeaseStore store;
+    private List<ShardCoordinator> nodes;
+    private ClusterRun run;
+
+    @Before
+    public void setUp() {
+        clock = new MutableClock();
+        store = new LocalLeaseStore(clock);
+        nodes = Arrays.asList(new ShardCoordinator(store, "a", TTL),
+                              new ShardCoordinator(store, "b", TTL),
+                              new ShardCoordinator(store, "c", TTL));
+        List<ScanPartition> shards = new ArrayList<>();
+        shards.add(ScanPartition.NO_SPACE);
+        for (String key : new String[]{"ONE", "TWO", "THREE", "FOUR", "FIVE", "SIX"}) {
+            shards.add(ScanPartition.ofSpace(key));
+        }
+        ClusterRun created = new ClusterRun("run", LocalDateTime.now(), null, shards);
+        for (ShardCoordinator node : nodes) {
+            assertSame(created, node.join(() -> created));
+        }
+        run = created;
+    }
+
+    @Test
+    public void testEachShardClaimedOnce() {
+        Map<ShardCoordinator, Set<ScanPartition>> held = new HashMap<>();
+        for (ShardCoordinator node : nodes) {
+            held.put(node, new HashSet<>());
+        }
+        List<ScanPartition> claimed = new ArrayList<>();
+        boolean any = true;
+        while (any) {
+            any = false;
+            for (ShardCoordinator node : nodes) {
+                ScanPartition shard = node.claim(run, held.get(node));
+                if (shard != null) {
+                    held.get(node).add(shard);
+                    claimed.add(shard);
+                    any = true;
+                }
+            }
+        }
+        assertEquals(run.getShards().size(), claimed.size());
+        assertEquals(new HashSet<>(run.getShards()), new HashSet<>(claimed));
+        for (ShardCoordinator node : nodes) {
+            assertFalse(held.get(node).isEmpty());
+        }
+    }
+
+    @Test
+    public void testLapsedLeaseTakenOver() {
+        ShardCoordinator a = nodes.get(0);
+        ShardCoordinator b = nodes.get(1);
+        Set<ScanPartition> heldByA = new HashSet<>();
+        for (ScanPartition shard; (shard = a.claim(run, heldByA)) != null;) {
+            heldByA.add(shard);
+        }
+        assertNull(b.claim(run, Collections.emptySet()));
+
+        clock.advance(TTL.plusSeconds(1));
+        ScanPartition taken = b.claim(run, Collections.emptySet());
+        assertTrue(heldByA.contains(taken));
+        assertFalse(a.renew(run, heldByA));
+    }
+
+    @Test
+    public void testExpiredLeaseIsNotRenewed() {
+        assertTrue(store.tryAcquire("lease", "a", TTL));
+        clock.advance(TTL.minusSeconds(1));
+        assertTrue(store.renew("lease", "a", TTL));
+        clock.advance(TTL);
+        assertFalse(store.renew("lease", "a", TTL));
+        assertTrue(store.tryAcquire("lease", "b", TTL));
+    }
+
+    @Test
+    public void testOnlyOneNodeMerges() {
+        for (ShardCoordinator node : nodes) {
+            Set<ScanPartition> held = new HashSet<>();
+            for (ScanPartition shard; (shard = node.claim(run, held)) != null;) {
+                held.add(shard);
+            }
+            node.publish(run, held, held, node.getNodeId());
+        }
+        assertEquals(1, merging());
+
+        // The coordinator stops, another node takes over.
+        clock.advance(TTL.plusSeconds(1));
+        assertTrue(nodes.get(1).isCoordinator(run));
+        assertEquals(1, merging());
+        assertFalse(nodes.get(0).isCoordinator(run));
+    }
+
+    /**
+     * @return  number of nodes which would merge the results, as decided by
+     *          each node once it has finished its part.
+     */
+    private int merging() {
+        int res = 0;
+        for (ShardCoordinator node : nodes) {
+            if (node.isComplete(run, Collections.emptySet()) && node.isCoordinator(run)) {
+                res++;
+            }
+        }
+        return res;
+    }
+
+
+    private static final class MutableClock extends Clock {
+
+        private Instant now = Instant.parse("2026-10-18T00:00:00Z");
+
+        private void advance(Duration d) {
+            now = now.plus(d);
+        }
+
+        @Override
+        public ZoneId getZone() {
+            return ZoneOffset.UTC;
+        }
+
+        @Override
+        public Clock withZone(ZoneId zone) {
+            return this;
+        }
+
+        @Override
+        public Instant instant() {
+            return now;
+        }
+
+    }
+
+}